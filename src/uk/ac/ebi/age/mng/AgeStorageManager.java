@@ -7,7 +7,9 @@ public class AgeStorageManager
 {
  public enum DB_TYPE
  {
-  AgeDB("uk.ac.ebi.age.storage.impl.ser.SerializedStorage");
+  AgeDB("uk.ac.ebi.age.storage.impl.ser.SerializedStorage"),
+  AgeDBCompact("uk.ac.ebi.age.storage.impl.ser.CompactSerializedStorage"),
+  AgeDBMapped("uk.ac.ebi.age.storage.impl.ser.MappedStorage");
   
   private DB_TYPE( String cls )
   {
@@ -0,0 +1,119 @@
+package uk.ac.ebi.age.mng;
+
+import java.io.Reader;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import uk.ac.ebi.age.log.LogNode;
+import uk.ac.ebi.age.model.AgeObject;
+import uk.ac.ebi.age.model.SemanticModel;
+import uk.ac.ebi.age.model.SubmissionContext;
+import uk.ac.ebi.age.model.writable.AgeRelationWritable;
+import uk.ac.ebi.age.model.writable.SubmissionWritable;
+import uk.ac.ebi.age.parser.AgeTabSubmission;
+
+/*
+ * State of one submission travelling through SubmissionManager stages. The job is also the handle
+ * returned by SubmissionPipeline: it completes with the stored submission or with null when any
+ * stage fails (the reason is in the job's log).
+ */
+
+class SubmissionJob implements Future<SubmissionWritable>
+{
+ Reader input;
+ String name;
+ boolean update;
+ SubmissionContext context;
+ LogNode logRoot;
+
+ SubmissionWritable origSubmission;
+ AgeTabSubmission ageTabSubmission;
+ SubmissionWritable submission;
+
+ LogNode connLog;
+ Map<AgeObject,Set<AgeRelationWritable>> invRelMap;
+ long storageVersion;
+ SemanticModel storageModel;
+
+ private SubmissionWritable result;
+ private Throwable failure;
+ private CountDownLatch done = new CountDownLatch(1);
+
+ SubmissionJob( Reader input, String name, boolean update, SubmissionContext context, LogNode logRoot )
+ {
+  this.input = input;
+  this.name = name;
+  this.update = update;
+  this.context = context;
+  this.logRoot = logRoot;
+ }
+
+ void complete( SubmissionWritable res )
+ {
+  result = res;
+  release();
+ }
+
+ void fail( Throwable t )
+ {
+  failure = t;
+  release();
+ }
+
+ private void release()
+ {
+  input = null;
+  ageTabSubmission = null;
+  invRelMap = null;
+
+  done.countDown();
+ }
+
+ @Override
+ public boolean cancel(boolean mayInterruptIfRunning)
+ {
+  return false;
+ }
+
+ @Override
+ public boolean isCancelled()
+ {
+  return false;
+ }
+
+ @Override
+ public boolean isDone()
+ {
+  return done.getCount() == 0;
+ }
+
+ @Override
+ public SubmissionWritable get() throws InterruptedException, ExecutionException
+ {
+  done.await();
+
+  return getResult();
+ }
+
+ @Override
+ public SubmissionWritable get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException
+ {
+  if( ! done.await(timeout, unit) )
+   throw new TimeoutException();
+
+  return getResult();
+ }
+
+ private SubmissionWritable getResult() throws ExecutionException
+ {
+  if( failure != null )
+   throw new ExecutionException(failure);
+
+  return result;
+ }
+}
@@ -1,8 +1,14 @@
 package uk.ac.ebi.age.mng;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
@@ -44,151 +50,458 @@ public class SubmissionManager
  
  public SubmissionWritable prepareSubmission( String text, String name, boolean update,  SubmissionContext context, AgeStorageAdm stor, LogNode logRoot )
  {
-  AgeTabSubmission atSbm=null;
+  return prepareSubmission( new StringReader(text), name, update, context, stor, logRoot );
+ }
+
+ public SubmissionWritable prepareSubmission( Reader input, String name, boolean update,  SubmissionContext context, AgeStorageAdm stor, LogNode logRoot )
+ {
+  SubmissionJob job = new SubmissionJob(input, name, update, context, logRoot);
+  
+  if( ! parse(job, stor) || ! convert(job) )
+   return null;
+  
+  try
+  {
+   stor.lockWrite();
+
+   if( ! connect(job, stor, logRoot) || ! store(job, stor) )
+    return null;
+  }
+  finally
+  {
+   stor.unlockWrite();
+  }
+
+  //Impute reverse relation and revalidate.
+
+  return job.submission;
+ }
+
+ /*
+  * Prepares and stores a set of new submissions as one unit: references between the submissions are resolved
+  * within the batch and the storage is updated with a single commit. Returns null (nothing is stored)
+  * if any of the submissions fails. Each submission logs into its own branch of logRoot.
+  */
+ public List<SubmissionWritable> prepareSubmissions( List<? extends Reader> inputs, SubmissionContext context, AgeStorageAdm stor, LogNode logRoot )
+ {
+  List<SubmissionJob> jobs = new ArrayList<SubmissionJob>( inputs.size() );
   
-  SubmissionWritable origSbm = null;
+  boolean res = true;
   
-  if( update && name != null )
+  int n=0;
+  for( Reader input : inputs )
   {
-   origSbm = stor.getSubmission(name);
+   n++;
+   
+   SubmissionJob job = new SubmissionJob(input, null, false, context, logRoot.branch("Submission "+n));
+   
+   if( parse(job, stor) && convert(job) )
+    jobs.add(job);
+   else
+    res = false;
+  }
+  
+  if( ! res )
+   return null;
+  
+  LogNode uniqLog = logRoot.branch("Verifing object Id uniqueness within the batch");
+  
+  Map<String,AgeObjectWritable> batchObjs = new HashMap<String, AgeObjectWritable>();
+  
+  for( SubmissionJob job : jobs )
+  {
+   for( AgeObjectWritable obj : job.submission.getObjects() )
+   {
+    if( batchObjs.containsKey(obj.getId()) )
+    {
+     res = false;
+     uniqLog.log(Level.ERROR, "Id: '"+obj.getId()+"' is already used by other submission of the batch. Class: "+obj.getAgeElClass()+" Order: "+obj.getOrder());
+    }
+   }
+   
+   for( AgeObjectWritable obj : job.submission.getObjects() )
+    batchObjs.put(obj.getId(), obj);
+  }
+  
+  if( res )
+   uniqLog.log(Level.INFO, "Success");
+  else
+   return null;
+  
+  List<SubmissionWritable> sbms = new ArrayList<SubmissionWritable>( jobs.size() );
+
+  try
+  {
+   stor.lockWrite();
+
+   Map<AgeObject,Set<AgeRelationWritable>> invRelMap = new HashMap<AgeObject, Set<AgeRelationWritable>>();
+   
+   for( SubmissionJob job : jobs )
+   {
+    if( ! connectAndValidate(job, stor, batchObjs, job.logRoot) )
+    {
+     res = false;
+     continue;
+    }
+    
+    for( Map.Entry<AgeObject, Set<AgeRelationWritable>> me : job.invRelMap.entrySet() )
+    {
+     Set<AgeRelationWritable> rels = invRelMap.get(me.getKey());
+     
+     if( rels == null )
+      invRelMap.put(me.getKey(), me.getValue());
+     else
+      rels.addAll(me.getValue());
+    }
+    
+    sbms.add(job.submission);
+   }
+   
+   if( ! res )
+    return null;
    
-   if( origSbm == null )
+   // Inverse relations from all submissions of the batch are validated together against their targets
+   LogNode connLog = logRoot.branch("Connecting submissions to the main graph");
+
+   if( ! validateRelated(connLog, invRelMap, null) )
+    return null;
+   
+   LogNode storLog = connLog.branch("Storing submissions");
+   try
+   {
+    stor.storeSubmissions(sbms);
+    storLog.log(Level.INFO, "Success");
+   }
+   catch(Exception e)
    {
-    logRoot.log(Level.ERROR, "The storage doesn't contain submission with ID='"+name+"'");
+    storLog.log(Level.ERROR, "Submissions storing failed: "+e.getMessage());
     return null;
    }
+   
+   for( Map.Entry<AgeObject, Set<AgeRelationWritable>> me :  invRelMap.entrySet() )
+    stor.addRelations(me.getKey().getId(),me.getValue());
+  }
+  finally
+  {
+   stor.unlockWrite();
   }
   
-  LogNode atLog = logRoot.branch("Parsing AgeTab");
+  return sbms;
+ }
+
+ boolean parse( SubmissionJob job, AgeStorageAdm stor )
+ {
+  if( job.update && job.name != null )
+  {
+   job.origSubmission = stor.getSubmission(job.name);
+   
+   if( job.origSubmission == null )
+   {
+    job.logRoot.log(Level.ERROR, "The storage doesn't contain submission with ID='"+job.name+"'");
+    return false;
+   }
+  }
+  
+  LogNode atLog = job.logRoot.branch("Parsing AgeTab");
   try
   {
-   atSbm =  ageTabParser.parse(text);
+   job.ageTabSubmission =  ageTabParser.parse(job.input);
    atLog.log(Level.INFO, "Success");
   }
   catch(ParserException e)
   {
    atLog.log(Level.ERROR, "Parsing failed: "+e.getMessage()+". Row: "+e.getLineNumber()+". Col: "+e.getColumnNumber());
-   return null;
+   return false;
+  }
+  catch(IOException e)
+  {
+   atLog.log(Level.ERROR, "Reading failed: "+e.getMessage());
+   return false;
   }
+  
+  return true;
+ }
 
-  LogNode convLog = logRoot.branch("Converting AgeTab to Age submission");
-  SubmissionWritable ageSbm = converter.convert(atSbm, SemanticManager.getInstance().getContextModel(context), convLog );
+ boolean convert( SubmissionJob job )
+ {
+  LogNode convLog = job.logRoot.branch("Converting AgeTab to Age submission");
+  job.submission = converter.convert(job.ageTabSubmission, SemanticManager.getInstance().getContextModel(job.context), convLog );
   
-  if( ageSbm != null )
+  job.ageTabSubmission = null;
+  
+  if( job.submission != null )
    convLog.log(Level.INFO, "Success");
   else
   {
    convLog.log(Level.ERROR, "Conversion failed");
-   return null;
+   return false;
   }
   
+  return true;
+ }
+ 
+ /*
+  * Resolves the external references of the submission against the storage and validates it.
+  * The caller must hold at least the storage read lock.
+  */
+ boolean connect( SubmissionJob job, AgeStorageAdm stor, LogNode logRoot )
+ {
+  return connectAndValidate(job, stor, null, logRoot) && validateRelated(job.connLog, job.invRelMap, job.origSubmission);
+ }
+ 
+ /*
+  * batchObjs (may be null) are objects of other submissions committed together with this one,
+  * external references are resolved against them first
+  */
+ private boolean connectAndValidate( SubmissionJob job, AgeStorageAdm stor, Map<String,? extends AgeObject> batchObjs, LogNode logRoot )
+ {
+  if( ! connectJob(job, stor, batchObjs, logRoot) )
+   return false;
   
-  try
+  LogNode semLog = logRoot.branch("Validating semantic");
+
+  if(validator.validate(job.submission, semLog))
+   semLog.log(Level.INFO, "Success");
+  else
   {
-   LogNode connLog = logRoot.branch("Connecting submission to the main graph");
-   stor.lockWrite();
+   semLog.log(Level.ERROR, "Validation failed");
+   return false;
+  }
+  
+  return true;
+ }
+ 
+ /*
+  * Resolves the external references again when the storage has changed since connect(). The submission's own
+  * semantic doesn't depend on the stored data and is not validated again unless the model has changed,
+  * only its links and the related objects are. The caller must hold the storage write lock.
+  */
+ private boolean reconnect( SubmissionJob job, AgeStorageAdm stor )
+ {
+  LogNode logRoot = job.logRoot.branch("Storage was modified during validation. Reconnecting submission");
 
-   Map<AgeObject,Set<AgeRelationWritable>> invRelMap = new HashMap<AgeObject, Set<AgeRelationWritable>>();
+  if( stor.getSemanticModel() != job.storageModel )
+   return connect(job, stor, logRoot);
+
+  return connectJob(job, stor, null, logRoot) && validateRelated(job.connLog, job.invRelMap, job.origSubmission);
+ }
+
+ private boolean connectJob( SubmissionJob job, AgeStorageAdm stor, Map<String,? extends AgeObject> batchObjs, LogNode logRoot )
+ {
+  LogNode connLog = logRoot.branch("Connecting submission to the main graph");
+
+  Map<AgeObject,Set<AgeRelationWritable>> invRelMap = new HashMap<AgeObject, Set<AgeRelationWritable>>();
+
+  job.connLog = connLog;
+  job.invRelMap = invRelMap;
+  job.storageVersion = stor.getDataVersion();
+  job.storageModel = stor.getSemanticModel();
+  
+  if( connectSubmission( job.submission, stor, batchObjs, invRelMap, connLog) )
+  {
+   connLog.log(Level.INFO, "Success");
+   return true;
+  }
+
+  connLog.log(Level.ERROR, "Connection failed");
+  return false;
+ }
+
+ private boolean validateRelated( LogNode connLog, Map<AgeObject,Set<AgeRelationWritable>> invRelMap, SubmissionWritable origSbm )
+ {
+  Map<AgeObject,Set<AgeRelationWritable>> detachedRelMap = new HashMap<AgeObject, Set<AgeRelationWritable>>();
+
+  if( origSbm != null )
+  {
+   Collection<AgeExternalRelationWritable> origExtRels = origSbm.getExternalRelations();
    
-   if( connectSubmission( ageSbm, stor, invRelMap, connLog) )
-    connLog.log(Level.INFO, "Success");
-   else
+   if( origExtRels != null )
    {
-    connLog.log(Level.ERROR, "Connection failed");
-    return null;
+    for(AgeExternalRelationWritable extRel : origExtRels )
+    {
+     AgeObject target = extRel.getTargetObject();
+     
+     Set<AgeRelationWritable> objectsRels = detachedRelMap.get(target); 
+     
+     if( objectsRels == null )
+      detachedRelMap.put(target, objectsRels = new HashSet<AgeRelationWritable>() );
+     
+     objectsRels.add(extRel.getInverseRelation());
+    }
    }
+  }
+  
+  
+  Set<AgeObject> affObjSet = new HashSet<AgeObject>();
+  
+  affObjSet.addAll( invRelMap.keySet() );
+  affObjSet.addAll( detachedRelMap.keySet() );
+  
+  if( affObjSet.size() > 0 )
+  {
+   LogNode invRelLog = connLog.branch("Validating externaly related object semantic");
    
+   boolean res = true;
+   for( AgeObject obj :  affObjSet )
+   {
+    LogNode objLogNode = invRelLog.branch("Validating object Id: "+obj.getId()+" Class: "+obj.getAgeElClass());
+    
+    if( validator.validateRelations(obj, invRelMap.get(obj), detachedRelMap.get(obj), objLogNode) )
+     objLogNode.log(Level.INFO, "Success");
+    else
+     res = false;
+   }
    
-   LogNode semLog = logRoot.branch("Validating semantic");
-
-   if(validator.validate(ageSbm, semLog))
-    semLog.log(Level.INFO, "Success");
+   if(res)
+    invRelLog.log(Level.INFO, "Success");
    else
    {
-    semLog.log(Level.ERROR, "Validation failed");
-    return null;
+    invRelLog.log(Level.ERROR, "Validation failed");
+    return false;
    }
+  }
+  
+  return true;
+ }
 
-   Map<AgeObject,Set<AgeRelationWritable>> detachedRelMap = new HashMap<AgeObject, Set<AgeRelationWritable>>();
+ /*
+  * Stores a connected submission and attaches inverse relations to the objects it refers to.
+  * The caller must hold the storage write lock.
+  */
+ boolean store( SubmissionJob job, AgeStorageAdm stor )
+ {
+  return store( Collections.singletonList(job), stor );
+ }
 
-   if( origSbm != null )
-   {
-    Collection<AgeExternalRelationWritable> origExtRels = origSbm.getExternalRelations();
-    
-    if( origExtRels != null )
-    {
-     for(AgeExternalRelationWritable extRel : origExtRels )
-     {
-      AgeObject target = extRel.getTargetObject();
-      
-      Set<AgeRelationWritable> objectsRels = detachedRelMap.get(target); 
-      
-      if( objectsRels == null )
-       detachedRelMap.put(target, objectsRels = new HashSet<AgeRelationWritable>() );
-      
-      objectsRels.add(extRel.getInverseRelation());
-     }
-    }
-   }
-   
-   
-   Set<AgeObject> affObjSet = new HashSet<AgeObject>();
+ /*
+  * Stores connected submissions with as few storage commits as possible, every commit forces the log once.
+  * Independent submissions are stored together. A submission defining an object ID used in the group or
+  * relating to an object the group relates to is stored after the group, so it is validated against the group's
+  * data. Submissions connected to an older state of the storage are reconnected.
+  * The caller must hold the storage write lock.
+  */
+ boolean[] commit( List<SubmissionJob> jobs, AgeStorageAdm stor )
+ {
+  boolean[] res = new boolean[ jobs.size() ];
+  
+  List<SubmissionJob> group = new ArrayList<SubmissionJob>( jobs.size() );
+  List<Integer> groupPos = new ArrayList<Integer>( jobs.size() );
+  Set<String> groupIds = new HashSet<String>();
+  Set<AgeObject> groupTargets = new HashSet<AgeObject>();
+  
+  for( int i=0; i < jobs.size(); i++ )
+  {
+   SubmissionJob job = jobs.get(i);
    
-   affObjSet.addAll( invRelMap.keySet() );
-   affObjSet.addAll( detachedRelMap.keySet() );
+   if( group.size() > 0 && isDependent(job, groupIds, groupTargets) )
+    storeGroup(group, groupPos, groupIds, groupTargets, stor, res);
    
-   if( affObjSet.size() > 0 )
+   if( stor.getDataVersion() != job.storageVersion )
    {
-    LogNode invRelLog = connLog.branch("Validating externaly related object semantic");
+    if( ! reconnect(job, stor) )
+     continue;
     
-    boolean res = true;
-    for( AgeObject obj :  affObjSet )
+    // Reconnected submission may relate to other objects
+    if( group.size() > 0 && isDependent(job, groupIds, groupTargets) )
     {
-     LogNode objLogNode = invRelLog.branch("Validating object Id: "+obj.getId()+" Class: "+obj.getAgeElClass());
+     storeGroup(group, groupPos, groupIds, groupTargets, stor, res);
      
-     if( validator.validateRelations(obj, invRelMap.get(obj), detachedRelMap.get(obj), objLogNode) )
-      objLogNode.log(Level.INFO, "Success");
-     else
-      res = false;
-    }
-    
-    if(res)
-     invRelLog.log(Level.INFO, "Success");
-    else
-    {
-     invRelLog.log(Level.ERROR, "Validation failed");
-     return null;
+     if( ! reconnect(job, stor) )
+      continue;
     }
+   }
 
-    LogNode storLog = connLog.branch("Storing submission");
-    try
-    {
-     stor.storeSubmission(ageSbm);
-     storLog.log(Level.INFO, "Success");
-    }
-    catch(Exception e)
-    {
-     storLog.log(Level.ERROR, "Submission storing failed: "+e.getMessage());
-     return null;
-    }
-    
-    for( Map.Entry<AgeObject, Set<AgeRelationWritable>> me :  invRelMap.entrySet() )
-     stor.addRelations(me.getKey().getId(),me.getValue());
+   group.add(job);
+   groupPos.add(i);
 
-   }
+   for( AgeObjectWritable obj : job.submission.getObjects() )
+    groupIds.add(obj.getId());
+   
+   groupTargets.addAll( job.invRelMap.keySet() );
+  }
+  
+  if( group.size() > 0 )
+   storeGroup(group, groupPos, groupIds, groupTargets, stor, res);
+  
+  return res;
+ }
 
+ private boolean isDependent( SubmissionJob job, Set<String> groupIds, Set<AgeObject> groupTargets )
+ {
+  for( AgeObjectWritable obj : job.submission.getObjects() )
+  {
+   if( groupIds.contains(obj.getId()) )
+    return true;
   }
-  finally
+  
+  for( AgeObject tgt : job.invRelMap.keySet() )
   {
-   stor.unlockWrite();
+   if( groupTargets.contains(tgt) )
+    return true;
   }
+  
+  return false;
+ }
+ 
+ // Stores the group and clears it
+ private void storeGroup( List<SubmissionJob> group, List<Integer> groupPos, Set<String> groupIds, Set<AgeObject> groupTargets,
+   AgeStorageAdm stor, boolean[] res )
+ {
+  boolean ok = store(group, stor);
+  
+  for( int pos : groupPos )
+   res[pos] = ok;
+  
+  group.clear();
+  groupPos.clear();
+  groupIds.clear();
+  groupTargets.clear();
+ }
 
-  //Impute reverse relation and revalidate.
-
-  return ageSbm;
+ private boolean store( List<SubmissionJob> jobs, AgeStorageAdm stor )
+ {
+  List<SubmissionWritable> sbms = new ArrayList<SubmissionWritable>( jobs.size() );
+  
+  for( SubmissionJob job : jobs )
+   sbms.add(job.submission);
+  
+  try
+  {
+   stor.storeSubmissions(sbms);
+  }
+  catch(Exception e)
+  {
+   for( SubmissionJob job : jobs )
+    job.connLog.branch("Storing submission").log(Level.ERROR, "Submission storing failed: "+e.getMessage());
+   
+   return false;
+  }
+  
+  for( SubmissionJob job : jobs )
+  {
+   job.connLog.branch("Storing submission").log(Level.INFO, "Success");
+  
+   for( Map.Entry<AgeObject, Set<AgeRelationWritable>> me :  job.invRelMap.entrySet() )
+    stor.addRelations(me.getKey().getId(),me.getValue());
+  }
+  
+  return true;
  }
 
- private boolean connectSubmission(SubmissionWritable sbm, AgeStorageAdm stor, Map<AgeObject,Set<AgeRelationWritable>> invRelMap, LogNode connLog)
+ private AgeObject findObject( String id, AgeStorageAdm stor, Map<String,? extends AgeObject> batchObjs )
+ {
+  if( batchObjs != null )
+  {
+   AgeObject obj = batchObjs.get(id);
+   
+   if( obj != null )
+    return obj;
+  }
+  
+  return stor.getObjectById(id);
+ }
+ 
+ private boolean connectSubmission(SubmissionWritable sbm, AgeStorageAdm stor, Map<String,? extends AgeObject> batchObjs, Map<AgeObject,Set<AgeRelationWritable>> invRelMap, LogNode connLog)
  {
   boolean res = true;
   
@@ -210,7 +523,7 @@ public class SubmissionManager
    
    attrStk.clear();
    attrStk.push(obj);
-   extAttrRes = extAttrRes && connectExternalAttrs( attrStk, stor, extAttrLog  );
+   extAttrRes = extAttrRes && connectExternalAttrs( attrStk, stor, batchObjs, extAttrLog  );
   }
   
   res = uniqRes && extAttrRes;
@@ -231,7 +544,7 @@ public class SubmissionManager
    {
     String ref = exr.getTargetObjectId();
     
-    AgeObjectWritable tgObj = (AgeObjectWritable)stor.getObjectById(ref);
+    AgeObjectWritable tgObj = (AgeObjectWritable)findObject(ref, stor, batchObjs);
     
     if( tgObj == null )
     {
@@ -327,7 +640,7 @@ public class SubmissionManager
  }
 
  
- private boolean connectExternalAttrs( Stack<Attributed> atStk, AgeStorageAdm stor, LogNode log )
+ private boolean connectExternalAttrs( Stack<Attributed> atStk, AgeStorageAdm stor, Map<String,? extends AgeObject> batchObjs, LogNode log )
  {
   boolean res = true;
   
@@ -344,7 +657,7 @@ public class SubmissionManager
     
     String ref = extAttr.getTargetObjectId();
     
-    AgeObject tgObj = stor.getObjectById( ref );
+    AgeObject tgObj = findObject( ref, stor, batchObjs );
     
     if( tgObj == null )
     {
@@ -398,7 +711,7 @@ public class SubmissionManager
    }
    
    atStk.push(attr);
-   res = res && connectExternalAttrs(atStk,stor,log);
+   res = res && connectExternalAttrs(atStk,stor,batchObjs,log);
    atStk.pop();
   }
  
@@ -0,0 +1,416 @@
+package uk.ac.ebi.age.mng;
+
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import uk.ac.ebi.age.log.LogNode;
+import uk.ac.ebi.age.model.SubmissionContext;
+import uk.ac.ebi.age.model.writable.SubmissionWritable;
+import uk.ac.ebi.age.storage.AgeStorageAdm;
+
+/*
+ * Staged submission ingestion: parse -> convert -> validate -> commit. Stages are connected by bounded
+ * queues so many submissions are in flight at once and a slow stage pushes back on submit().
+ * Validation connects a submission under the storage read lock and remembers the storage data version;
+ * the commit stage takes the write lock and only reconnects the submission if the storage has changed
+ * since then (e.g. a submission committed in between). The commit stage takes all the submissions waiting
+ * in its queue at once, so their log records are made durable together (see SubmissionManager.commit()).
+ */
+
+public class SubmissionPipeline
+{
+ public static final int DEFAULT_QUEUE_SIZE = 16;
+
+ private static final SubmissionJob END = new SubmissionJob(null, null, false, null, null);
+
+ private Log log = LogFactory.getLog(this.getClass());
+
+ private SubmissionManager manager;
+ private AgeStorageAdm storage;
+
+ private List<Stage> stages = new ArrayList<Stage>(4);
+
+ private volatile boolean closed = false;
+
+ public SubmissionPipeline( AgeStorageAdm stor )
+ {
+  this( stor, SubmissionManager.getInstance(), Runtime.getRuntime().availableProcessors(), DEFAULT_QUEUE_SIZE );
+ }
+
+ public SubmissionPipeline( AgeStorageAdm stor, SubmissionManager mngr, int threads, int queueSize )
+ {
+  storage = stor;
+  manager = mngr;
+
+  stages.add( new Stage("parse", threads, queueSize)
+  {
+   @Override
+   boolean process(SubmissionJob job)
+   {
+    return manager.parse(job, storage);
+   }
+  });
+
+  stages.add( new Stage("convert", threads, queueSize)
+  {
+   @Override
+   boolean process(SubmissionJob job)
+   {
+    return manager.convert(job);
+   }
+  });
+
+  stages.add( new Stage("validate", threads, queueSize)
+  {
+   @Override
+   boolean process(SubmissionJob job)
+   {
+    try
+    {
+     storage.lockRead();
+
+     return manager.connect(job, storage, job.logRoot);
+    }
+    finally
+    {
+     storage.unlockRead();
+    }
+   }
+  });
+
+  // Commits are serialized by the write lock, one worker collects the largest batches
+  stages.add( new Stage("commit", 1, queueSize)
+  {
+   @Override
+   boolean process(SubmissionJob job)
+   {
+    return process( Collections.singletonList(job) )[0];
+   }
+
+   @Override
+   boolean[] process(List<SubmissionJob> jobs)
+   {
+    try
+    {
+     storage.lockWrite();
+
+     return manager.commit(jobs, storage);
+    }
+    finally
+    {
+     storage.unlockWrite();
+    }
+   }
+
+   @Override
+   int getBatchSize()
+   {
+    return getCapacity();
+   }
+  });
+
+  for( int i=0; i < stages.size()-1; i++ )
+   stages.get(i).next = stages.get(i+1);
+
+  for( Stage st : stages )
+   st.start();
+ }
+
+ /*
+  * Queues a submission. Blocks while the first stage queue is full. The returned future yields
+  * the stored submission or null if it was rejected (see logRoot for details).
+  */
+ public Future<SubmissionWritable> submit( Reader input, String name, boolean update, SubmissionContext context, LogNode logRoot ) throws InterruptedException
+ {
+  if( closed )
+   throw new IllegalStateException("Pipeline is shut down");
+
+  SubmissionJob job = new SubmissionJob(input, name, update, context, logRoot);
+
+  stages.get(0).queue.put(job);
+
+  return job;
+ }
+
+ public List<StageStatistics> getStatistics()
+ {
+  List<StageStatistics> res = new ArrayList<StageStatistics>( stages.size() );
+
+  for( Stage st : stages )
+   res.add( st.getStatistics() );
+
+  return res;
+ }
+
+ /*
+  * Stops accepting submissions, lets every queued submission pass through the remaining stages
+  * and stops the worker threads.
+  */
+ public void shutdown()
+ {
+  closed = true;
+
+  try
+  {
+   for( Stage st : stages )
+    st.finish();
+  }
+  catch(InterruptedException e)
+  {
+   Thread.currentThread().interrupt();
+  }
+
+  for( StageStatistics stat : getStatistics() )
+   log.info("Submission pipeline stage "+stat);
+ }
+
+
+ public static class StageStatistics
+ {
+  private String name;
+  private int queueDepth;
+  private int queueCapacity;
+  private long processed;
+  private long failed;
+  private long busyTime;
+  private long elapsedTime;
+
+  StageStatistics( String name, int queueDepth, int queueCapacity, long processed, long failed, long busyTime, long elapsedTime )
+  {
+   this.name = name;
+   this.queueDepth = queueDepth;
+   this.queueCapacity = queueCapacity;
+   this.processed = processed;
+   this.failed = failed;
+   this.busyTime = busyTime;
+   this.elapsedTime = elapsedTime;
+  }
+
+  public String getName()
+  {
+   return name;
+  }
+
+  public int getQueueDepth()
+  {
+   return queueDepth;
+  }
+
+  public int getQueueCapacity()
+  {
+   return queueCapacity;
+  }
+
+  public long getProcessed()
+  {
+   return processed;
+  }
+
+  public long getFailed()
+  {
+   return failed;
+  }
+
+  // Total time (ms) spent by the stage workers on submissions
+  public long getBusyTime()
+  {
+   return busyTime;
+  }
+
+  // Submissions per second since the pipeline start
+  public double getThroughput()
+  {
+   return elapsedTime == 0 ? 0 : processed*1000.0/elapsedTime;
+  }
+
+  @Override
+  public String toString()
+  {
+   return name+": queue "+queueDepth+"/"+queueCapacity+", processed "+processed+" (failed "+failed+"), "
+     +String.format("%.2f", getThroughput())+"/s, busy "+busyTime+"ms";
+  }
+ }
+
+
+ private abstract class Stage
+ {
+  private String name;
+  private BlockingQueue<SubmissionJob> queue;
+  private int capacity;
+  private Thread[] workers;
+  private Stage next;
+
+  private AtomicLong processed = new AtomicLong();
+  private AtomicLong failed = new AtomicLong();
+  private AtomicLong busyTime = new AtomicLong();
+  private long startTime;
+
+  Stage( String name, int threads, int queueSize )
+  {
+   this.name = name;
+
+   capacity = queueSize;
+   queue = new ArrayBlockingQueue<SubmissionJob>(queueSize);
+   workers = new Thread[ threads ];
+  }
+
+  abstract boolean process( SubmissionJob job );
+
+  // Results of the jobs in the given order. A stage with the batch size above 1 gets several jobs at once
+  boolean[] process( List<SubmissionJob> jobs )
+  {
+   boolean[] res = new boolean[ jobs.size() ];
+
+   for( int i=0; i < res.length; i++ )
+    res[i] = process( jobs.get(i) );
+
+   return res;
+  }
+
+  int getBatchSize()
+  {
+   return 1;
+  }
+
+  int getCapacity()
+  {
+   return capacity;
+  }
+
+  void start()
+  {
+   startTime = System.currentTimeMillis();
+
+   for( int i=0; i < workers.length; i++ )
+   {
+    workers[i] = new Thread("AGE submission "+name+" "+(i+1))
+    {
+     @Override
+     public void run()
+     {
+      work();
+     }
+    };
+
+    workers[i].setDaemon(true);
+    workers[i].start();
+   }
+  }
+
+  void finish() throws InterruptedException
+  {
+   for( int i=0; i < workers.length; i++ )
+    queue.put(END);
+
+   for( Thread t : workers )
+    t.join();
+  }
+
+  private void work()
+  {
+   List<SubmissionJob> batch = new ArrayList<SubmissionJob>();
+
+   boolean last = false;
+
+   while( ! last )
+   {
+    batch.clear();
+
+    try
+    {
+     batch.add( queue.take() );
+
+     if( getBatchSize() > 1 )
+      queue.drainTo(batch, getBatchSize()-1);
+
+     // This worker stops after the batch, end markers of the other workers go back to the queue
+     int ends = 0;
+
+     while( batch.remove(END) )
+      ends++;
+
+     last = ends > 0;
+
+     for( int i=1; i < ends; i++ )
+      queue.put(END);
+    }
+    catch(InterruptedException e)
+    {
+     for( SubmissionJob job : batch )
+      job.fail(e);
+
+     return;
+    }
+
+    if( batch.size() == 0 )
+     continue;
+
+    long tm = System.currentTimeMillis();
+
+    boolean[] ok = null;
+
+    try
+    {
+     ok = process(batch);
+    }
+    catch(RuntimeException e)
+    {
+     log.error("Submission "+name+" stage failed: "+e.getMessage(), e);
+
+     failed.addAndGet(batch.size());
+
+     for( SubmissionJob job : batch )
+      job.fail(e);
+
+     continue;
+    }
+    finally
+    {
+     busyTime.addAndGet( System.currentTimeMillis()-tm );
+     processed.addAndGet(batch.size());
+    }
+
+    for( int i=0; i < ok.length; i++ )
+    {
+     SubmissionJob job = batch.get(i);
+
+     if( ! ok[i] )
+     {
+      failed.incrementAndGet();
+      job.complete(null);
+     }
+     else if( next == null )
+      job.complete(job.submission);
+     else
+     {
+      try
+      {
+       next.queue.put(job);
+      }
+      catch(InterruptedException e)
+      {
+       for( int j=i; j < ok.length; j++ )
+        batch.get(j).fail(e);
+
+       return;
+      }
+     }
+    }
+   }
+  }
+
+  StageStatistics getStatistics()
+  {
+   return new StageStatistics(name, queue.size(), capacity, processed.get(), failed.get(), busyTime.get(), System.currentTimeMillis()-startTime);
+  }
+ }
+}
@@ -0,0 +1,12 @@
+package uk.ac.ebi.age.model;
+
+import uk.ac.ebi.age.model.writable.AgeObjectWritable;
+
+/*
+ * Looks objects up by ID on demand. External relations and object attributes given a resolver instead of
+ * a target object ask it every time the target is accessed and keep no reference to the target
+ */
+public interface ObjectResolver
+{
+ AgeObjectWritable resolveObject( String id );
+}
@@ -1,7 +1,10 @@
 package uk.ac.ebi.age.model.impl.v1;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
 
 import uk.ac.ebi.age.model.AgeAbstractClass;
 import uk.ac.ebi.age.model.AgeAnnotation;
@@ -20,6 +23,9 @@ abstract class AgeAbstractClassImpl extends AgeSemanticElementImpl implements  A
  
  private Collection<AttributeAttachmentRule> atatRules;
 
+ // Number of the class within its model's ClassHierarchy (0 - not assigned yet)
+ private transient int closureIndex;
+ private transient volatile AncestorClosure closure;
 
 
  public AgeAbstractClassImpl(SemanticModel model)
@@ -30,6 +36,41 @@ abstract class AgeAbstractClassImpl extends AgeSemanticElementImpl implements  A
 
 
  public boolean isClassOrSubclass( AgeAbstractClass cl )
+ {
+  if( cl == this )
+   return true;
+  
+  if( cl instanceof AgeAbstractClassImpl )
+  {
+   AncestorClosure cls = getClosure();
+   
+   if( cls != null )
+   {
+    AgeAbstractClassImpl acl = (AgeAbstractClassImpl)cl;
+    
+    if( acl.isCustom() )
+    {
+     if( ! isCustom() ) // defined classes have no custom ancestors
+      return false;
+     
+     if( acl.getSemanticModel() == getSemanticModel() )
+      return cls.custom.get( acl.getClosureIndex() );
+    }
+    else
+    {
+     if( cls.definedModel == null )
+      return false;
+     
+     if( acl.getSemanticModel() == cls.definedModel )
+      return cls.defined.get( acl.getClosureIndex() );
+    }
+   }
+  }
+  
+  return isClassOrSubclassRecursive(cl);
+ }
+ 
+ private boolean isClassOrSubclassRecursive( AgeAbstractClass cl )
  {
   if( cl.equals(this) && cl.isCustom() == isCustom() )
    return true;
@@ -44,6 +85,130 @@ abstract class AgeAbstractClassImpl extends AgeSemanticElementImpl implements  A
   return false;
  }
 
+ int getClosureIndex()
+ {
+  if( closureIndex == 0 )
+  {
+   synchronized(this)
+   {
+    if( closureIndex == 0 )
+     closureIndex = ClassHierarchy.get( getSemanticModel() ).nextIndex();
+   }
+  }
+  
+  return closureIndex;
+ }
+ 
+ protected void hierarchyChanged()
+ {
+  ClassHierarchy hier = ClassHierarchy.get( getSemanticModel() );
+  
+  if( hier != null )
+   hier.changed();
+ }
+ 
+ // Returns null when the ancestors can't be kept as a bitset (classes from other model implementations or several models)
+ private AncestorClosure getClosure()
+ {
+  ClassHierarchy hier = ClassHierarchy.get( getSemanticModel() );
+  
+  if( hier == null )
+   return null;
+  
+  AncestorClosure cls = closure;
+  
+  if( cls != null && cls.isValid(hier) )
+   return cls;
+  
+  cls = new AncestorClosure();
+
+  // versions are taken before the hierarchy is walked so a concurrent change makes the result stale rather than lost
+  cls.version = hier.getVersion();
+  
+  if( ! cls.collect(this, new IdentityHashMap<AgeAbstractClass, AgeAbstractClass>()) )
+   return null;
+  
+  if( cls.definedModel != null && cls.definedModel != getSemanticModel() )
+  {
+   cls.definedHierarchy = ClassHierarchy.get( cls.definedModel );
+   
+   if( cls.definedHierarchy == null )
+    return null;
+   
+   cls.definedVersion = cls.definedHierarchy.getVersion();
+  }
+  
+  closure = cls;
+  
+  return cls;
+ }
+ 
+ private static class AncestorClosure
+ {
+  BitSet defined = new BitSet();
+  BitSet custom = new BitSet();
+  
+  SemanticModel definedModel;
+  SemanticModel customModel;
+  
+  int version;
+  ClassHierarchy definedHierarchy;
+  int definedVersion;
+  
+  boolean isValid( ClassHierarchy hier )
+  {
+   if( hier.getVersion() != version )
+    return false;
+   
+   return definedHierarchy == null || definedHierarchy.getVersion() == definedVersion;
+  }
+  
+  boolean collect( AgeAbstractClass cl, Map<AgeAbstractClass, AgeAbstractClass> visited )
+  {
+   if( visited.put(cl, cl) != null )
+    return true;
+   
+   if( ! (cl instanceof AgeAbstractClassImpl) )
+    return false;
+   
+   AgeAbstractClassImpl acl = (AgeAbstractClassImpl)cl;
+   SemanticModel mod = acl.getSemanticModel();
+   
+   if( ClassHierarchy.get(mod) == null )
+    return false;
+   
+   if( acl.isCustom() )
+   {
+    if( customModel == null )
+     customModel = mod;
+    else if( customModel != mod )
+     return false;
+    
+    custom.set( acl.getClosureIndex() );
+   }
+   else
+   {
+    if( definedModel == null )
+     definedModel = mod;
+    else if( definedModel != mod )
+     return false;
+    
+    defined.set( acl.getClosureIndex() );
+   }
+   
+   if( cl.getSuperClasses() != null )
+   {
+    for( AgeAbstractClass sup : cl.getSuperClasses() )
+    {
+     if( ! collect(sup, visited) )
+      return false;
+    }
+   }
+   
+   return true;
+  }
+ }
+
 
  @Override
  public Collection<AgeAnnotation> getAnnotations()
@@ -58,14 +58,20 @@ class AgeAnnotationClassImpl extends AgeAbstractClassImpl implements AgeAnnotati
  public void addSuperClass( AgeAnnotationClassWritable spCls )
  {
   if( superClasses.add(spCls) )
+  {
+   hierarchyChanged();
    spCls.addSubClass(this);
+  }
  }
 
  @Override
  public void addSubClass( AgeAnnotationClassWritable sbCls )
  {
   if( subClasses.add(sbCls) )
+  {
+   hierarchyChanged();
    sbCls.addSuperClass(this);
+  }
  }
 
  @Override 
@@ -73,14 +73,20 @@ class AgeAttributeClassImpl extends AgeAbstractClassImpl implements AgeAttribute
  public void addSuperClass( AgeAttributeClassWritable cl )
  {
   if( superClasses.add(cl) )
+  {
+   hierarchyChanged();
    cl.addSubClass(this);
+  }
  }
 
  @Override
  public void addSubClass( AgeAttributeClassWritable cl )
  {
   if( subClasses.add(cl) )
+  {
+   hierarchyChanged();
    cl.addSuperClass(this);
+  }
  }
 
  
@@ -110,6 +116,11 @@ class AgeAttributeClassImpl extends AgeAbstractClassImpl implements AgeAttribute
   return id;
  }
 
+ public void setId(String id)
+ {
+  this.id = id;
+ }
+
 // public void addAttributeRestriction(AgeRestriction rest)
 // {
 //  attributeRestrictions.add(rest);
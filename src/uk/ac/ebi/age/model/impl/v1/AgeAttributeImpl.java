@@ -28,6 +28,18 @@ abstract class AgeAttributeImpl extends AttributedObject implements AgeAttribute
   attrClassPlug= sm.getAgeAttributeClassPlug(attrClass);
  }
 
+ AgeAttributeImpl(AgeAttributeClassPlug plug, SemanticModel sm)
+ {
+  super(sm);
+  
+  attrClassPlug= plug;
+ }
+
+ AgeAttributeClassPlug getAttributeClassPlug()
+ {
+  return attrClassPlug;
+ }
+
  public AgeAttributeClass getAgeAttributeClass()
  {
   return attrClassPlug.getAgeAttributeClass();
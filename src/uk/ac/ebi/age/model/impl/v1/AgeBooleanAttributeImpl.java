@@ -2,6 +2,7 @@ package uk.ac.ebi.age.model.impl.v1;
 
 import uk.ac.ebi.age.model.AgeAttribute;
 import uk.ac.ebi.age.model.AgeAttributeClass;
+import uk.ac.ebi.age.model.AgeAttributeClassPlug;
 import uk.ac.ebi.age.model.FormatException;
 import uk.ac.ebi.age.model.SemanticModel;
 import uk.ac.ebi.age.model.writable.AgeAttributeWritable;
@@ -20,6 +21,11 @@ class AgeBooleanAttributeImpl extends AgeAttributeImpl
   super(attrClass, sm);
  }
 
+ AgeBooleanAttributeImpl(AgeAttributeClassPlug plug, SemanticModel sm)
+ {
+  super(plug, sm);
+ }
+
  public Object getValue()
  {
   return value;
@@ -63,14 +63,20 @@ class AgeClassImpl extends AgeAbstractClassImpl implements AgeClassWritable, Ser
  public void addSuperClass( AgeClassWritable spCls )
  {
   if( superClasses.add(spCls) )
+  {
+   hierarchyChanged();
    spCls.addSubClass(this);
+  }
  }
 
  @Override
  public void addSubClass( AgeClassWritable sbCls )
  {
   if( subClasses.add(sbCls) )
+  {
+   hierarchyChanged();
    sbCls.addSuperClass(this);
+  }
  }
 
  
@@ -8,6 +8,7 @@ import uk.ac.ebi.age.model.AgeObject;
 import uk.ac.ebi.age.model.AgeObjectAttribute;
 import uk.ac.ebi.age.model.AttributedClass;
 import uk.ac.ebi.age.model.FormatException;
+import uk.ac.ebi.age.model.ObjectResolver;
 import uk.ac.ebi.age.model.SemanticModel;
 import uk.ac.ebi.age.model.writable.AgeExternalObjectAttributeWritable;
 
@@ -18,6 +19,7 @@ class AgeExternalObjectAttributeImpl extends AgeAttributeImpl implements AgeExte
  private String objId;
  private int order;
  private transient AgeObject target;
+ private transient ObjectResolver resolver;
  
  public AgeExternalObjectAttributeImpl(AgeAttributeClass relClass, String id, SemanticModel sm)
  {
@@ -30,6 +32,9 @@ class AgeExternalObjectAttributeImpl extends AgeAttributeImpl implements AgeExte
  @Override
  public AgeObject getValue()
  {
+  if( target == null && resolver != null )
+   return resolver.resolveObject(objId);
+
   return target;
  }
 
@@ -59,6 +64,12 @@ class AgeExternalObjectAttributeImpl extends AgeAttributeImpl implements AgeExte
   objId = target.getId();
  }
 
+ @Override
+ public void setObjectResolver(ObjectResolver res)
+ {
+  resolver = res;
+ }
+
  @Override
  public String getId()
  {
@@ -135,6 +146,7 @@ class AgeExternalObjectAttributeImpl extends AgeAttributeImpl implements AgeExte
  {
   AgeExternalObjectAttributeImpl clone  = new AgeExternalObjectAttributeImpl(getAgeAttributeClass(), objId, getSemanticModel());
   clone.target=this.target;
+  clone.resolver=this.resolver;
   
   clone.setOrder( getOrder() );
   
@@ -5,6 +5,7 @@ import java.io.Serializable;
 import uk.ac.ebi.age.model.AgeRelationClass;
 import uk.ac.ebi.age.model.AgeRelationClassPlug;
 import uk.ac.ebi.age.model.AttributedClass;
+import uk.ac.ebi.age.model.ObjectResolver;
 import uk.ac.ebi.age.model.SemanticModel;
 import uk.ac.ebi.age.model.writable.AgeExternalRelationWritable;
 import uk.ac.ebi.age.model.writable.AgeObjectWritable;
@@ -20,6 +21,7 @@ class AgeExternalRelationImpl extends AttributedObject implements AgeExternalRel
  private AgeObjectWritable sourceObject;
  AgeExternalRelationWritable invRelation;
  private transient AgeObjectWritable target;
+ private transient ObjectResolver resolver;
  private boolean infered;
 
  public AgeExternalRelationImpl(AgeRelationClass relClass, AgeObjectWritable srcOb, String id, SemanticModel sm)
@@ -39,6 +41,9 @@ class AgeExternalRelationImpl extends AttributedObject implements AgeExternalRel
 
  public AgeObjectWritable getTargetObject()
  {
+  if( target == null && resolver != null )
+   return resolver.resolveObject(objId);
+
   return target;
  }
  
@@ -69,6 +74,12 @@ class AgeExternalRelationImpl extends AttributedObject implements AgeExternalRel
   target = obj;
  }
 
+ @Override
+ public void setObjectResolver(ObjectResolver res)
+ {
+  resolver = res;
+ }
+
  @Override
  public String getId()
  {
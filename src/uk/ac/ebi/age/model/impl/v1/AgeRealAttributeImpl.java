@@ -2,6 +2,7 @@ package uk.ac.ebi.age.model.impl.v1;
 
 import uk.ac.ebi.age.model.AgeAttribute;
 import uk.ac.ebi.age.model.AgeAttributeClass;
+import uk.ac.ebi.age.model.AgeAttributeClassPlug;
 import uk.ac.ebi.age.model.FormatException;
 import uk.ac.ebi.age.model.SemanticModel;
 import uk.ac.ebi.age.model.writable.AgeAttributeWritable;
@@ -18,6 +19,11 @@ class AgeRealAttributeImpl extends AgeAttributeImpl implements AgeAttributeWrita
   super(attrClass, sm);
  }
 
+ AgeRealAttributeImpl(AgeAttributeClassPlug plug, SemanticModel sm)
+ {
+  super(plug, sm);
+ }
+
  public Object getValue()
  {
   return value;
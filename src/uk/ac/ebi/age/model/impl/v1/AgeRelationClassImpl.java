@@ -52,6 +52,11 @@ class AgeRelationClassImpl extends AgeAbstractClassImpl implements AgeRelationCl
  {
   return id;
  }
+
+ public void setId(String id)
+ {
+  this.id = id;
+ }
  
 
  public void addDomainClass(AgeClass dmCls)
@@ -76,14 +81,20 @@ class AgeRelationClassImpl extends AgeAbstractClassImpl implements AgeRelationCl
  public void addSuperClass( AgeRelationClassWritable spCls )
  {
   if( superclasses.add(spCls) )
+  {
+   hierarchyChanged();
    spCls.addSubClass(this);
+  }
  }
 
  @Override
  public void addSubClass( AgeRelationClassWritable sbCls )
  {
   if( subclasses.add(sbCls) )
+  {
+   hierarchyChanged();
    sbCls.addSuperClass(this);
+  }
  }
 
  @Override
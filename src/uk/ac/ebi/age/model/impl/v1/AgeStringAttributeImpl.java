@@ -1,10 +1,15 @@
 package uk.ac.ebi.age.model.impl.v1;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+
 import uk.ac.ebi.age.model.AgeAttribute;
 import uk.ac.ebi.age.model.AgeAttributeClass;
+import uk.ac.ebi.age.model.AgeAttributeClassPlug;
 import uk.ac.ebi.age.model.FormatException;
 import uk.ac.ebi.age.model.SemanticModel;
 import uk.ac.ebi.age.model.writable.AgeAttributeWritable;
+import uk.ac.ebi.age.util.StringDictionary;
 
 class AgeStringAttributeImpl extends AgeAttributeImpl implements AgeAttributeWritable
 {
@@ -17,6 +22,11 @@ class AgeStringAttributeImpl extends AgeAttributeImpl implements AgeAttributeWri
   super(attrClass, sm);
  }
 
+ AgeStringAttributeImpl(AgeAttributeClassPlug plug, SemanticModel sm)
+ {
+  super(plug, sm);
+ }
+
  public Object getValue()
  {
   return value;
@@ -35,9 +45,7 @@ class AgeStringAttributeImpl extends AgeAttributeImpl implements AgeAttributeWri
  public void finalizeValue()
  {
   if( value != null )
-   value = value.trim();
-  
-  value = value.intern();
+   value = StringDictionary.getInstance().internValue( value.trim() );
  }
  
 
@@ -115,5 +123,12 @@ class AgeStringAttributeImpl extends AgeAttributeImpl implements AgeAttributeWri
  {
   return value.compareTo(o.getValue().toString());
  }
+
+ private void readObject( ObjectInputStream in ) throws IOException, ClassNotFoundException
+ {
+  in.defaultReadObject();
+  
+  value = StringDictionary.getInstance().internValue(value);
+ }
  
 }
@@ -1,14 +1,19 @@
 package uk.ac.ebi.age.model.impl.v1;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import uk.ac.ebi.age.model.AgeAttributeClass;
 import uk.ac.ebi.age.model.SemanticModel;
+import uk.ac.ebi.age.model.impl.v1.ColumnarAttributeStore.RowView;
 import uk.ac.ebi.age.model.writable.AgeAttributeWritable;
 import uk.ac.ebi.age.model.writable.AttributedWritable;
 
@@ -17,6 +22,7 @@ public abstract class AttributedObject extends AgeSemanticElementImpl implements
 
  private static final long serialVersionUID = 2L;
 
+ // A RowView while the attributes are kept by a ColumnarAttributeStore
  private List<AgeAttributeWritable> attributes;
  
  private transient Map<AgeAttributeClass,List<AgeAttributeWritable>> attribMap; // = new HashMap<String,List<AgeAttributeWritable>>();
@@ -54,12 +60,43 @@ public abstract class AttributedObject extends AgeSemanticElementImpl implements
  @Override
  public Collection<AgeAttributeWritable> getAttributes()
  {
-  return attributes;
+  List<AgeAttributeWritable> attrs = attributes;
+  
+  if( attrs instanceof RowView )
+   return ((RowView)attrs).toAttributes();
+  
+  return attrs;
+ }
+ 
+ /*
+  * Hands the attributes over to the store if it can keep all of them
+  */
+ synchronized boolean moveAttributesToColumns( ColumnarAttributeStore store )
+ {
+  if( attributes instanceof RowView || attributes == null || attributes.size() == 0 || ! store.isStorable(attributes) )
+   return false;
+  
+  attributes = new RowView(store, store.add(attributes));
+  attribMap = null;
+  
+  return true;
+ }
+ 
+ // Any modification turns the column references back into attribute objects
+ private void inflate()
+ {
+  if( ! ( attributes instanceof RowView ) )
+   return;
+  
+  attributes = ((RowView)attributes).toAttributes();
+  attribMap = null;
  }
  
  @Override
  public synchronized void addAttribute(AgeAttributeWritable attr)
  {
+  inflate();
+  
   if( attributes == null )
    attributes = new ArrayList<AgeAttributeWritable>(15);
   
@@ -72,6 +109,8 @@ public abstract class AttributedObject extends AgeSemanticElementImpl implements
  @Override
  public synchronized void removeAttribute(AgeAttributeWritable attr)
  {
+  inflate();
+  
   if( attributes == null )
    return;
   
@@ -95,9 +134,34 @@ public abstract class AttributedObject extends AgeSemanticElementImpl implements
  @Override
  public synchronized Collection< ? extends AgeAttributeWritable> getAttributes(AgeAttributeClass cls)
  {
+  if( attributes instanceof RowView )
+   return getColumnAttributes(cls, false);
+  
   return getAttribMap().get(cls);
  }
 
+ // Views are not cached: keeping them would bring back the memory the columns save
+ private List<AgeAttributeWritable> getColumnAttributes( AgeAttributeClass cls, boolean wSubCls )
+ {
+  RowView row = (RowView)attributes;
+  List<AgeAttributeWritable> lst = null;
+  
+  for( int i=0; i < row.size(); i++ )
+  {
+   AgeAttributeClass atCls = row.getAttributeClass(i);
+   
+   if( atCls == cls || ( wSubCls && atCls.isClassOrSubclass(cls) ) )
+   {
+    if( lst == null )
+     lst = new ArrayList<AgeAttributeWritable>(3);
+    
+    lst.add( row.get(i) );
+   }
+  }
+  
+  return lst;
+ }
+
  
  private Map<AgeAttributeClass,List<AgeAttributeWritable>> getAttribMap()
  {
@@ -149,6 +213,16 @@ public abstract class AttributedObject extends AgeSemanticElementImpl implements
  @Override
  public synchronized Collection< ? extends AgeAttributeWritable> getAttributesByClass(AgeAttributeClass cls, boolean wSubCls)
  {
+  if( attributes instanceof RowView )
+  {
+   List<AgeAttributeWritable> lst = getColumnAttributes(cls, wSubCls);
+   
+   if( lst == null && wSubCls )
+    return new ArrayList<AgeAttributeWritable>();
+   
+   return lst;
+  }
+  
   Map<AgeAttributeClass,List<AgeAttributeWritable>> map = getAttribMap();
   
   if( ! wSubCls )
@@ -168,6 +242,17 @@ public abstract class AttributedObject extends AgeSemanticElementImpl implements
  @Override
  public synchronized Collection<? extends AgeAttributeClass> getAttributeClasses()
  {
+  if( attributes instanceof RowView )
+  {
+   RowView row = (RowView)attributes;
+   Set<AgeAttributeClass> clss = new HashSet<AgeAttributeClass>();
+   
+   for( int i=0; i < row.size(); i++ )
+    clss.add( row.getAttributeClass(i) );
+   
+   return clss;
+  }
+  
   return getAttribMap().keySet();
  }
 
@@ -181,10 +266,22 @@ public abstract class AttributedObject extends AgeSemanticElementImpl implements
  {
   attribMap=null;
   
-  if( attributes != null )
+  Collection<AgeAttributeWritable> attrs = getAttributes();
+  
+  if( attrs != null )
   {
-   for( AgeAttributeWritable attr : attributes )
+   for( AgeAttributeWritable attr : attrs )
     objClone.addAttribute(attr.createClone());
   }
  }
+ 
+ // Column kept attributes are written as ordinary ones so stored data doesn't depend on the storage layout
+ private synchronized void writeObject( ObjectOutputStream out ) throws IOException
+ {
+  ObjectOutputStream.PutField flds = out.putFields();
+  
+  flds.put("attributes", attributes instanceof RowView ? ((RowView)attributes).toAttributes() : attributes);
+  
+  out.writeFields();
+ }
 }
@@ -0,0 +1,39 @@
+package uk.ac.ebi.age.model.impl.v1;
+
+import uk.ac.ebi.age.model.SemanticModel;
+
+/*
+ * Numbers the classes of one semantic model so AgeAbstractClassImpl can keep its ancestors as a bitset.
+ * The version is incremented on every change of the class hierarchy and makes the bitsets computed before stale.
+ */
+class ClassHierarchy
+{
+ private int lastIndex = 0;
+ private volatile int version = 0;
+
+ synchronized int nextIndex()
+ {
+  return ++lastIndex;
+ }
+
+ int getVersion()
+ {
+  return version;
+ }
+
+ synchronized void changed()
+ {
+  version++;
+ }
+
+ static ClassHierarchy get( SemanticModel mod )
+ {
+  if( mod instanceof SemanticModelImpl )
+   return ((SemanticModelImpl)mod).getClassHierarchy();
+
+  if( mod instanceof ContextSemanticModelImpl )
+   return ((ContextSemanticModelImpl)mod).getClassHierarchy();
+
+  return null;
+ }
+}
@@ -0,0 +1,340 @@
+package uk.ac.ebi.age.model.impl.v1;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import uk.ac.ebi.age.model.AgeAttributeClass;
+import uk.ac.ebi.age.model.AgeAttributeClassPlug;
+import uk.ac.ebi.age.model.SemanticModel;
+import uk.ac.ebi.age.model.writable.AgeAttributeWritable;
+import uk.ac.ebi.age.model.writable.AgeObjectWritable;
+import uk.ac.ebi.age.model.writable.SubmissionWritable;
+
+/*
+ * Keeps the plain attributes of the objects of one submission column-wise: one primitive column (int, double,
+ * bit set or codes of the store's string dictionary) per attribute class instead of an attribute object per value.
+ * An object keeps a RowView with the (column,row) references of its attributes in place of its attribute list and gets
+ * short-lived attribute views on access.
+ * Objects having an attribute of another type, a qualified attribute or an empty value are left as they are.
+ */
+public class ColumnarAttributeStore
+{
+ private static final int INT = 0;
+ private static final int REAL = 1;
+ private static final int BOOL = 2;
+ private static final int STRING = 3;
+
+ private static class Column
+ {
+  int index;
+  AgeAttributeClassPlug plug;
+  SemanticModel model;
+  int kind;
+
+  int size;
+  int[] ints; // integer values or string codes
+  double[] reals;
+  BitSet bools;
+  int[] orders;
+
+  Column( int index, AgeAttributeClassPlug plug, SemanticModel model, int kind )
+  {
+   this.index = index;
+   this.plug = plug;
+   this.model = model;
+   this.kind = kind;
+
+   orders = new int[8];
+
+   if( kind == REAL )
+    reals = new double[8];
+   else if( kind == BOOL )
+    bools = new BitSet();
+   else
+    ints = new int[8];
+  }
+
+  void ensureCapacity()
+  {
+   if( size < orders.length )
+    return;
+
+   int len = orders.length*2;
+
+   orders = Arrays.copyOf(orders, len);
+
+   if( ints != null )
+    ints = Arrays.copyOf(ints, len);
+
+   if( reals != null )
+    reals = Arrays.copyOf(reals, len);
+  }
+
+  void trim()
+  {
+   orders = Arrays.copyOf(orders, size);
+
+   if( ints != null )
+    ints = Arrays.copyOf(ints, size);
+
+   if( reals != null )
+    reals = Arrays.copyOf(reals, size);
+  }
+ }
+
+ private static class ColumnKey
+ {
+  AgeAttributeClass cls;
+  SemanticModel model;
+
+  ColumnKey( AgeAttributeClass cls, SemanticModel model )
+  {
+   this.cls = cls;
+   this.model = model;
+  }
+
+  @Override
+  public int hashCode()
+  {
+   return System.identityHashCode(cls)*31+System.identityHashCode(model);
+  }
+
+  @Override
+  public boolean equals( Object o )
+  {
+   if( ! (o instanceof ColumnKey) )
+    return false;
+
+   return ((ColumnKey)o).cls == cls && ((ColumnKey)o).model == model;
+  }
+ }
+
+ private Column[] columns = new Column[0];
+ private String[] dictionary = new String[0];
+
+ // Needed only while objects are added
+ private Map<ColumnKey, Column> columnMap = new HashMap<ColumnKey, Column>();
+ private Map<String, Integer> dictionaryMap = new HashMap<String, Integer>();
+ private List<String> dictionaryList = new ArrayList<String>();
+
+ /*
+  * Moves the plain attributes of the submission objects to a new store. Returns the number of compacted objects
+  */
+ public static int compact( SubmissionWritable sbm )
+ {
+  ColumnarAttributeStore store = new ColumnarAttributeStore();
+
+  int n = 0;
+
+  for( AgeObjectWritable obj : sbm.getObjects() )
+  {
+   if( obj instanceof AttributedObject && ((AttributedObject)obj).moveAttributesToColumns(store) )
+    n++;
+  }
+
+  store.seal();
+
+  return n;
+ }
+
+ private void seal()
+ {
+  for( Column col : columns )
+   col.trim();
+
+  dictionary = dictionaryList.toArray(new String[dictionaryList.size()]);
+
+  columnMap = null;
+  dictionaryMap = null;
+  dictionaryList = null;
+ }
+
+ private static int getKind( AgeAttributeWritable attr )
+ {
+  Class< ? > cls = attr.getClass();
+
+  if( cls == AgeIntegerAttributeImpl.class )
+   return INT;
+
+  if( cls == AgeRealAttributeImpl.class )
+   return REAL;
+
+  if( cls == AgeBooleanAttributeImpl.class )
+   return BOOL;
+
+  if( cls == AgeStringAttributeImpl.class )
+   return STRING;
+
+  return -1;
+ }
+
+ boolean isStorable( Collection<AgeAttributeWritable> attrs )
+ {
+  for( AgeAttributeWritable attr : attrs )
+  {
+   if( getKind(attr) == -1 || attr.getValue() == null )
+    return false;
+
+   if( attr.getAttributes() != null && attr.getAttributes().size() > 0 )
+    return false;
+  }
+
+  return true;
+ }
+
+ /*
+  * Appends the attributes to the columns and returns their (column,row) references
+  */
+ int[] add( Collection<AgeAttributeWritable> attrs )
+ {
+  int[] refs = new int[attrs.size()*2];
+  int i = 0;
+
+  for( AgeAttributeWritable attr : attrs )
+  {
+   AgeAttributeImpl at = (AgeAttributeImpl)attr;
+
+   int kind = getKind(at);
+   ColumnKey key = new ColumnKey(at.getAgeAttributeClass(), at.getSemanticModel());
+
+   Column col = columnMap.get(key);
+
+   if( col == null || col.kind != kind )
+   {
+    col = new Column(columns.length, at.getAttributeClassPlug(), at.getSemanticModel(), kind);
+
+    columns = Arrays.copyOf(columns, columns.length+1);
+    columns[columns.length-1] = col;
+
+    columnMap.put(key, col);
+   }
+
+   col.ensureCapacity();
+
+   int row = col.size++;
+
+   col.orders[row] = at.getOrder();
+
+   if( kind == INT )
+    col.ints[row] = at.getValueAsInteger();
+   else if( kind == REAL )
+    col.reals[row] = at.getValueAsDouble();
+   else if( kind == BOOL )
+    col.bools.set(row, at.getValueAsBoolean());
+   else
+    col.ints[row] = encode((String)at.getValue());
+
+   refs[i++] = col.index;
+   refs[i++] = row;
+  }
+
+  return refs;
+ }
+
+ private int encode( String str )
+ {
+  Integer code = dictionaryMap.get(str);
+
+  if( code == null )
+  {
+   code = dictionaryList.size();
+
+   dictionaryList.add(str);
+   dictionaryMap.put(str, code);
+  }
+
+  return code;
+ }
+
+ AgeAttributeClass getAttributeClass( int[] refs, int i )
+ {
+  return columns[refs[i*2]].plug.getAgeAttributeClass();
+ }
+
+ AgeAttributeWritable getAttribute( int[] refs, int i )
+ {
+  Column col = columns[refs[i*2]];
+  int row = refs[i*2 + 1];
+
+  AgeAttributeImpl attr = null;
+
+  switch(col.kind)
+  {
+   case INT:
+    attr = new AgeIntegerAttributeImpl(col.plug, col.model);
+    attr.setIntValue(col.ints[row]);
+    break;
+
+   case REAL:
+    attr = new AgeRealAttributeImpl(col.plug, col.model);
+    attr.setDoubleValue(col.reals[row]);
+    break;
+
+   case BOOL:
+    attr = new AgeBooleanAttributeImpl(col.plug, col.model);
+    attr.setBooleanValue(col.bools.get(row));
+    break;
+
+   default:
+    attr = new AgeStringAttributeImpl(col.plug, col.model);
+    attr.setValue(dictionary[col.ints[row]]);
+  }
+
+  attr.setOrder(col.orders[row]);
+
+  return attr;
+ }
+
+ List<AgeAttributeWritable> getAttributes( int[] refs )
+ {
+  int n = refs.length/2;
+
+  List<AgeAttributeWritable> res = new ArrayList<AgeAttributeWritable>(n);
+
+  for( int i=0; i < n; i++ )
+   res.add(getAttribute(refs, i));
+
+  return res;
+ }
+
+ // Attributes of one object kept by the store. Elements are new attribute views on every access
+ static class RowView extends AbstractList<AgeAttributeWritable>
+ {
+  private final ColumnarAttributeStore store;
+  private final int[] refs;
+
+  RowView( ColumnarAttributeStore store, int[] refs )
+  {
+   this.store = store;
+   this.refs = refs;
+  }
+
+  @Override
+  public AgeAttributeWritable get( int i )
+  {
+   return store.getAttribute(refs, i);
+  }
+
+  @Override
+  public int size()
+  {
+   return refs.length/2;
+  }
+
+  AgeAttributeClass getAttributeClass( int i )
+  {
+   return store.getAttributeClass(refs, i);
+  }
+
+  List<AgeAttributeWritable> toAttributes()
+  {
+   return store.getAttributes(refs);
+  }
+ }
+}
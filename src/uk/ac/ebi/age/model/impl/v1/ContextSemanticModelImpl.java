@@ -43,6 +43,8 @@ public class ContextSemanticModelImpl implements ContextSemanticModel, Serializa
  
  private transient SubmissionContext context;
  
+ private transient ClassHierarchy hierarchy;
+ 
  private Map<String,AgeClassPlug> classPlugs = new TreeMap<String, AgeClassPlug>();
  private Map<String,AgeAttributeClassPlug> attrClassPlugs = new TreeMap<String, AgeAttributeClassPlug>();
  private Map<String,AgeRelationClassPlug> relClassPlugs = new TreeMap<String, AgeRelationClassPlug>();
@@ -294,10 +296,20 @@ public class ContextSemanticModelImpl implements ContextSemanticModel, Serializa
 
   for( AgeRelationClassPlug plg: relImplicitClassPlugs.values() )
    plg.unplug();
+  
+  getClassHierarchy().changed();
+ }
+ 
+ synchronized ClassHierarchy getClassHierarchy()
+ {
+  if( hierarchy == null )
+   hierarchy = new ClassHierarchy();
+  
+  return hierarchy;
  }
 
  @Override
- public AgeClassPlug getAgeClassPlug(AgeClass cls)
+ public synchronized AgeClassPlug getAgeClassPlug(AgeClass cls)
  {
   AgeClassPlug plug = classPlugs.get(cls.getId());
   
@@ -321,7 +333,7 @@ public class ContextSemanticModelImpl implements ContextSemanticModel, Serializa
  }
 
  @Override
- public AgeRelationClassPlug getAgeRelationClassPlug(AgeRelationClass cls)
+ public synchronized AgeRelationClassPlug getAgeRelationClassPlug(AgeRelationClass cls)
  {
   if( cls.isImplicit() )
   {
@@ -365,7 +377,7 @@ public class ContextSemanticModelImpl implements ContextSemanticModel, Serializa
 
  
  @Override
- public AgeAttributeClassPlug getAgeAttributeClassPlug(AgeAttributeClass cls)
+ public synchronized AgeAttributeClassPlug getAgeAttributeClassPlug(AgeAttributeClass cls)
  {
   AgeAttributeClassPlug plug = attrClassPlugs.get(cls.getId());
   
@@ -11,6 +11,7 @@ import uk.ac.ebi.age.model.DataType;
 import uk.ac.ebi.age.model.SemanticModel;
 import uk.ac.ebi.age.model.writable.AgeAttributeClassWritable;
 import uk.ac.ebi.age.service.IdGenerator;
+import uk.ac.ebi.age.util.StringDictionary;
 
 class CustomAgeAttributeClassImpl extends AgeAbstractClassImpl implements AgeAttributeClassWritable, Serializable
 {
@@ -31,17 +32,25 @@ class CustomAgeAttributeClassImpl extends AgeAbstractClassImpl implements AgeAtt
  {
   super(sm);
   dataType=type;
-  this.name=name2;
+  this.name=StringDictionary.getInstance().intern(name2);
   owner = owner2;
-  
-  id = "AgeAttributeClass"+IdGenerator.getInstance().getStringId("classId");
  }
 
+ // The ID is given when first asked for, classes restored from storage get their stored IDs with setId()
  public String getId()
  {
+  if( id == null )
+   allocateId();
+  
   return id;
  }
 
+ private synchronized void allocateId()
+ {
+  if( id == null )
+   id = "AgeAttributeClass"+IdGenerator.getInstance().getStringId("classId");
+ }
+
  public void setId(String id)
  {
   this.id = id;
@@ -114,6 +123,8 @@ class CustomAgeAttributeClassImpl extends AgeAbstractClassImpl implements AgeAtt
   
   if( superClasses != null )
    superClasses.add(supcls);
+  
+  hierarchyChanged();
  }
 
  @Override
@@ -11,6 +11,7 @@ import uk.ac.ebi.age.model.RelationRule;
 import uk.ac.ebi.age.model.SemanticModel;
 import uk.ac.ebi.age.model.writable.AgeClassWritable;
 import uk.ac.ebi.age.service.IdGenerator;
+import uk.ac.ebi.age.util.StringDictionary;
 
 class CustomAgeClassImpl extends AgeAbstractClassImpl implements AgeClassWritable, Serializable 
 {
@@ -27,21 +28,29 @@ class CustomAgeClassImpl extends AgeAbstractClassImpl implements AgeClassWritabl
  public CustomAgeClassImpl(String name, String pfx, SemanticModel sm)
  {
   super( sm );
-  this.name=name;
+  this.name=StringDictionary.getInstance().intern(name);
   
   if( pfx == null )
    idPrefix = name.substring(0,1);
   else
    idPrefix=pfx;
-  
-  id = "AgeClass"+IdGenerator.getInstance().getStringId("classId");
  }
 
+ // The ID is given when first asked for, classes restored from storage get their stored IDs with setId()
  public String getId()
  {
+  if( id == null )
+   allocateId();
+  
   return id;
  }
 
+ private synchronized void allocateId()
+ {
+  if( id == null )
+   id = "AgeClass"+IdGenerator.getInstance().getStringId("classId");
+ }
+
  public void setId(String id)
  {
   this.id = id;
@@ -129,6 +138,8 @@ class CustomAgeClassImpl extends AgeAbstractClassImpl implements AgeClassWritabl
    superClasses = new ArrayList<AgeClass>(4);
   
   superClasses.add(cls);
+  
+  hierarchyChanged();
  }
 
  @Override
@@ -13,6 +13,7 @@ import uk.ac.ebi.age.model.AttributeAttachmentRule;
 import uk.ac.ebi.age.model.SemanticModel;
 import uk.ac.ebi.age.model.writable.AgeRelationClassWritable;
 import uk.ac.ebi.age.service.IdGenerator;
+import uk.ac.ebi.age.util.StringDictionary;
 
 class CustomAgeRelationClassImpl extends AgeSemanticElementImpl implements AgeRelationClassWritable
 {
@@ -36,7 +37,7 @@ class CustomAgeRelationClassImpl extends AgeSemanticElementImpl implements AgeRe
  {
   super(sm);
   
-  this.name=name;
+  this.name=StringDictionary.getInstance().intern(name);
   
   rangeClass = sm.getAgeClassPlug(range);
 
@@ -49,8 +50,6 @@ class CustomAgeRelationClassImpl extends AgeSemanticElementImpl implements AgeRe
   }
   else
    inverse = inv;
-  
-  id="AgeRelationClass"+IdGenerator.getInstance().getStringId("classId");
  }
 
  protected void setInverseClass( CustomAgeRelationClassImpl inv )
@@ -89,11 +88,21 @@ class CustomAgeRelationClassImpl extends AgeSemanticElementImpl implements AgeRe
  }
 
 
+ // The ID is given when first asked for, classes restored from storage get their stored IDs with setId()
  public String getId()
  {
+  if( id == null )
+   allocateId();
+  
   return id;
  }
 
+ private synchronized void allocateId()
+ {
+  if( id == null )
+   id="AgeRelationClass"+IdGenerator.getInstance().getStringId("classId");
+ }
+
  @Override
  public boolean isCustom()
  {
@@ -58,6 +58,8 @@ public class SemanticModelImpl implements SemanticModel, Serializable
 
  private int idGen;
  
+ private transient ClassHierarchy hierarchy;
+ 
  public SemanticModelImpl(ModelFactory modelFactory)
  {
   this.modelFactory=modelFactory;
@@ -98,6 +100,14 @@ public class SemanticModelImpl implements SemanticModel, Serializable
  {
   return modelFactory;
  }
+ 
+ synchronized ClassHierarchy getClassHierarchy()
+ {
+  if( hierarchy == null )
+   hierarchy = new ClassHierarchy();
+  
+  return hierarchy;
+ }
 
  
  
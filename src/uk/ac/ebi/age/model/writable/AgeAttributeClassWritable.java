@@ -15,4 +15,6 @@ public interface AgeAttributeClassWritable extends AgeAttributeClass, AgeAbstrac
  void addAlias(String ali);
  
  void setTargetClass(AgeClass cls);
+ 
+ void setId(String id);
 }
@@ -2,9 +2,11 @@ package uk.ac.ebi.age.model.writable;
 
 import uk.ac.ebi.age.model.AgeExternalObjectAttribute;
 import uk.ac.ebi.age.model.AgeObject;
+import uk.ac.ebi.age.model.ObjectResolver;
 
 public interface AgeExternalObjectAttributeWritable extends AgeExternalObjectAttribute, AgeAttributeWritable
 {
  void setTargetObject(AgeObject obj);
+ void setObjectResolver(ObjectResolver res);
 
 }
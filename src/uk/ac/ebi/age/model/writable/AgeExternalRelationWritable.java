@@ -1,10 +1,12 @@
 package uk.ac.ebi.age.model.writable;
 
 import uk.ac.ebi.age.model.AgeExternalRelation;
+import uk.ac.ebi.age.model.ObjectResolver;
 
 public interface AgeExternalRelationWritable extends AgeExternalRelation, AgeRelationWritable
 {
  void setTargetObject( AgeObjectWritable obj );
+ void setObjectResolver( ObjectResolver res );
  
  AgeObjectWritable getSourceObject();
  AgeObjectWritable getTargetObject();
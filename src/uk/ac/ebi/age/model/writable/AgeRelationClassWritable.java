@@ -24,4 +24,6 @@ public interface AgeRelationClassWritable extends AgeRelationClass, AgeAbstractC
  void setSymmetric(boolean symmetric);
  void setTransitive(boolean transitive);
  
+ void setId(String id);
+ 
 }
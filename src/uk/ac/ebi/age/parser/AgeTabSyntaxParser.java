@@ -1,5 +1,7 @@
 package uk.ac.ebi.age.parser;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.util.List;
 
 import uk.ac.ebi.age.parser.impl.AgeTabSyntaxParserImpl;
@@ -141,6 +143,7 @@ public abstract class AgeTabSyntaxParser
  }
 
  public abstract AgeTabSubmission parse( String txt ) throws ParserException;
+ public abstract AgeTabSubmission parse( Reader rd ) throws ParserException, IOException;
 
  
  public ClassReference string2ClassReference( String str ) throws ParserException
@@ -8,6 +8,13 @@ import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import uk.ac.ebi.age.log.LogNode;
 import uk.ac.ebi.age.log.LogNode.Level;
@@ -39,19 +46,36 @@ public class AgeTab2AgeConverterImpl implements AgeTab2AgeConverter
 {
 // private AttrAttchRel attributeAttachmentClass;
  
+ private static ExecutorService defaultExecutor;
+ 
+ private ExecutorService executor;
+ 
+ public AgeTab2AgeConverterImpl()
+ {
+ }
+
+ public AgeTab2AgeConverterImpl( ExecutorService exec )
+ {
+  executor = exec;
+ }
+
+ public void setExecutor( ExecutorService exec )
+ {
+  executor = exec;
+ }
+ 
  @Override
- public SubmissionWritable convert(AgeTabSubmission data, ContextSemanticModel sm, LogNode log )// throws SemanticException, ConvertionException
+ public SubmissionWritable convert(final AgeTabSubmission data, final ContextSemanticModel sm, LogNode log )// throws SemanticException, ConvertionException
  {
   boolean result = true;
   
   SubmissionWritable res = sm.createSubmission();
   
-  Map<AgeClass, Map<String,AgeObjectWritable>> classMap = new HashMap<AgeClass, Map<String,AgeObjectWritable>>();
+  final Map<AgeClass, Map<String,AgeObjectWritable>> classMap = new HashMap<AgeClass, Map<String,AgeObjectWritable>>();
   Map<AgeClass, Collection<AgeObjectWritable>> prototypeMap = new HashMap<AgeClass, Collection<AgeObjectWritable>>();
   
-  Map<String,AgeObjectWritable> objectMap = null;
-  
   Map< BlockHeader, AgeClass > blk2classMap = new LinkedHashMap<BlockHeader, AgeClass>();
+  Map< AgeClass, List<BlockHeader> > class2blkMap = new LinkedHashMap<AgeClass, List<BlockHeader>>();
   
   for( BlockHeader hdr : data.getBlocks() )
   {
@@ -111,146 +135,105 @@ public class AgeTab2AgeConverterImpl implements AgeTab2AgeConverter
   
    blk2classMap.put(hdr, cls);
    
-   objectMap = classMap.get(cls);
-   
-   if(objectMap == null)
-    classMap.put( cls, objectMap=new HashMap<String, AgeObjectWritable>() );
+   List<BlockHeader> clsBlocks = class2blkMap.get(cls);
    
+   if( clsBlocks == null )
+   {
+    class2blkMap.put( cls, clsBlocks=new ArrayList<BlockHeader>() );
+    classMap.put( cls, new HashMap<String, AgeObjectWritable>() );
+   }
    
-   for( AgeTabObject atObj : data.getObjects(hdr) )
+   clsBlocks.add(hdr);
+  }
+  
+  // Objects of different classes never share an id map so each class is populated by its own task 
+  List<Callable<Object>> tasks = new ArrayList<Callable<Object>>( class2blkMap.size() );
+  
+  for( final Map.Entry<AgeClass, List<BlockHeader>> me : class2blkMap.entrySet() )
+  {
+   tasks.add( new Callable<Object>()
    {
-    if( atObj.isPrototype() )
-     continue;
-    
-    AgeObjectWritable obj = objectMap.get(atObj.getId());
-    
-    if( obj == null )
+    @Override
+    public Object call()
     {
-     String id = atObj.getId();
-
-     if( ! atObj.isIdStable() )
-     {
-      id = cls.getIdPrefix()+IdGenerator.getInstance().getStringId()+"-"+atObj.getId();
-//      
-//      if( atObj.isIdDefined() )
-//       id+="-"+atObj.getId();
-     }
-     
-     obj = sm.createAgeObject(id, cls);
-     obj.setOrder( atObj.getRow() );
-     obj.setOriginalId(atObj.getId());
+     createObjects(data, me.getKey(), me.getValue(), sm, classMap.get(me.getKey()) );
      
-     objectMap.put(atObj.getId(), obj);
+     return null;
     }
-   }
+   });
   }
   
-  List<ValueConverter> convs = new ArrayList<ValueConverter>(20);
+  runParallel(tasks);
+  
+  List<BlockConversion> blkConvs = new ArrayList<BlockConversion>( blk2classMap.size() );
+  Map<AgeClass, List<BlockConversion>> class2convMap = new LinkedHashMap<AgeClass, List<BlockConversion>>();
   
   for( Map.Entry<BlockHeader, AgeClass> me : blk2classMap.entrySet() )
   {
+   BlockConversion bc = new BlockConversion(me.getKey(), me.getValue());
+   
    LogNode subLog = log.branch("Creating value converters for class '"+me.getValue()+"'. Block at: "+me.getKey().getClassColumnHeader().getRow());
    
-   if( ! createConvertors( me.getKey(), me.getValue(), convs, sm, classMap, subLog ) )
+   if( ! createConvertors( me.getKey(), me.getValue(), bc.convs, sm, classMap, subLog ) )
    {
     subLog.log(Level.ERROR,"Convertors creation failed");
     result = false;
    }
    
-   objectMap = classMap.get( me.getValue() );
+   bc.log = log.branch("Converting values for class '"+me.getValue().getName()+"'. Block at :"+me.getKey().getClassColumnHeader().getRow());
+   
+   blkConvs.add(bc);
+   
+   List<BlockConversion> clsConvs = class2convMap.get(me.getValue());
+   
+   if( clsConvs == null )
+    class2convMap.put(me.getValue(), clsConvs = new ArrayList<BlockConversion>() );
+   
+   clsConvs.add(bc);
+  }
   
-   subLog = log.branch("Converting values for class '"+me.getValue().getName()+"'. Block at :"+me.getKey().getClassColumnHeader().getRow());
- 
-   for( AgeTabObject atObj : data.getObjects(me.getKey()) )
+  // Blocks of the same class share objects so they are converted by one task in the block order 
+  tasks.clear();
+  
+  for( final List<BlockConversion> clsConvs : class2convMap.values() )
+  {
+   tasks.add( new Callable<Object>()
    {
-    AgeObjectWritable obj = objectMap.get(atObj.getId());
-    
-    LogNode objLog = subLog.branch("Processing object: "+atObj.getId());
-    
-    if( atObj.isPrototype()  )
-    {
-     obj = sm.createAgeObject(null, me.getValue());
-     obj.setOrder( atObj.getRow() );
-    }
-    
-//    for( ValueConverter cnv : convs )
-//    {
-//     List<AgeTabValue> vals = atObj.getValues(cnv.getClassReference());
-//     
-//     cnv.convert(obj,vals);
-//    }
-
-    for( ValueConverter cnv : convs )
-     cnv.reset(obj);
-    
-    boolean hasValue=true;
-    int ln=0;
-    while( hasValue )
+    @Override
+    public Object call()
     {
-     hasValue=false;
-     
-     for( ValueConverter cnv : convs )
-     {
-      
-      List<AgeTabValue> vals = atObj.getValues(cnv.getClassReference());
-      
-
-       if(vals == null || vals.size() <= ln)
-       {
-        try
-        {
-         cnv.convert(null);
-        }
-        catch (ConvertionException e)
-        {
-         objLog.log(Level.ERROR, "Empty value processing error: "+e.getMessage()+". Row: "+e.getRow()+" Col: "+e.getColumn());
-         result = false;
-        }
-       }
-       else
-       {
-        hasValue = true;
-
-        AgeTabValue val = vals.get(ln);
-
-//        LogNode colLog = objLog.branch("Processing column: " + cnv.getClassReference().getCol() + ". Value: '" + val.getValue() + "'");
-
-
-        try
-        {
-         cnv.convert(val);
-//         colLog.log(Level.INFO, "Ok");
-        }
-        catch (ConvertionException e) 
-        {
-         objLog.log(Level.ERROR, "Conversion error: "+e.getMessage()+". Row: "+e.getRow()+" Col: "+e.getColumn());
-         result = false;
-        }
-
-       }
-      
-     }
+     for( BlockConversion bc : clsConvs )
+      convertBlock(data, bc, sm, classMap.get(bc.ageClass) );
      
-     ln++;
+     return null;
     }
+   });
+  }
+  
+  runParallel(tasks);
+  
+  for( BlockConversion bc : blkConvs )
+  {
+   if( ! bc.result )
+    result = false;
+   
+   for( AgeObjectWritable obj : bc.objects )
+   {
+    res.addObject(obj);
+    obj.setSubmission(res);
+   }
+   
+   if( bc.prototypes.size() > 0 )
+   {
+    Collection<AgeObjectWritable> protoList = prototypeMap.get(bc.ageClass);
     
-    if( atObj.isPrototype() )
-    {
-     Collection<AgeObjectWritable> protoList = prototypeMap.get(me.getValue());
-     
-     if( protoList == null )
-     {
-      protoList = new ArrayList<AgeObjectWritable>(3);
-      prototypeMap.put(me.getValue(), protoList);
-     }
-     
-     protoList.add(obj);
-    }
-    else
+    if( protoList == null )
     {
-     res.addObject(obj);
-     obj.setSubmission(res);
+     protoList = new ArrayList<AgeObjectWritable>(3);
+     prototypeMap.put(bc.ageClass, protoList);
     }
+    
+    protoList.addAll(bc.prototypes);
    }
   }
   
@@ -305,6 +288,216 @@ public class AgeTab2AgeConverterImpl implements AgeTab2AgeConverter
   return res;
  }
  
+ private void createObjects( AgeTabSubmission data, AgeClass cls, List<BlockHeader> blocks, ContextSemanticModel sm, Map<String,AgeObjectWritable> objectMap )
+ {
+  for( BlockHeader hdr : blocks )
+  {
+   for( AgeTabObject atObj : data.getObjects(hdr) )
+   {
+    if( atObj.isPrototype() )
+     continue;
+    
+    AgeObjectWritable obj = objectMap.get(atObj.getId());
+    
+    if( obj == null )
+    {
+     String id = atObj.getId();
+
+     if( ! atObj.isIdStable() )
+     {
+      id = cls.getIdPrefix()+IdGenerator.getInstance().getStringId()+"-"+atObj.getId();
+//      
+//      if( atObj.isIdDefined() )
+//       id+="-"+atObj.getId();
+     }
+     
+     obj = sm.createAgeObject(id, cls);
+     obj.setOrder( atObj.getRow() );
+     obj.setOriginalId(atObj.getId());
+     
+     objectMap.put(atObj.getId(), obj);
+    }
+   }
+  }
+ }
+ 
+ private void convertBlock( AgeTabSubmission data, BlockConversion bc, ContextSemanticModel sm, Map<String,AgeObjectWritable> objectMap )
+ {
+  for( AgeTabObject atObj : data.getObjects(bc.header) )
+  {
+   AgeObjectWritable obj = objectMap.get(atObj.getId());
+   
+   LogNode objLog = bc.log.branch("Processing object: "+atObj.getId());
+   
+   if( atObj.isPrototype()  )
+   {
+    obj = sm.createAgeObject(null, bc.ageClass);
+    obj.setOrder( atObj.getRow() );
+   }
+   
+//   for( ValueConverter cnv : convs )
+//   {
+//    List<AgeTabValue> vals = atObj.getValues(cnv.getClassReference());
+//    
+//    cnv.convert(obj,vals);
+//   }
+
+   for( ValueConverter cnv : bc.convs )
+    cnv.reset(obj);
+   
+   boolean hasValue=true;
+   int ln=0;
+   while( hasValue )
+   {
+    hasValue=false;
+    
+    for( ValueConverter cnv : bc.convs )
+    {
+     
+     List<AgeTabValue> vals = atObj.getValues(cnv.getClassReference());
+     
+
+      if(vals == null || vals.size() <= ln)
+      {
+       try
+       {
+        cnv.convert(null);
+       }
+       catch (ConvertionException e)
+       {
+        objLog.log(Level.ERROR, "Empty value processing error: "+e.getMessage()+". Row: "+e.getRow()+" Col: "+e.getColumn());
+        bc.result = false;
+       }
+      }
+      else
+      {
+       hasValue = true;
+
+       AgeTabValue val = vals.get(ln);
+
+//       LogNode colLog = objLog.branch("Processing column: " + cnv.getClassReference().getCol() + ". Value: '" + val.getValue() + "'");
+
+
+       try
+       {
+        cnv.convert(val);
+//        colLog.log(Level.INFO, "Ok");
+       }
+       catch (ConvertionException e) 
+       {
+        objLog.log(Level.ERROR, "Conversion error: "+e.getMessage()+". Row: "+e.getRow()+" Col: "+e.getColumn());
+        bc.result = false;
+       }
+
+      }
+     
+    }
+    
+    ln++;
+   }
+   
+   if( atObj.isPrototype() )
+    bc.prototypes.add(obj);
+   else
+    bc.objects.add(obj);
+  }
+ }
+ 
+ private <T> List<T> runParallel( List<Callable<T>> tasks )
+ {
+  List<T> res = new ArrayList<T>( tasks.size() );
+  
+  if( tasks.size() == 1 )
+  {
+   try
+   {
+    res.add( tasks.get(0).call() );
+   }
+   catch(RuntimeException e)
+   {
+    throw e;
+   }
+   catch(Exception e)
+   {
+    throw new RuntimeException(e);
+   }
+   
+   return res;
+  }
+  
+  try
+  {
+   for( Future<T> ftr : getExecutor().invokeAll(tasks) )
+    res.add( ftr.get() );
+  }
+  catch(InterruptedException e)
+  {
+   Thread.currentThread().interrupt();
+   throw new RuntimeException("Conversion interrupted", e);
+  }
+  catch(ExecutionException e)
+  {
+   if( e.getCause() instanceof RuntimeException )
+    throw (RuntimeException)e.getCause();
+   
+   if( e.getCause() instanceof Error )
+    throw (Error)e.getCause();
+   
+   throw new RuntimeException(e.getCause());
+  }
+  
+  return res;
+ }
+ 
+ private ExecutorService getExecutor()
+ {
+  if( executor != null )
+   return executor;
+  
+  synchronized(AgeTab2AgeConverterImpl.class)
+  {
+   if( defaultExecutor == null )
+   {
+    defaultExecutor = Executors.newFixedThreadPool( Runtime.getRuntime().availableProcessors(), new ThreadFactory()
+    {
+     private AtomicInteger count = new AtomicInteger();
+     
+     @Override
+     public Thread newThread(Runnable r)
+     {
+      Thread t = new Thread(r, "AGE converter "+count.incrementAndGet());
+      
+      t.setDaemon(true);
+      
+      return t;
+     }
+    });
+   }
+   
+   return defaultExecutor;
+  }
+ }
+ 
+ private static class BlockConversion
+ {
+  BlockHeader header;
+  AgeClass ageClass;
+  LogNode log;
+  
+  List<ValueConverter> convs = new ArrayList<ValueConverter>(20);
+  
+  List<AgeObjectWritable> objects = new ArrayList<AgeObjectWritable>();
+  List<AgeObjectWritable> prototypes = new ArrayList<AgeObjectWritable>(3);
+  
+  boolean result = true;
+  
+  BlockConversion( BlockHeader hdr, AgeClass cls )
+  {
+   header = hdr;
+   ageClass = cls;
+  }
+ }
+ 
  
 // private AgeClass getCustomAgeClass(ClassReference colHdr, ContextSemanticModel sm)
 // {
@@ -321,54 +514,113 @@ public class AgeTab2AgeConverterImpl implements AgeTab2AgeConverter
 //  return  sm.getOrCreateCustomAgeClass(colHdr.getName(),null,parent);
 // }
  
- private void finalizeValues( Collection<AgeObjectWritable> data )
+ private static class AttrInfo
  {
-  class AttrInfo
-  {
-   AgeAttributeWritable attr;
-   AgeObjectWritable obj;
-   
-//   boolean isBool=false;
-//   boolean isInt=false;
-//   boolean isReal=false;
-   
-   int     intValue;
-   boolean boolValue;
-   double  realValue;
-  }
+  AgeAttributeWritable attr;
+  AgeObjectWritable obj;
   
-  class AttrClassInfo
-  {
-   AgeAttributeClassWritable atClass;
-
-   boolean isBool=true;
-   boolean isInt=true;
-   boolean isReal=true;
-   
-   List<AttrInfo> attributes = new ArrayList<AttrInfo>();
-  }
+//  boolean isBool=false;
+//  boolean isInt=false;
+//  boolean isReal=false;
+  
+  int     intValue;
+  boolean boolValue;
+  double  realValue;
+ }
+ 
+ private static class AttrClassInfo
+ {
+  AgeAttributeClassWritable atClass;
 
-  Map<AgeClass, Map<AgeAttributeClass,AttrClassInfo > > wMap = new HashMap<AgeClass, Map<AgeAttributeClass,AttrClassInfo >>();
+  boolean isBool=true;
+  boolean isInt=true;
+  boolean isReal=true;
+  
+  List<AttrInfo> attributes = new ArrayList<AttrInfo>();
+ }
+ 
+ private void finalizeValues( Collection<AgeObjectWritable> data )
+ {
+  Map<AgeClass, List<AgeObjectWritable> > clsObjMap = new LinkedHashMap<AgeClass, List<AgeObjectWritable>>();
   
-  Map<AgeAttributeClass, AttrClassInfo > cClassMap = null;
+  List<AgeObjectWritable> cObjs = null;
   AgeClass cClass = null;
   
   for( AgeObjectWritable obj : data )
   {
-
    if(obj.getAgeElClass() != cClass)
    {
     cClass = obj.getAgeElClass();
 
-    cClassMap = wMap.get(cClass);
+    cObjs = clsObjMap.get(cClass);
 
-    if(cClassMap == null)
+    if(cObjs == null)
     {
-     cClassMap = new HashMap<AgeAttributeClass, AttrClassInfo>();
-     wMap.put(cClass, cClassMap);
+     cObjs = new ArrayList<AgeObjectWritable>();
+     clsObjMap.put(cClass, cObjs);
     }
    }
-
+   
+   cObjs.add(obj);
+  }
+  
+  List<Callable<Map<AgeAttributeClass,AttrClassInfo>>> tasks = new ArrayList<Callable<Map<AgeAttributeClass,AttrClassInfo>>>( clsObjMap.size() );
+  
+  for( final List<AgeObjectWritable> objs : clsObjMap.values() )
+  {
+   tasks.add( new Callable<Map<AgeAttributeClass,AttrClassInfo>>()
+   {
+    @Override
+    public Map<AgeAttributeClass,AttrClassInfo> call()
+    {
+     return collectValues(objs);
+    }
+   });
+  }
+  
+  for( Map<AgeAttributeClass,AttrClassInfo > actMap : runParallel(tasks) )
+  {
+   for( AttrClassInfo acInfo : actMap.values() )
+   {
+    DataType typ;
+    
+    if( acInfo.isBool )
+     acInfo.atClass.setDataType( typ = DataType.BOOLEAN );
+    else if( acInfo.isInt )
+     acInfo.atClass.setDataType( typ = DataType.INTEGER );
+    else if( acInfo.isReal )
+     acInfo.atClass.setDataType( typ = DataType.REAL );
+    else
+     acInfo.atClass.setDataType( typ = DataType.STRING );
+    
+    if( typ != DataType.STRING)
+    {
+     for( AttrInfo ai : acInfo.attributes )
+     {
+      ai.obj.removeAttribute(ai.attr);
+      AgeAttributeWritable nAttr = ai.obj.createAgeAttribute(acInfo.atClass);
+      
+      nAttr.setOrder(ai.attr.getOrder());
+      
+      if( typ == DataType.BOOLEAN )
+       nAttr.setBooleanValue(ai.boolValue);
+      else if( typ == DataType.INTEGER )
+       nAttr.setIntValue(ai.intValue);
+      else if( typ == DataType.REAL )
+       nAttr.setDoubleValue(ai.realValue);
+     }
+    }
+   }
+  }
+  
+ }
+ 
+ private Map<AgeAttributeClass,AttrClassInfo> collectValues( List<AgeObjectWritable> objs )
+ {
+  Map<AgeAttributeClass, AttrClassInfo > cClassMap = new HashMap<AgeAttributeClass, AttrClassInfo>();
+  
+  for( AgeObjectWritable obj : objs )
+  {
    if(obj.getAttributes() != null)
    {
     for(AgeAttributeWritable attr : obj.getAttributes())
@@ -444,41 +696,7 @@ public class AgeTab2AgeConverterImpl implements AgeTab2AgeConverter
    }
   }
   
-  for( Map<AgeAttributeClass,AttrClassInfo > actMap : wMap.values() )
-  {
-   for( AttrClassInfo acInfo : actMap.values() )
-   {
-    DataType typ;
-    
-    if( acInfo.isBool )
-     acInfo.atClass.setDataType( typ = DataType.BOOLEAN );
-    else if( acInfo.isInt )
-     acInfo.atClass.setDataType( typ = DataType.INTEGER );
-    else if( acInfo.isReal )
-     acInfo.atClass.setDataType( typ = DataType.REAL );
-    else
-     acInfo.atClass.setDataType( typ = DataType.STRING );
-    
-    if( typ != DataType.STRING)
-    {
-     for( AttrInfo ai : acInfo.attributes )
-     {
-      ai.obj.removeAttribute(ai.attr);
-      AgeAttributeWritable nAttr = ai.obj.createAgeAttribute(acInfo.atClass);
-      
-      nAttr.setOrder(ai.attr.getOrder());
-      
-      if( typ == DataType.BOOLEAN )
-       nAttr.setBooleanValue(ai.boolValue);
-      else if( typ == DataType.INTEGER )
-       nAttr.setIntValue(ai.intValue);
-      else if( typ == DataType.REAL )
-       nAttr.setDoubleValue(ai.realValue);
-     }
-    }
-   }
-  }
-  
+  return cClassMap;
  }
  
  
@@ -1,5 +1,8 @@
 package uk.ac.ebi.age.parser.impl;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -11,104 +14,62 @@ import uk.ac.ebi.age.parser.BlockHeader;
 import uk.ac.ebi.age.parser.ClassReference;
 import uk.ac.ebi.age.parser.ParserException;
 import uk.ac.ebi.age.service.IdGenerator;
-import uk.ac.ebi.age.util.StringUtil;
+import uk.ac.ebi.age.util.CellTokenizer;
 
 public class AgeTabSyntaxParserImpl extends AgeTabSyntaxParser
 {
 
  public AgeTabSubmission parse( String txt ) throws ParserException
+ {
+  try
+  {
+   return parse( new StringReader(txt) );
+  }
+  catch(IOException e)
+  {
+   throw new RuntimeException("Unexpected IO exception", e);
+  }
+ }
+
+ public AgeTabSubmission parse( Reader rd ) throws ParserException, IOException
  {
   AgeTabSubmission data = new AgeTabSubmissionImpl( this );
   
+  LineReader lnReader = new LineReader(rd);
   
-  int cpos = 0;
-  int len = txt.length();
   int ln = 0;
-  char colSep='\t';
-  
-//  String eol = "\r\n";
-//  
-//  if( txt.indexOf(eol) == -1)
-//   eol="\n";
-//
-//  if( txt.indexOf(eol) == -1)
-//   throw new ParserException(1,1,"File must contains at least 2 lines separated by either \\n or \\r\\n "); 
-// 
-//  int eolLength = eol.length();
-  
-//  while( txt.startsWith(eol, cpos) )
-//  {
-//   cpos+=eolLength;
-//   ln++;
-//  }
-  
-  while( cpos < len )
-  {
-   if( txt.charAt(cpos) == '\r' )
-    cpos++;
-   else if( txt.charAt(cpos) == '\n' )
-   {
-    ln++;
-    cpos++;
-   }
-   else
-    break;
-  }
   
-  {  // looking for column separator
-   int commaPos = txt.indexOf(',',cpos);
-   int tabPos = txt.indexOf('\t',cpos);
-   
-   commaPos = commaPos==-1?Integer.MAX_VALUE:commaPos;
-   tabPos = tabPos==-1?Integer.MAX_VALUE:tabPos;
-   
-   if( commaPos < tabPos )
-    colSep = ',';
-  }
-  
-  String sep = ""+colSep;
+  // The column separator is the first comma or tab in the text. Lines before that contain neither
+  // so they are split the same way with any separator
+  char sep = 0;
 
+  CellTokenizer cells = new CellTokenizer();
   List<String> parts = new ArrayList<String>(100);
   boolean newContext = true;
   BlockHeader header = null;
   
-//  AgeObject cObj=null;
-//  
-//  ModelFactory fact=ModelFactory.getInstance();
-//  
-//  Map<String,AgeObject> classMap = null;
-//  Map<AgeClass,Map<String,AgeObject>> objMap = new TreeMap<AgeClass,Map<String,AgeObject>>();
-  
   AgeTabObject cObj=null;
   
-  while(cpos < len)
+  String line = null;
+  
+  while( (line = lnReader.readLine()) != null )
   {
    ln++;
 
-   int pos = txt.indexOf('\n', cpos);
-
-   String line = null;
-   
-   if(pos == -1)
+   if( sep == 0 )
    {
-    line=txt.substring(cpos);
-    cpos=len;
-   }
-   else
-   {
-    int tpos = cpos;   
-    cpos = pos + 1;
-
-    if( txt.charAt( pos-1 ) == '\r')
-     pos--;
+    int commaPos = line.indexOf(',');
+    int tabPos = line.indexOf('\t');
     
-    line=txt.substring(tpos,pos);
+    if( commaPos != -1 && ( tabPos == -1 || commaPos < tabPos ) )
+     sep = ',';
+    else if( tabPos != -1 )
+     sep = '\t';
    }
-
-   parts.clear();
-   StringUtil.splitExcelString(line, sep, parts);
    
-   if( isEmptyLine(parts) )
+   int nCells = cells.split(line, sep != 0? sep : '\t');
+   
+   if( cells.isBlank() )
    {
     newContext=true;
     continue;
@@ -137,6 +98,9 @@ public class AgeTabSyntaxParserImpl extends AgeTabSyntaxParser
 
     newContext = false;
 
+    parts.clear();
+    cells.getCells(parts);
+    
     header = new BlockHeaderImpl(data);
     analyzeHeader(header, parts, ln);
     
@@ -145,12 +109,10 @@ public class AgeTabSyntaxParserImpl extends AgeTabSyntaxParser
     continue;
    }
    
-   Iterator<String> partIter = parts.iterator();
-   
-   String part = partIter.next();
-   
-   if( part.length() != 0 )
+   if( ! cells.isEmpty(0) )
    {
+    String part = cells.getCell(0);
+
     if( part.equals(getAnonymousObjectId()) )
     { 
      String id = "??"+IdGenerator.getInstance().getStringId("tempObjectId");
@@ -190,22 +152,21 @@ public class AgeTabSyntaxParserImpl extends AgeTabSyntaxParser
    else if( cObj == null )
     throw new ParserException(ln, 1, "Object identifier is expected");
    
+   // Strings are created only for non-empty cells
    int col=1; 
    for( ClassReference prop : header.getColumnHeaders() )
    {
     col++;
     
-    if(!partIter.hasNext())
+    if( col > nCells )
      break;
     
-    String val = partIter.next();
+    if( cells.isEmpty(col-1) )
+     continue;
 
     if( prop != null )
-    {
-     if( val.length() > 0 )
-      cObj.addValue(ln,col,val,prop);
-    }
-    else if( val.length() > 0 )
+     cObj.addValue(ln,col,cells.getCell(col-1),prop);
+    else
     {
      throw new ParserException(ln,col,"Not empty value in the empty-headed column");
     }
@@ -287,14 +248,64 @@ public class AgeTabSyntaxParserImpl extends AgeTabSyntaxParser
  }
 
  
- private boolean isEmptyLine( List<String> parts )
+ // Reads lines through a reusable buffer. Lines are terminated by '\n' with an optional preceding '\r'
+ private static class LineReader
  {
-  for(String pt : parts )
-   if( pt.length() != 0 )
-    return false;
+  private Reader reader;
+  private char[] buf = new char[8192];
+  private int pos = 0;
+  private int lim = 0;
+  private StringBuilder line = new StringBuilder(256);
+
+  LineReader( Reader rd )
+  {
+   reader = rd;
+  }
   
-  return true;
+  String readLine() throws IOException
+  {
+   line.setLength(0);
+   
+   boolean any = false;
+   
+   while( true )
+   {
+    if( pos >= lim )
+    {
+     lim = reader.read(buf, 0, buf.length);
+     pos = 0;
+     
+     if( lim <= 0 )
+     {
+      lim = 0;
+      return any ? line.toString() : null;
+     }
+    }
+    
+    any = true;
+    
+    int start = pos;
+    
+    while( pos < lim && buf[pos] != '\n' )
+     pos++;
+    
+    line.append(buf, start, pos-start);
+    
+    if( pos < lim )
+    {
+     pos++;
+     
+     int len = line.length();
+     
+     if( len > 0 && line.charAt(len-1) == '\r' )
+      line.setLength(len-1);
+     
+     return line.toString();
+    }
+   }
+  }
  }
  
+ 
 }
 
@@ -1,7 +1,11 @@
 package uk.ac.ebi.age.query;
 
-public class AgeQuery
+import java.io.Serializable;
+
+public class AgeQuery implements Serializable
 {
+ private static final long serialVersionUID = 1L;
+
  private QueryExpression expr;
  
  private AgeQuery()
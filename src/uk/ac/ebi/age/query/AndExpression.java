@@ -7,6 +7,8 @@ import uk.ac.ebi.age.model.AgeObject;
 
 public class AndExpression implements QueryExpression
 {
+ private static final long serialVersionUID = 1L;
+
  private Collection<QueryExpression> exprs = new ArrayList<QueryExpression>(5);
  
  public void addExpression(QueryExpression expr)
@@ -14,6 +16,11 @@ public class AndExpression implements QueryExpression
   exprs.add(expr);
  }
 
+ public Collection<QueryExpression> getExpressions()
+ {
+  return exprs;
+ }
+
  public boolean test(AgeObject obj)
  {
   for( QueryExpression expr : exprs )
@@ -0,0 +1,43 @@
+package uk.ac.ebi.age.query;
+
+import uk.ac.ebi.age.model.AgeAttribute;
+
+public class AttributeEqualsExpression extends AttributeExpression
+{
+ private static final long serialVersionUID = 1L;
+
+ private Object value;
+
+ public Object getValue()
+ {
+  return value;
+ }
+
+ public void setValue(Object value)
+ {
+  this.value = value;
+ }
+
+ @Override
+ protected boolean testValue(AgeAttribute attr)
+ {
+  if( value == null )
+   return false;
+  
+  if( value instanceof Number )
+  {
+   if( ! attr.getAgeElClass().getDataType().isNumeric() )
+    return false;
+   
+   return Double.compare(attr.getValueAsDouble(), ((Number)value).doubleValue()) == 0;
+  }
+  
+  Object atVal = attr.getValue();
+  
+  if( ! (atVal instanceof String) )
+   return false;
+  
+  return atVal.equals(value.toString());
+ }
+
+}
@@ -0,0 +1,69 @@
+package uk.ac.ebi.age.query;
+
+import uk.ac.ebi.age.model.AgeAttribute;
+import uk.ac.ebi.age.model.AgeAttributeClass;
+import uk.ac.ebi.age.model.AgeObject;
+import uk.ac.ebi.age.query.ClassNameExpression.ClassType;
+
+public abstract class AttributeExpression implements QueryExpression
+{
+ private static final long serialVersionUID = 1L;
+
+ private String attributeName;
+ private ClassType classType;
+
+ public String getAttributeName()
+ {
+  return attributeName;
+ }
+
+ public void setAttributeName(String attributeName)
+ {
+  this.attributeName = attributeName;
+ }
+
+ public ClassType getClassType()
+ {
+  return classType;
+ }
+
+ public void setClassType(ClassType classType)
+ {
+  this.classType = classType;
+ }
+
+ @Override
+ public boolean test(AgeObject obj)
+ {
+  if( obj.getAttributes() == null )
+   return false;
+  
+  for( AgeAttribute attr : obj.getAttributes() )
+  {
+   if( isMatchingClass(attr.getAgeElClass()) && testValue(attr) )
+    return true;
+  }
+  
+  return false;
+ }
+
+ protected boolean isMatchingClass( AgeAttributeClass cls )
+ {
+  if( classType == ClassType.DEFINED && cls.isCustom() )
+   return false;
+
+  if( classType == ClassType.CUSTOM &&  ! cls.isCustom() )
+   return false;
+  
+  return cls.getName().equals(attributeName);
+ }
+ 
+ protected abstract boolean testValue( AgeAttribute attr );
+
+ @Override
+ public boolean isTestingRelations()
+ {
+  return false;
+ }
+
+}
@@ -0,0 +1,35 @@
+package uk.ac.ebi.age.query;
+
+import uk.ac.ebi.age.model.AgeAttribute;
+
+public class AttributePrefixExpression extends AttributeExpression
+{
+ private static final long serialVersionUID = 1L;
+
+ private String prefix;
+
+ public String getPrefix()
+ {
+  return prefix;
+ }
+
+ public void setPrefix(String prefix)
+ {
+  this.prefix = prefix;
+ }
+
+ @Override
+ protected boolean testValue(AgeAttribute attr)
+ {
+  if( prefix == null )
+   return false;
+  
+  Object atVal = attr.getValue();
+  
+  if( ! (atVal instanceof String) )
+   return false;
+  
+  return ((String)atVal).startsWith(prefix);
+ }
+
+}
@@ -0,0 +1,84 @@
+package uk.ac.ebi.age.query;
+
+import uk.ac.ebi.age.model.AgeAttribute;
+
+public class AttributeRangeExpression extends AttributeExpression
+{
+ private static final long serialVersionUID = 1L;
+
+ private Double min;
+ private Double max;
+ 
+ private boolean minInclusive = true;
+ private boolean maxInclusive = true;
+
+ public Double getMin()
+ {
+  return min;
+ }
+
+ public void setMin(Double min)
+ {
+  this.min = min;
+ }
+
+ public Double getMax()
+ {
+  return max;
+ }
+
+ public void setMax(Double max)
+ {
+  this.max = max;
+ }
+
+ public boolean isMinInclusive()
+ {
+  return minInclusive;
+ }
+
+ public void setMinInclusive(boolean minInclusive)
+ {
+  this.minInclusive = minInclusive;
+ }
+
+ public boolean isMaxInclusive()
+ {
+  return maxInclusive;
+ }
+
+ public void setMaxInclusive(boolean maxInclusive)
+ {
+  this.maxInclusive = maxInclusive;
+ }
+
+ @Override
+ protected boolean testValue(AgeAttribute attr)
+ {
+  if( ! attr.getAgeElClass().getDataType().isNumeric() )
+   return false;
+  
+  return isInRange( attr.getValueAsDouble() );
+ }
+ 
+ public boolean isInRange( double v )
+ {
+  if( min != null )
+  {
+   int cmp = Double.compare(v, min);
+   
+   if( cmp < 0 || ( cmp == 0 && ! minInclusive ) )
+    return false;
+  }
+
+  if( max != null )
+  {
+   int cmp = Double.compare(v, max);
+   
+   if( cmp > 0 || ( cmp == 0 && ! maxInclusive ) )
+    return false;
+  }
+  
+  return true;
+ }
+}
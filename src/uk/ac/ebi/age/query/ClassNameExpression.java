@@ -5,6 +5,8 @@ import uk.ac.ebi.age.model.AgeObject;
 
 public class ClassNameExpression implements QueryExpression
 {
+ private static final long serialVersionUID = 1L;
+
  public enum ClassType
  {
   DEFINED,
@@ -14,6 +16,7 @@ public class ClassNameExpression implements QueryExpression
 
  private String className;
  private ClassType classType;
+ private boolean withSubclasses = false;
  
  public String getClassName()
  {
@@ -35,11 +38,44 @@ public class ClassNameExpression implements QueryExpression
   this.classType = classType;
  }
 
+ public boolean isWithSubclasses()
+ {
+  return withSubclasses;
+ }
+
+ public void setWithSubclasses(boolean withSubclasses)
+ {
+  this.withSubclasses = withSubclasses;
+ }
+
  @Override
  public boolean test(AgeObject obj)
  {
-  AgeClass cls = obj.getAgeElClass();
+  return testClass( obj.getAgeElClass() );
+ }
+ 
+ private boolean testClass( AgeClass cls )
+ {
+  if( cls == null )
+   return false;
+  
+  if( isMatching(cls) )
+   return true;
+  
+  if( withSubclasses && cls.getSuperClasses() != null )
+  {
+   for( AgeClass sup : cls.getSuperClasses() )
+   {
+    if( sup != cls && testClass(sup) )
+     return true;
+   }
+  }
   
+  return false;
+ }
+ 
+ private boolean isMatching( AgeClass cls )
+ {
   if( classType == ClassType.DEFINED && cls.isCustom() )
    return false;
 
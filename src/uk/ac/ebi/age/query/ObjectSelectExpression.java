@@ -1,33 +1,55 @@
 package uk.ac.ebi.age.query;
 
 import uk.ac.ebi.age.model.AgeObject;
+import uk.ac.ebi.age.query.ClassNameExpression.ClassType;
 
+/*
+ * Objects of a class (any type, subclasses included) the condition is true for. Mostly used as the target
+ * expression of a RelationExpression
+ */
 public class ObjectSelectExpression implements QueryExpression
 {
+ private static final long serialVersionUID = 1L;
+
+ private ClassNameExpression classExpression;
+ private QueryExpression condition;
 
  public void setAgeClassName(String string)
  {
-  // TODO Auto-generated method stub
-  throw new dev.NotImplementedYetException();
+  classExpression = new ClassNameExpression();
+
+  classExpression.setClassName(string);
+  classExpression.setClassType(ClassType.ANY);
+  classExpression.setWithSubclasses(true);
+ }
+
+ public ClassNameExpression getClassExpression()
+ {
+  return classExpression;
  }
 
  public void setCondition(QueryExpression selExpr)
  {
-  // TODO Auto-generated method stub
-  throw new dev.NotImplementedYetException();
+  condition = selExpr;
+ }
+
+ public QueryExpression getCondition()
+ {
+  return condition;
  }
 
  public boolean test(AgeObject obj)
  {
-  // TODO Auto-generated method stub
-  throw new dev.NotImplementedYetException();
+  if( classExpression != null && ! classExpression.test(obj) )
+   return false;
+
+  return condition == null || condition.test(obj);
  }
 
  @Override
  public boolean isTestingRelations()
  {
-  // TODO Auto-generated method stub
-  throw new dev.NotImplementedYetException();
+  return condition != null && condition.isTestingRelations();
  }
 
 }
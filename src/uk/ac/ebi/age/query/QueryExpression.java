@@ -1,8 +1,10 @@
 package uk.ac.ebi.age.query;
 
+import java.io.Serializable;
+
 import uk.ac.ebi.age.model.AgeObject;
 
-public interface QueryExpression
+public interface QueryExpression extends Serializable
 {
 
  boolean test(AgeObject obj);
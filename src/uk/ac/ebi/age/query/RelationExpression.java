@@ -0,0 +1,118 @@
+package uk.ac.ebi.age.query;
+
+import uk.ac.ebi.age.model.AgeObject;
+import uk.ac.ebi.age.model.AgeRelation;
+import uk.ac.ebi.age.model.AgeRelationClass;
+import uk.ac.ebi.age.query.ClassNameExpression.ClassType;
+
+/*
+ * True for objects having a relation of the given class to an object the target expression is true for
+ * (to any object if there is no target expression). Target expressions may be relation expressions themselves,
+ * so a chain of them makes a relation path.
+ */
+public class RelationExpression implements QueryExpression
+{
+ private static final long serialVersionUID = 1L;
+
+ private String relationName;
+ private ClassType classType;
+ private boolean withSubclasses = false;
+
+ private QueryExpression targetExpression;
+
+ public String getRelationName()
+ {
+  return relationName;
+ }
+
+ public void setRelationName(String relationName)
+ {
+  this.relationName = relationName;
+ }
+
+ public ClassType getClassType()
+ {
+  return classType;
+ }
+
+ public void setClassType(ClassType classType)
+ {
+  this.classType = classType;
+ }
+
+ public boolean isWithSubclasses()
+ {
+  return withSubclasses;
+ }
+
+ public void setWithSubclasses(boolean withSubclasses)
+ {
+  this.withSubclasses = withSubclasses;
+ }
+
+ public QueryExpression getTargetExpression()
+ {
+  return targetExpression;
+ }
+
+ public void setTargetExpression(QueryExpression targetExpression)
+ {
+  this.targetExpression = targetExpression;
+ }
+
+ @Override
+ public boolean test(AgeObject obj)
+ {
+  if( obj.getRelations() == null )
+   return false;
+
+  for( AgeRelation rel : obj.getRelations() )
+  {
+   if( rel.getTargetObject() == null || ! isMatchingClass( rel.getAgeElClass() ) )
+    continue;
+
+   if( targetExpression == null || targetExpression.test( rel.getTargetObject() ) )
+    return true;
+  }
+
+  return false;
+ }
+
+ public boolean isMatchingClass( AgeRelationClass cls )
+ {
+  if( cls == null )
+   return false;
+
+  if( isMatching(cls) )
+   return true;
+
+  if( withSubclasses && cls.getSuperClasses() != null )
+  {
+   for( AgeRelationClass sup : cls.getSuperClasses() )
+   {
+    if( sup != cls && isMatchingClass(sup) )
+     return true;
+   }
+  }
+
+  return false;
+ }
+
+ private boolean isMatching( AgeRelationClass cls )
+ {
+  if( classType == ClassType.DEFINED && cls.isCustom() )
+   return false;
+
+  if( classType == ClassType.CUSTOM &&  ! cls.isCustom() )
+   return false;
+
+  return cls.getName().equals(relationName);
+ }
+
+ @Override
+ public boolean isTestingRelations()
+ {
+  return true;
+ }
+
+}
@@ -4,6 +4,8 @@ import uk.ac.ebi.age.model.AgeObject;
 
 public class TrueExpression implements QueryExpression
 {
+ private static final long serialVersionUID = 1L;
+
 
  @Override
  public boolean test(AgeObject obj)
@@ -2,6 +2,7 @@ package uk.ac.ebi.age.service;
 
 import uk.ac.ebi.age.service.impl.IdGeneratorImpl;
 
+// Implementations are called concurrently (e.g. by the parallel AgeTab converter) and must be thread safe
 public abstract class IdGenerator
 {
  private static IdGenerator instance = new IdGeneratorImpl();
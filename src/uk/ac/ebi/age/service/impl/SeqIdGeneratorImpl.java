@@ -1,64 +1,89 @@
 package uk.ac.ebi.age.service.impl;
 
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.RandomAccessFile;
-import java.util.HashMap;
+import java.io.Writer;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import uk.ac.ebi.age.service.IdGenException;
 import uk.ac.ebi.age.service.IdGenerator;
 
+/*
+ * IDs are taken from per-theme atomic counters without locking. The ID file keeps for every theme the upper
+ * bound of the reserved block, so after a crash counting restarts above any ID ever issued. Only a thread
+ * that runs out of the reserved block takes the counter lock and writes the file. Blocks grow (up to
+ * MAX_BLOCK_LEN) while they are used up quickly and shrink back when IDs are requested rarely.
+ */
 public class SeqIdGeneratorImpl extends IdGenerator
 {
- private final static int ID_BLOCK_LEN=10; 
+ private final static int ID_BLOCK_LEN=10;
+ private final static int MAX_BLOCK_LEN=100000;
+
+ // A block used up faster than this makes the next one twice as long. A block lasting 10 times longer halves it
+ private final static long FAST_BLOCK_TIME=1000;
 
  private static class Counter
- { 
-  int nextId=1;
-  int maxId=1;
+ {
+  AtomicLong nextId;
+  volatile long maxId;
+
+  int blockLen = ID_BLOCK_LEN;
+  long reserveTime;
+
+  Counter( long id )
+  {
+   nextId = new AtomicLong(id);
+   maxId=id;
+  }
  }
- 
- private Counter defaultCounter = new Counter();
- 
- private Map<String,Counter> themeCounters = new HashMap<String,Counter>();
- 
+
+ private Counter defaultCounter = new Counter(1);
+
+ private ConcurrentMap<String,Counter> themeCounters = new ConcurrentHashMap<String,Counter>();
+
  private File idFile;
  private File tmpFile;
  private File backupFile;
- 
+
+ private Object fileLock = new Object();
+
  public SeqIdGeneratorImpl( String path )
  {
   idFile = new File(path);
   idFile.getParentFile().mkdirs( );
-  
+
   tmpFile = new File(path+".tmp");
   backupFile = new File(path+".bak");
-  
+
   init();
  }
- 
+
  private void init()
  {
   RandomAccessFile file = null;
-  
+
   if( ! idFile.exists() )
    return;
-  
+
   try
   {
    file = new RandomAccessFile(idFile, "r");
    String line = null;
-   
+
    boolean first = true;
    while( (line = file.readLine()) != null )
    {
     line = line.trim();
-    
+
     String key=null;
     String value = null;
-    
+
     if( first )
     {
      first = false;
@@ -67,37 +92,32 @@ public class SeqIdGeneratorImpl extends IdGenerator
     else
     {
      int pos = line.indexOf(':');
-     
+
      if( pos != -1 && pos != 0 && pos != line.length()-1 )
      {
       key = line.substring(0,pos).trim();
       value = line.substring(pos+1).trim();
      }
     }
-    
+
     if( value == null )
      continue;
-    
-    int id;
-    
+
+    long id;
+
     try
     {
-     id = Integer.parseInt(value);
+     id = Long.parseLong(value);
     }
     catch(Exception e)
     {
      continue;
     }
-    
+
     if( key == null )
-     defaultCounter.maxId = defaultCounter.nextId = id;
+     defaultCounter = new Counter(id);
     else
-    {
-     Counter c = new Counter();
-     c.maxId = c.nextId = id;
-     
-     themeCounters.put(key, c);
-    }
+     themeCounters.put(key, new Counter(id));
 
    }
   }
@@ -122,31 +142,35 @@ public class SeqIdGeneratorImpl extends IdGenerator
   }
 
  }
- 
- 
- private void update( int blockSize )
+
+ /*
+  * Writes the current bounds of all counters but cnt (if not null) which gets newMax. Must be called under fileLock:
+  * counters' maxId are changed only there, so the file never goes below a bound already in use.
+  */
+ private void update( Counter cnt, long newMax )
  {
-  FileWriter file = null;
+  Writer file = null;
   try
   {
-   file = new FileWriter(tmpFile);
+   FileOutputStream fos = new FileOutputStream(tmpFile);
+   file = new OutputStreamWriter(fos, "UTF-8");
+
+   file.write(String.valueOf(defaultCounter == cnt ? newMax : defaultCounter.maxId)+"\n");
 
-   file.write(String.valueOf(defaultCounter.nextId+blockSize)+"\n");
-   
    for( Map.Entry<String, Counter> me : themeCounters.entrySet() )
-    file.write(me.getKey()+':'+String.valueOf(me.getValue().nextId+blockSize)+"\n");
-   
+    file.write(me.getKey()+':'+String.valueOf(me.getValue() == cnt ? newMax : me.getValue().maxId)+"\n");
+
+   file.flush();
+   fos.getFD().sync();
+
    file.close();
    file = null;
-   
+
    backupFile.delete();
    idFile.renameTo(backupFile);
-   tmpFile.renameTo(idFile);
-   
-   defaultCounter.maxId=defaultCounter.nextId+blockSize;
-   
-   for(Counter cnt : themeCounters.values() )
-    cnt.maxId=cnt.nextId+blockSize;
+
+   if( ! tmpFile.renameTo(idFile) )
+    throw new IOException("Can't rename file: "+tmpFile.getAbsolutePath()+" to "+idFile.getAbsolutePath());
   }
   catch(IOException e)
   {
@@ -169,38 +193,87 @@ public class SeqIdGeneratorImpl extends IdGenerator
   }
 
  }
- 
+
+ private String nextId( Counter cnt )
+ {
+  long id = cnt.nextId.getAndIncrement();
+
+  if( id >= cnt.maxId )
+   reserve(cnt, id);
+
+  return String.valueOf(id);
+ }
+
+ // Blocks until a block covering id is durably reserved
+ private void reserve( Counter cnt, long id )
+ {
+  synchronized(cnt)
+  {
+   if( id < cnt.maxId )
+    return;
+
+   long now = System.currentTimeMillis();
+   long blockTime = now-cnt.reserveTime;
+
+   if( blockTime < FAST_BLOCK_TIME )
+    cnt.blockLen = Math.min(cnt.blockLen*2, MAX_BLOCK_LEN);
+   else if( blockTime > FAST_BLOCK_TIME*10 )
+    cnt.blockLen = Math.max(cnt.blockLen/2, ID_BLOCK_LEN);
+
+   cnt.reserveTime = now;
+
+   // Threads that took IDs behind id are waiting for the same block
+   long newMax = Math.max(id+1, cnt.nextId.get()) + cnt.blockLen;
+
+   synchronized(fileLock)
+   {
+    update(cnt, newMax);
+    cnt.maxId = newMax;
+   }
+  }
+ }
+
  @Override
- public synchronized String getStringId()
+ public String getStringId()
  {
-  if( defaultCounter.nextId == defaultCounter.maxId )
-   update(ID_BLOCK_LEN);
-  
-  return String.valueOf(defaultCounter.nextId++);
+  return nextId(defaultCounter);
  }
- 
+
  @Override
- public synchronized String getStringId( String theme )
+ public String getStringId( String theme )
  {
   Counter cnt = themeCounters.get(theme);
-  
+
   if( cnt == null )
   {
-   cnt = new Counter();
-   themeCounters.put(theme, cnt);
+   cnt = new Counter(1);
+
+   Counter old = themeCounters.putIfAbsent(theme, cnt);
+
+   if( old != null )
+    cnt = old;
   }
-  
-  if( cnt.nextId == cnt.maxId )
-   update(ID_BLOCK_LEN);
-  
-  return String.valueOf(cnt.nextId++);
+
+  return nextId(cnt);
  }
 
 
+ /*
+  * Gives back the unused part of the reserved blocks so numbering continues without gaps
+  * after a clean restart. Must not be called concurrently with getStringId()
+  */
  @Override
- public synchronized void shutdown()
+ public void shutdown()
  {
-  update(0);
+  synchronized(fileLock)
+  {
+   defaultCounter.maxId = Math.min(defaultCounter.nextId.get(), defaultCounter.maxId);
+
+   for( Counter cnt : themeCounters.values() )
+    cnt.maxId = Math.min(cnt.nextId.get(), cnt.maxId);
+
+   update(null, 0);
+  }
  }
 
 }
@@ -6,18 +6,23 @@ import java.util.List;
 import uk.ac.ebi.age.model.AgeObject;
 import uk.ac.ebi.age.model.SemanticModel;
 import uk.ac.ebi.age.query.AgeQuery;
+import uk.ac.ebi.age.storage.exeption.IndexIOException;
 import uk.ac.ebi.age.storage.index.AgeIndex;
 import uk.ac.ebi.age.storage.index.TextFieldExtractor;
 
 public interface AgeStorage
 {
  Collection<AgeObject> executeQuery( AgeQuery qury );
+ QueryResult executeQuery( AgeQuery qury, int offset, int limit );
+ QueryResult continueQuery( AgeQuery qury, String token, int limit );
  
- List<AgeObject> queryTextIndex(AgeIndex idx, String query);
- int queryTextIndexCount(AgeIndex idx, String query);
+ List<AgeObject> queryTextIndex(AgeIndex idx, String query) throws IndexIOException;
+ int queryTextIndexCount(AgeIndex idx, String query) throws IndexIOException;
+ TextSearchResult queryTextIndex(AgeIndex idx, String query, String sortField, int offset, int limit) throws IndexIOException;
  
 // AgeIndex createTextIndex(AgeQuery qury, TextValueExtractor cb );
- AgeIndex createTextIndex(AgeQuery qury, Collection<TextFieldExtractor> cb );
+ AgeIndex createTextIndex(AgeQuery qury, Collection<TextFieldExtractor> cb ) throws IndexIOException;
+ AgeIndex createTextIndex(String name, AgeQuery qury, Collection<TextFieldExtractor> cb ) throws IndexIOException;
 
  SemanticModel getSemanticModel();
  
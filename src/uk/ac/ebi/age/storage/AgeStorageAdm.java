@@ -1,6 +1,7 @@
 package uk.ac.ebi.age.storage;
 
 import java.util.Collection;
+import java.util.List;
 
 import uk.ac.ebi.age.log.LogNode;
 import uk.ac.ebi.age.model.SemanticModel;
@@ -12,6 +13,7 @@ import uk.ac.ebi.age.storage.exeption.SubmissionStoreException;
 public interface AgeStorageAdm extends AgeStorage
 {
  String storeSubmission(SubmissionWritable sbm) throws RelationResolveException, SubmissionStoreException;
+ List<String> storeSubmissions(Collection<SubmissionWritable> sbms) throws RelationResolveException, SubmissionStoreException;
  
  boolean updateSemanticModel( SemanticModel sm, LogNode log ); // throws ModelStoreException;
 
@@ -21,6 +23,11 @@ public interface AgeStorageAdm extends AgeStorage
  void lockWrite();
  void unlockWrite();
 
+ void lockRead();
+ void unlockRead();
+ 
+ long getDataVersion();
+
  void addRelations(String key, Collection<AgeRelationWritable> value);
 
  SubmissionWritable getSubmission(String name);
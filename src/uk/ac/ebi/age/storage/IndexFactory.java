@@ -1,5 +1,7 @@
 package uk.ac.ebi.age.storage;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Collection;
 
 import uk.ac.ebi.age.query.AgeQuery;
@@ -20,4 +22,9 @@ public class IndexFactory
   return new LuceneFullTextIndex( qury, exts );
  }
 
+ public TextIndex createFullTextIndex(AgeQuery qury, Collection<TextFieldExtractor> exts, File dir, boolean create) throws IOException
+ {
+  return new LuceneFullTextIndex( qury, exts, dir, create );
+ }
+
 }
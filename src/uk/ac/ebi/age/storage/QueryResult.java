@@ -0,0 +1,33 @@
+package uk.ac.ebi.age.storage;
+
+import java.util.List;
+
+import uk.ac.ebi.age.model.AgeObject;
+
+public class QueryResult
+{
+ private List<AgeObject> objects;
+ private String continuationToken;
+
+ public QueryResult( List<AgeObject> objs, String token )
+ {
+  objects = objs;
+  continuationToken = token;
+ }
+
+ public List<AgeObject> getObjects()
+ {
+  return objects;
+ }
+
+ // null if there are no more results
+ public String getContinuationToken()
+ {
+  return continuationToken;
+ }
+ 
+ public boolean hasMore()
+ {
+  return continuationToken != null;
+ }
+}
@@ -1,13 +1,22 @@
 package uk.ac.ebi.age.storage;
 
 import java.util.List;
+import java.util.Map;
 
 import uk.ac.ebi.age.model.AgeObject;
+import uk.ac.ebi.age.storage.exeption.IndexIOException;
 import uk.ac.ebi.age.storage.impl.AgeStorageIndex;
 
 public interface TextIndex extends AgeStorageIndex
 {
- List<AgeObject> select(String query);
+ List<AgeObject> select(String query) throws IndexIOException;
 
- int count(String query);
+ int count(String query) throws IndexIOException;
+ 
+ // sortField is the name of a TextFieldExtractor or null to sort by relevance
+ TextSearchResult select(String query, String sortField, int offset, int limit) throws IndexIOException;
+ 
+ void restore(Map<String, ? extends AgeObject> objects) throws IndexIOException;
+ 
+ void commit() throws IndexIOException;
 }
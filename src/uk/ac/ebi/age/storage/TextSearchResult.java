@@ -0,0 +1,29 @@
+package uk.ac.ebi.age.storage;
+
+import java.util.List;
+
+import uk.ac.ebi.age.model.AgeObject;
+
+public class TextSearchResult
+{
+ private List<AgeObject> objects;
+ private int totalCount;
+
+ public TextSearchResult( List<AgeObject> objs, int total )
+ {
+  objects = objs;
+  totalCount = total;
+ }
+
+ // Objects of the requested page
+ public List<AgeObject> getObjects()
+ {
+  return objects;
+ }
+
+ // Number of all matching objects
+ public int getTotalCount()
+ {
+  return totalCount;
+ }
+}
@@ -0,0 +1,15 @@
+package uk.ac.ebi.age.storage.exeption;
+
+public class IndexIOException extends Exception
+{
+ public IndexIOException( String msg )
+ {
+  super( msg );
+ }
+ 
+ public IndexIOException( String msg, Throwable t )
+ {
+  super( msg, t );
+ }
+
+}
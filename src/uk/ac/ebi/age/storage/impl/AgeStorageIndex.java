@@ -1,17 +1,23 @@
 package uk.ac.ebi.age.storage.impl;
 
+import java.util.Collection;
 import java.util.List;
 
 import uk.ac.ebi.age.model.AgeObject;
 import uk.ac.ebi.age.query.AgeQuery;
+import uk.ac.ebi.age.storage.exeption.IndexIOException;
 
 public interface AgeStorageIndex
 {
 
  AgeQuery getQuery();
 
- void index(List<AgeObject> res);
+ void index(List<AgeObject> res) throws IndexIOException;
 
- void reset();
+ void remove(Collection<? extends AgeObject> objs) throws IndexIOException;
+
+ void reset() throws IndexIOException;
+
+ void close() throws IndexIOException;
 
 }
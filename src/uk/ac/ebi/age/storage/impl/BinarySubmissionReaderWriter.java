@@ -0,0 +1,1055 @@
+package uk.ac.ebi.age.storage.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import uk.ac.ebi.age.mng.SemanticManager;
+import uk.ac.ebi.age.model.AgeAttribute;
+import uk.ac.ebi.age.model.AgeAttributeClass;
+import uk.ac.ebi.age.model.AgeClass;
+import uk.ac.ebi.age.model.AgeExternalRelation;
+import uk.ac.ebi.age.model.AgeObject;
+import uk.ac.ebi.age.model.AgeRelation;
+import uk.ac.ebi.age.model.AgeRelationClass;
+import uk.ac.ebi.age.model.Attributed;
+import uk.ac.ebi.age.model.ContextSemanticModel;
+import uk.ac.ebi.age.model.DataType;
+import uk.ac.ebi.age.model.Submission;
+import uk.ac.ebi.age.model.writable.AgeAttributeClassWritable;
+import uk.ac.ebi.age.model.writable.AgeAttributeWritable;
+import uk.ac.ebi.age.model.writable.AgeClassWritable;
+import uk.ac.ebi.age.model.writable.AgeExternalObjectAttributeWritable;
+import uk.ac.ebi.age.model.writable.AgeObjectAttributeWritable;
+import uk.ac.ebi.age.model.writable.AgeObjectWritable;
+import uk.ac.ebi.age.model.writable.AgeRelationClassWritable;
+import uk.ac.ebi.age.model.writable.AgeRelationWritable;
+import uk.ac.ebi.age.model.writable.AttributedWritable;
+import uk.ac.ebi.age.model.writable.SubmissionWritable;
+import uk.ac.ebi.age.storage.SubmissionReaderWriter;
+import uk.ac.ebi.age.util.StringDictionary;
+
+/*
+ * File layout (all integers are varints unless stated otherwise):
+ *
+ *  magic 'AGEB', version byte
+ *  string table: count, (length, UTF-8 bytes)*
+ *  submission id, description
+ *  custom classes, custom attribute classes, custom relation classes. Since version 2 the class IDs are stored
+ *  (the inverse class ID too for relation classes), so reading doesn't allocate new ones
+ *  object headers: id, original id, class, order
+ *  object bodies: attributes and relations. Relation targets within the submission are object ordinals
+ *
+ * Strings are referenced by (table index + 1), 0 stands for null.
+ */
+
+public class BinarySubmissionReaderWriter implements SubmissionReaderWriter
+{
+ private static final byte[] MAGIC = new byte[]{'A','G','E','B'};
+ private static final int VERSION = 2;
+
+ private static final long MAP_THRESHOLD = 64*1024;
+
+ private static final Charset UTF8 = Charset.forName("UTF-8");
+
+ private static final int REF_NULL = 0;
+ private static final int REF_DEFINED = 1;
+ private static final int REF_CUSTOM = 2;
+ private static final int REF_DEFINED_INVERSE = 3;
+ private static final int REF_CUSTOM_INVERSE = 4;
+
+ private static final int VAL_NULL = 0;
+ private static final int VAL_INT = 1;
+ private static final int VAL_REAL = 2;
+ private static final int VAL_BOOL = 3;
+ private static final int VAL_STRING = 4;
+ private static final int VAL_OBJECT = 5;
+ private static final int VAL_EXTOBJECT = 6;
+
+ private static final int REL_INTERNAL = 0;
+ private static final int REL_EXTERNAL = 1;
+
+ private SubmissionReaderWriter legacyRW = new SerializedSubmissionReaderWriter();
+
+ @Override
+ public String getExtension()
+ {
+  return ".agb";
+ }
+
+ public SubmissionReaderWriter getLegacyReaderWriter()
+ {
+  return legacyRW;
+ }
+
+ public boolean isBinaryFormat( File f ) throws IOException
+ {
+  FileInputStream fis = new FileInputStream(f);
+
+  try
+  {
+   ByteBuffer hdr = ByteBuffer.allocate(MAGIC.length);
+
+   FileChannel chnl = fis.getChannel();
+
+   while( hdr.hasRemaining() )
+   {
+    if( chnl.read(hdr) < 0 )
+     return false;
+   }
+
+   for( int i=0; i < MAGIC.length; i++ )
+    if( hdr.get(i) != MAGIC[i] )
+     return false;
+
+   return true;
+  }
+  finally
+  {
+   fis.close();
+  }
+ }
+
+ @Override
+ public SubmissionWritable read(File f) throws IOException, ClassNotFoundException
+ {
+  if( ! isBinaryFormat(f) )
+   return legacyRW.read(f);
+
+  FileInputStream fis = new FileInputStream(f);
+
+  ByteBuffer buf = null;
+
+  try
+  {
+   FileChannel chnl = fis.getChannel();
+
+   if( chnl.size() > MAP_THRESHOLD )
+    buf = chnl.map(FileChannel.MapMode.READ_ONLY, 0, chnl.size());
+   else
+   {
+    buf = ByteBuffer.allocate((int)chnl.size());
+
+    while( buf.hasRemaining() )
+    {
+     if( chnl.read(buf) < 0 )
+      throw new IOException("Unexpected end of file: "+f.getAbsolutePath());
+    }
+
+    buf.flip();
+   }
+  }
+  finally
+  {
+   fis.close();
+  }
+
+  try
+  {
+   return new Reader(buf).readSubmission();
+  }
+  catch( RuntimeException e )
+  {
+   throw new IOException("Invalid submission file: "+f.getAbsolutePath()+" ("+e.getMessage()+")");
+  }
+ }
+
+ // Decodes data produced by encode(). The buffer can be a slice of a mapped file
+ public SubmissionWritable decode(ByteBuffer buf) throws IOException
+ {
+  try
+  {
+   return new Reader(buf).readSubmission();
+  }
+  catch( RuntimeException e )
+  {
+   throw new IOException("Invalid submission data ("+e.getMessage()+")");
+  }
+ }
+
+ public ByteBuffer[] encode(Submission s)
+ {
+  Writer wrt = new Writer();
+
+  wrt.writeSubmission(s);
+
+  return wrt.getBuffers();
+ }
+
+ @Override
+ public void write(Submission s, File f) throws IOException
+ {
+  ByteBuffer[] bufs = encode(s);
+
+  FileOutputStream fos = new FileOutputStream(f);
+
+  try
+  {
+   FileChannel chnl = fos.getChannel();
+
+   long len = 0;
+
+   for( ByteBuffer b : bufs )
+    len += b.remaining();
+
+   while( len > 0 )
+    len -= chnl.write(bufs);
+
+   chnl.force(false);
+  }
+  finally
+  {
+   fos.close();
+  }
+ }
+
+ private static class Output
+ {
+  private ByteBuffer buf;
+
+  Output( int cap )
+  {
+   buf = ByteBuffer.allocate(cap);
+  }
+
+  private void ensure( int n )
+  {
+   if( buf.remaining() >= n )
+    return;
+
+   int ncap = buf.capacity()*2;
+
+   while( ncap - buf.position() < n )
+    ncap*=2;
+
+   ByteBuffer nbuf = ByteBuffer.allocate(ncap);
+
+   buf.flip();
+   nbuf.put(buf);
+
+   buf = nbuf;
+  }
+
+  void putByte( int b )
+  {
+   ensure(1);
+   buf.put((byte)b);
+  }
+
+  void putBytes( byte[] b )
+  {
+   ensure(b.length);
+   buf.put(b);
+  }
+
+  void putVarInt( int v )
+  {
+   ensure(5);
+
+   while( (v & ~0x7F) != 0 )
+   {
+    buf.put( (byte)((v & 0x7F) | 0x80) );
+    v >>>= 7;
+   }
+
+   buf.put((byte)v);
+  }
+
+  void putSignedVarInt( int v )
+  {
+   putVarInt( (v << 1) ^ (v >> 31) );
+  }
+
+  void putDouble( double d )
+  {
+   ensure(8);
+   buf.putDouble(d);
+  }
+
+  ByteBuffer getBuffer()
+  {
+   ByteBuffer b = buf.duplicate();
+   b.flip();
+   return b;
+  }
+ }
+
+ private static class Writer
+ {
+  private Output head = new Output(1024);
+  private Output body = new Output(16*1024);
+
+  private Map<String, Integer> strMap = new HashMap<String, Integer>();
+  private List<String> strings = new ArrayList<String>();
+
+  private Map<AgeObject, Integer> objOrdMap = new IdentityHashMap<AgeObject, Integer>();
+  private Map<AgeRelation, Integer> relOrdMap = new IdentityHashMap<AgeRelation, Integer>();
+
+  private Collection<AgeClass> customClasses = new LinkedHashSet<AgeClass>();
+  private Collection<AgeAttributeClass> customAttrClasses = new LinkedHashSet<AgeAttributeClass>();
+  private Collection<AgeRelationClass> customRelClasses = new LinkedHashSet<AgeRelationClass>();
+
+  ByteBuffer[] getBuffers()
+  {
+   return new ByteBuffer[]{ head.getBuffer(), body.getBuffer() };
+  }
+
+  void writeSubmission( Submission s )
+  {
+   Collection<? extends AgeObject> objects = s.getObjects();
+
+   int n=0;
+   for( AgeObject obj : objects )
+   {
+    objOrdMap.put(obj, n++);
+
+    if( obj.getRelations() != null )
+    {
+     int k = 0;
+     for( AgeRelation rl : obj.getRelations() )
+      relOrdMap.put(rl, k++);
+    }
+
+    collectClasses(obj);
+   }
+
+   putString( s.getId() );
+   putString( s.getDescription() );
+
+   body.putVarInt( customClasses.size() );
+
+   for( AgeClass cls : customClasses )
+   {
+    putString( cls.getName() );
+    putString( cls.getId() );
+    putString( cls.getIdPrefix() );
+
+    Collection<AgeClass> supers = cls.getSuperClasses();
+
+    if( supers == null )
+     body.putVarInt(0);
+    else
+    {
+     body.putVarInt(supers.size());
+
+     for( AgeClass sup : supers )
+      putClassRef(sup);
+    }
+   }
+
+   body.putVarInt( customAttrClasses.size() );
+
+   for( AgeAttributeClass acls : customAttrClasses )
+   {
+    putClassRef( acls.getOwningClass() );
+    putString( acls.getName() );
+    putString( acls.getId() );
+    body.putVarInt( acls.getDataType().ordinal() );
+    putClassRef( acls.getTargetClass() );
+
+    Collection<AgeAttributeClass> supers = acls.getSuperClasses();
+
+    if( supers == null )
+     body.putVarInt(0);
+    else
+    {
+     body.putVarInt(supers.size());
+
+     for( AgeAttributeClass sup : supers )
+      putAttributeClassRef(sup);
+    }
+   }
+
+   body.putVarInt( customRelClasses.size() );
+
+   for( AgeRelationClass rcls : customRelClasses )
+   {
+    putString( rcls.getName() );
+    putString( rcls.getId() );
+    putString( rcls.getInverseRelationClass().getId() );
+    putClassRef( rcls.getRange().iterator().next() );
+    putClassRef( rcls.getDomain().iterator().next() );
+
+    Collection<AgeRelationClass> supers = rcls.getSuperClasses();
+
+    if( supers == null )
+     body.putVarInt(0);
+    else
+    {
+     body.putVarInt(supers.size());
+
+     for( AgeRelationClass sup : supers )
+      putRelationClassRef(sup);
+    }
+   }
+
+   body.putVarInt( objects.size() );
+
+   for( AgeObject obj : objects )
+   {
+    putString( obj.getId() );
+    putString( obj.getOriginalId() );
+    putClassRef( obj.getAgeElClass() );
+    body.putSignedVarInt( obj.getOrder() );
+   }
+
+   for( AgeObject obj : objects )
+   {
+    putAttributes( obj );
+
+    Collection<? extends AgeRelation> rels = obj.getRelations();
+
+    if( rels == null )
+    {
+     body.putVarInt(0);
+     continue;
+    }
+
+    body.putVarInt(rels.size());
+
+    for( AgeRelation rl : rels )
+     putRelation(rl);
+   }
+
+   head.putBytes(MAGIC);
+   head.putByte(VERSION);
+
+   head.putVarInt( strings.size() );
+
+   for( String str : strings )
+   {
+    byte[] bts = str.getBytes(UTF8);
+
+    head.putVarInt(bts.length);
+    head.putBytes(bts);
+   }
+  }
+
+  private void putRelation( AgeRelation rl )
+  {
+   Integer tgOrd = rl.getTargetObject() != null? objOrdMap.get(rl.getTargetObject()) : null;
+
+   if( rl instanceof AgeExternalRelation || tgOrd == null )
+   {
+    body.putByte(REL_EXTERNAL);
+    putRelationClassRef(rl.getAgeElClass());
+    body.putSignedVarInt(rl.getOrder());
+    body.putByte(rl.isInferred()?1:0);
+
+    if( rl instanceof AgeExternalRelation )
+     putString( ((AgeExternalRelation)rl).getTargetObjectId() );
+    else
+     putString( rl.getTargetObject().getId() );
+   }
+   else
+   {
+    body.putByte(REL_INTERNAL);
+    putRelationClassRef(rl.getAgeElClass());
+    body.putSignedVarInt(rl.getOrder());
+    body.putByte(rl.isInferred()?1:0);
+
+    body.putVarInt(tgOrd);
+
+    Integer invOrd = rl.getInverseRelation() != null ? relOrdMap.get(rl.getInverseRelation()) : null;
+
+    body.putVarInt( invOrd == null ? 0 : invOrd+1 );
+   }
+
+   putAttributes(rl);
+  }
+
+  private void putAttributes( Attributed host )
+  {
+   Collection<? extends AgeAttribute> attrs = host.getAttributes();
+
+   if( attrs == null )
+   {
+    body.putVarInt(0);
+    return;
+   }
+
+   body.putVarInt(attrs.size());
+
+   for( AgeAttribute attr : attrs )
+   {
+    putAttributeClassRef( attr.getAgeElClass() );
+    body.putSignedVarInt( attr.getOrder() );
+
+    if( attr instanceof AgeExternalObjectAttributeWritable )
+    {
+     body.putByte(VAL_EXTOBJECT);
+     putString( ((AgeExternalObjectAttributeWritable)attr).getTargetObjectId() );
+    }
+    else if( attr instanceof AgeObjectAttributeWritable )
+    {
+     AgeObject tgObj = ((AgeObjectAttributeWritable)attr).getValue();
+
+     if( tgObj == null )
+      body.putByte(VAL_NULL);
+     else
+     {
+      Integer ord = objOrdMap.get(tgObj);
+
+      if( ord != null )
+      {
+       body.putByte(VAL_OBJECT);
+       body.putVarInt(ord);
+      }
+      else
+      {
+       body.putByte(VAL_EXTOBJECT);
+       putString( tgObj.getId() );
+      }
+     }
+    }
+    else
+    {
+     DataType type = attr.getAgeElClass().getDataType();
+
+     if( type == DataType.INTEGER )
+     {
+      body.putByte(VAL_INT);
+      body.putSignedVarInt( attr.getValueAsInteger() );
+     }
+     else if( type == DataType.REAL )
+     {
+      body.putByte(VAL_REAL);
+      body.putDouble( attr.getValueAsDouble() );
+     }
+     else if( type == DataType.BOOLEAN )
+     {
+      body.putByte(VAL_BOOL);
+      body.putByte( attr.getValueAsBoolean()?1:0 );
+     }
+     else if( attr.getValue() == null )
+      body.putByte(VAL_NULL);
+     else
+     {
+      body.putByte(VAL_STRING);
+      putString( attr.getValue().toString() );
+     }
+    }
+
+    putAttributes(attr);
+   }
+  }
+
+  private void putString( String str )
+  {
+   if( str == null )
+   {
+    body.putVarInt(0);
+    return;
+   }
+
+   Integer idx = strMap.get(str);
+
+   if( idx == null )
+   {
+    idx = strings.size();
+    strings.add(str);
+    strMap.put(str, idx);
+   }
+
+   body.putVarInt(idx+1);
+  }
+
+  private void putClassRef( AgeClass cls )
+  {
+   if( cls == null )
+    body.putByte(REF_NULL);
+   else if( cls.isCustom() )
+   {
+    body.putByte(REF_CUSTOM);
+    putString(cls.getName());
+   }
+   else
+   {
+    body.putByte(REF_DEFINED);
+    putString(cls.getId());
+   }
+  }
+
+  private void putAttributeClassRef( AgeAttributeClass cls )
+  {
+   if( cls == null )
+    body.putByte(REF_NULL);
+   else if( cls.isCustom() )
+   {
+    body.putByte(REF_CUSTOM);
+    putClassRef(cls.getOwningClass());
+    putString(cls.getName());
+   }
+   else
+   {
+    body.putByte(REF_DEFINED);
+    putString(cls.getId());
+   }
+  }
+
+  private void putRelationClassRef( AgeRelationClass cls )
+  {
+   if( cls == null )
+    body.putByte(REF_NULL);
+   else if( cls.isImplicit() )
+   {
+    AgeRelationClass inv = cls.getInverseRelationClass();
+
+    if( inv.isCustom() )
+    {
+     body.putByte(REF_CUSTOM_INVERSE);
+     putString(inv.getName());
+    }
+    else
+    {
+     body.putByte(REF_DEFINED_INVERSE);
+     putString(inv.getId());
+    }
+   }
+   else if( cls.isCustom() )
+   {
+    body.putByte(REF_CUSTOM);
+    putString(cls.getName());
+   }
+   else
+   {
+    body.putByte(REF_DEFINED);
+    putString(cls.getId());
+   }
+  }
+
+  private void collectClasses( Attributed host )
+  {
+   if( host instanceof AgeObject )
+    collectClass( ((AgeObject)host).getAgeElClass() );
+
+   if( host.getAttributes() != null )
+   {
+    for( AgeAttribute attr : host.getAttributes() )
+    {
+     collectAttributeClass( attr.getAgeElClass() );
+     collectClasses( attr );
+    }
+   }
+
+   if( host instanceof AgeObject && ((AgeObject)host).getRelations() != null )
+   {
+    for( AgeRelation rl : ((AgeObject)host).getRelations() )
+    {
+     collectRelationClass( rl.getAgeElClass() );
+     collectClasses( rl );
+    }
+   }
+  }
+
+  // Dependencies go first so the reader can resolve them in one pass
+  private void collectClass( AgeClass cls )
+  {
+   if( cls == null || ! cls.isCustom() || customClasses.contains(cls) )
+    return;
+
+   if( cls.getSuperClasses() != null )
+   {
+    for( AgeClass sup : cls.getSuperClasses() )
+     if( sup != cls )
+      collectClass( sup );
+   }
+
+   customClasses.add(cls);
+  }
+
+  private void collectAttributeClass( AgeAttributeClass cls )
+  {
+   if( cls == null || ! cls.isCustom() || customAttrClasses.contains(cls) )
+    return;
+
+   collectClass( cls.getOwningClass() );
+   collectClass( cls.getTargetClass() );
+
+   if( cls.getSuperClasses() != null )
+   {
+    for( AgeAttributeClass sup : cls.getSuperClasses() )
+     if( sup != cls )
+      collectAttributeClass( sup );
+   }
+
+   customAttrClasses.add(cls);
+  }
+
+  private void collectRelationClass( AgeRelationClass cls )
+  {
+   if( cls == null )
+    return;
+
+   if( cls.isImplicit() )
+    cls = cls.getInverseRelationClass();
+
+   if( ! cls.isCustom() || customRelClasses.contains(cls) )
+    return;
+
+   for( AgeClass c : cls.getRange() )
+    collectClass( c );
+
+   for( AgeClass c : cls.getDomain() )
+    collectClass( c );
+
+   if( cls.getSuperClasses() != null )
+   {
+    for( AgeRelationClass sup : cls.getSuperClasses() )
+     if( sup != cls )
+      collectRelationClass( sup );
+   }
+
+   customRelClasses.add(cls);
+  }
+ }
+
+ private static class Reader
+ {
+  private ByteBuffer buf;
+  private String[] strings;
+
+  private ContextSemanticModel model;
+  private AgeObjectWritable[] objects;
+
+  private List<PendingInverse> pendingInv = new ArrayList<PendingInverse>();
+
+  Reader( ByteBuffer b )
+  {
+   buf = b;
+  }
+
+  SubmissionWritable readSubmission() throws IOException
+  {
+   for( int i=0; i < MAGIC.length; i++ )
+    buf.get();
+
+   int ver = buf.get();
+
+   if( ver > VERSION )
+    throw new IOException("Unsupported submission format version: "+ver);
+
+   int n = getVarInt();
+
+   strings = new String[n];
+
+   for( int i=0; i < n; i++ )
+   {
+    byte[] bts = new byte[getVarInt()];
+    buf.get(bts);
+
+    strings[i] = new String(bts, UTF8);
+   }
+
+   model = SemanticManager.getInstance().getContextModel(null);
+
+   SubmissionWritable sbm = model.createSubmission();
+
+   sbm.setId( getString() );
+   sbm.setDescription( getString() );
+
+   n = getVarInt();
+
+   for( int i=0; i < n; i++ )
+   {
+    String name = getString();
+    String id = ver > 1 ? getString() : null;
+    String pfx = getString();
+
+    int nSup = getVarInt();
+
+    AgeClassWritable cls = model.getOrCreateCustomAgeClass(name, pfx, nSup > 0 ? getClassRef() : null );
+
+    if( id != null )
+     cls.setId(id);
+
+    for( int j=1; j < nSup; j++ )
+     cls.addSuperClass( (AgeClassWritable)getClassRef() );
+   }
+
+   n = getVarInt();
+
+   for( int i=0; i < n; i++ )
+   {
+    AgeClass owner = getClassRef();
+    String name = getString();
+    String id = ver > 1 ? getString() : null;
+    DataType type = DataType.values()[getVarInt()];
+    AgeClass target = getClassRef();
+
+    int nSup = getVarInt();
+
+    AgeAttributeClassWritable acls = model.getOrCreateCustomAgeAttributeClass(name, type, owner, nSup > 0 ? (AgeAttributeClassWritable)getAttributeClassRef() : null );
+
+    for( int j=1; j < nSup; j++ )
+     acls.addSuperClass( (AgeAttributeClassWritable)getAttributeClassRef() );
+
+    if( target != null )
+     acls.setTargetClass(target);
+
+    if( id != null )
+     acls.setId(id);
+   }
+
+   n = getVarInt();
+
+   for( int i=0; i < n; i++ )
+   {
+    String name = getString();
+    String id = ver > 1 ? getString() : null;
+    String invId = ver > 1 ? getString() : null;
+    AgeClass range = getClassRef();
+    AgeClass owner = getClassRef();
+
+    int nSup = getVarInt();
+
+    AgeRelationClassWritable rcls = model.getOrCreateCustomAgeRelationClass(name, range, owner, nSup > 0 ? getRelationClassRef() : null );
+
+    for( int j=1; j < nSup; j++ )
+     rcls.addSuperClass( (AgeRelationClassWritable)getRelationClassRef() );
+
+    if( id != null )
+    {
+     rcls.setId(id);
+     ((AgeRelationClassWritable)rcls.getInverseRelationClass()).setId(invId);
+    }
+   }
+
+   n = getVarInt();
+
+   objects = new AgeObjectWritable[n];
+
+   for( int i=0; i < n; i++ )
+   {
+    String id = getString();
+    String origId = getString();
+
+    AgeObjectWritable obj = model.createAgeObject(id, getClassRef());
+
+    obj.setOriginalId(origId);
+    obj.setOrder( getSignedVarInt() );
+
+    objects[i] = obj;
+   }
+
+   for( AgeObjectWritable obj : objects )
+   {
+    getAttributes(obj);
+
+    int nRel = getVarInt();
+
+    for( int i=0; i < nRel; i++ )
+     getRelation(obj);
+   }
+
+   for( PendingInverse pi : pendingInv )
+   {
+    AgeRelationWritable inv = null;
+    int k=0;
+
+    for( AgeRelationWritable rl : pi.relation.getTargetObject().getRelations() )
+    {
+     if( k++ == pi.inverseOrder )
+     {
+      inv = rl;
+      break;
+     }
+    }
+
+    pi.relation.setInverseRelation(inv);
+   }
+
+   for( AgeObjectWritable obj : objects )
+   {
+    obj.setSubmission(sbm);
+    sbm.addObject(obj);
+   }
+
+   return sbm;
+  }
+
+  private void getRelation( AgeObjectWritable obj )
+  {
+   int kind = buf.get();
+
+   AgeRelationClass rcls = getRelationClassRef();
+   int order = getSignedVarInt();
+   boolean inferred = buf.get() != 0;
+
+   AgeRelationWritable rel = null;
+
+   if( kind == REL_EXTERNAL )
+    rel = obj.createExternalRelation(getString(), rcls);
+   else
+   {
+    rel = obj.createRelation(objects[getVarInt()], rcls);
+
+    int invOrd = getVarInt();
+
+    if( invOrd > 0 )
+     pendingInv.add( new PendingInverse(rel, invOrd-1) );
+   }
+
+   rel.setOrder(order);
+   rel.setInferred(inferred);
+
+   getAttributes(rel);
+  }
+
+  private void getAttributes( AttributedWritable host )
+  {
+   int n = getVarInt();
+
+   for( int i=0; i < n; i++ )
+   {
+    AgeAttributeClass acls = getAttributeClassRef();
+    int order = getSignedVarInt();
+
+    int tag = buf.get();
+
+    AgeAttributeWritable attr = null;
+
+    if( tag == VAL_EXTOBJECT )
+     attr = host.createExternalObjectAttribute(getString(), acls);
+    else
+    {
+     attr = host.createAgeAttribute(acls);
+
+     switch( tag )
+     {
+      case VAL_INT:
+       attr.setIntValue( getSignedVarInt() );
+       break;
+      case VAL_REAL:
+       attr.setDoubleValue( buf.getDouble() );
+       break;
+      case VAL_BOOL:
+       attr.setBooleanValue( buf.get() != 0 );
+       break;
+      case VAL_STRING:
+       attr.setValue( StringDictionary.getInstance().internValue( getString() ) );
+       break;
+      case VAL_OBJECT:
+       attr.setValue( objects[getVarInt()] );
+       break;
+     }
+    }
+
+    attr.setOrder(order);
+
+    getAttributes(attr);
+   }
+  }
+
+  private AgeClass getClassRef()
+  {
+   int kind = buf.get();
+
+   if( kind == REF_NULL )
+    return null;
+
+   String key = getString();
+
+   if( kind == REF_CUSTOM )
+    return model.getCustomAgeClass(key);
+
+   return model.getDefinedAgeClassById(key);
+  }
+
+  private AgeAttributeClass getAttributeClassRef()
+  {
+   int kind = buf.get();
+
+   if( kind == REF_NULL )
+    return null;
+
+   if( kind == REF_CUSTOM )
+   {
+    AgeClass owner = getClassRef();
+    return model.getCustomAgeAttributeClass(getString(), owner);
+   }
+
+   return model.getDefinedAgeAttributeClassById(getString());
+  }
+
+  private AgeRelationClass getRelationClassRef()
+  {
+   int kind = buf.get();
+
+   if( kind == REF_NULL )
+    return null;
+
+   String key = getString();
+
+   switch( kind )
+   {
+    case REF_CUSTOM:
+     return model.getCustomAgeRelationClass(key);
+    case REF_CUSTOM_INVERSE:
+     return model.getCustomAgeRelationClass(key).getInverseRelationClass();
+    case REF_DEFINED_INVERSE:
+     return model.getDefinedAgeRelationClassById(key).getInverseRelationClass();
+   }
+
+   return model.getDefinedAgeRelationClassById(key);
+  }
+
+  private String getString()
+  {
+   int idx = getVarInt();
+
+   if( idx == 0 )
+    return null;
+
+   return strings[idx-1];
+  }
+
+  private int getVarInt()
+  {
+   int v = 0;
+   int shift = 0;
+
+   while( true )
+   {
+    byte b = buf.get();
+
+    v |= (b & 0x7F) << shift;
+
+    if( (b & 0x80) == 0 )
+     return v;
+
+    shift += 7;
+   }
+  }
+
+  private int getSignedVarInt()
+  {
+   int v = getVarInt();
+
+   return (v >>> 1) ^ -(v & 1);
+  }
+ }
+
+ private static class PendingInverse
+ {
+  AgeRelationWritable relation;
+  int inverseOrder;
+
+  PendingInverse(AgeRelationWritable rel, int ord)
+  {
+   relation = rel;
+   inverseOrder = ord;
+  }
+ }
+}
@@ -1,51 +1,173 @@
 package uk.ac.ebi.age.storage.impl;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
-import org.apache.lucene.index.CorruptIndexException;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.index.TermEnum;
 import org.apache.lucene.queryParser.ParseException;
 import org.apache.lucene.queryParser.QueryParser;
 import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.FieldCache;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.LockObtainFailedException;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.MMapDirectory;
 import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Constants;
 import org.apache.lucene.util.Version;
 
 import uk.ac.ebi.age.model.AgeObject;
 import uk.ac.ebi.age.query.AgeQuery;
+import uk.ac.ebi.age.storage.DataChangeListener;
 import uk.ac.ebi.age.storage.TextIndex;
+import uk.ac.ebi.age.storage.TextSearchResult;
+import uk.ac.ebi.age.storage.exeption.IndexIOException;
 import uk.ac.ebi.age.storage.index.TextFieldExtractor;
+import uk.ac.ebi.age.util.LRUCache;
 
-public class LuceneFullTextIndex implements TextIndex
+public class LuceneFullTextIndex implements TextIndex, DataChangeListener
 {
+ private Log log = LogFactory.getLog(this.getClass());
+ 
 // private static final String AGEOBJECTFIELD="AgeObject";
+ private static final String ID_FIELD="__AgeObjectId";
+ private static final String SORT_FIELD_PREFIX="__sort_";
+ 
+ private static final int QUERY_CACHE_SIZE=256;
+ private static final int COUNT_CACHE_SIZE=1024;
+
  private String defaultFieldName;
  
- private Directory index = new RAMDirectory();
+ private Directory index;
  private StandardAnalyzer analyzer = new StandardAnalyzer(Version.LUCENE_30);
  
- private List<AgeObject> objectList;
+ private Map<String, AgeObject> objectMap = new ConcurrentHashMap<String, AgeObject>();
  
  private AgeQuery query;
  private Collection<TextFieldExtractor> extractors;
  
+ private IndexWriter iWriter;
+ private IndexSearcher searcher;
+ private volatile boolean changed = false;
+ private long generation = 0;
+ 
+ private Map<String, Query> queryCache = new LRUCache<String, Query>(QUERY_CACHE_SIZE);
+ private Map<String, Integer> countCache = new LRUCache<String, Integer>(COUNT_CACHE_SIZE);
+ 
  public LuceneFullTextIndex(AgeQuery qury, Collection<TextFieldExtractor> exts)
+ {
+  this(qury, exts, new RAMDirectory(), true);
+ }
+
+ // On-disk index. If 'create' is false the existing index is reopened and restore() has to be called
+ public LuceneFullTextIndex(AgeQuery qury, Collection<TextFieldExtractor> exts, File dir, boolean create) throws IOException
+ {
+  this(qury, exts, Constants.JRE_IS_64BIT? new MMapDirectory(dir) : FSDirectory.open(dir), create);
+ }
+ 
+ private LuceneFullTextIndex(AgeQuery qury, Collection<TextFieldExtractor> exts, Directory dir, boolean create)
  {
   query=qury;
   extractors=exts;
+  index=dir;
+  
+  defaultFieldName = extractors.iterator().next().getName();
+  
+  try
+  {
+   iWriter = new IndexWriter(index, analyzer, create, IndexWriter.MaxFieldLength.UNLIMITED);
+   searcher = new IndexSearcher( iWriter.getReader() );
+  }
+  catch(IOException e)
+  {
+   throw new RuntimeException("Can't create index: "+e.getMessage(), e);
+  }
  }
 
+ // The searcher is shared by concurrent searches and is replaced by a reopened one after the index changes.
+ // Callers must release it with releaseSearcher()
+ private synchronized IndexSearcher acquireSearcher() throws IOException
+ {
+  refresh();
+  
+  searcher.getIndexReader().incRef();
+  
+  return searcher;
+ }
+ 
+ private void releaseSearcher( IndexSearcher s ) throws IOException
+ {
+  s.getIndexReader().decRef();
+ }
+ 
+ private synchronized void refresh() throws IOException
+ {
+  if( ! changed )
+   return;
+  
+  changed = false;
+  
+  IndexReader old = searcher.getIndexReader();
+  IndexReader nr = old.reopen();
+   
+  if( nr != old )
+  {
+   searcher = new IndexSearcher(nr);
+   old.decRef();
+  }
+  
+  countCache.clear();
+  generation++;
+ }
+ 
+ // QueryParser is not thread safe so a new one is created for each parse
+ private Query parseQuery( String query ) throws ParseException
+ {
+  synchronized(queryCache)
+  {
+   Query q = queryCache.get(query);
+   
+   if( q != null )
+    return q;
+  }
+  
+  Query q = new QueryParser( Version.LUCENE_30, defaultFieldName, analyzer).parse(query);
+  
+  synchronized(queryCache)
+  {
+   queryCache.put(query, q);
+  }
+  
+  return q;
+ }
+ 
+ @Override
+ public synchronized void dataChanged()
+ {
+  countCache.clear();
+  generation++;
+ }
  
 // public void index(List<AgeObject> aol, Collection<TextFieldExtractor> extf)
 // {
@@ -87,102 +209,198 @@ public class LuceneFullTextIndex implements TextIndex
  
  public List<AgeObject> getIndexedObjects()
  {
-  return objectList;
+  return new ArrayList<AgeObject>( objectMap.values() );
  }
  
- public int count(String query)
+ public int count(String query) throws IndexIOException
  {
   
   Query q;
   try
   {
-   q = new QueryParser( Version.LUCENE_30, defaultFieldName, analyzer).parse(query);
-
-   final IndexSearcher searcher = new IndexSearcher(index, true);
+   IndexSearcher srch = null;
+   long gen = 0;
+   
+   synchronized(this)
+   {
+    refresh();
+    
+    Integer cnt = countCache.get(query);
+    
+    if( cnt != null )
+     return cnt;
+    
+    srch = acquireSearcher();
+    gen = generation;
+   }
    
-   CountCollector cc = new CountCollector();
-   searcher.search(q,cc);
+   try
+   {
+    q = parseQuery(query);
+
+    CountCollector cc = new CountCollector();
+    srch.search(q,cc);
    
-   return cc.getCount();
+    synchronized(this)
+    {
+     if( gen == generation )
+      countCache.put(query, cc.getCount());
+    }
+    
+    return cc.getCount();
+   }
+   finally
+   {
+    releaseSearcher(srch);
+   }
   }
   catch(ParseException e)
   {
-   // TODO Auto-generated catch block
-   e.printStackTrace();
+   throw new IndexIOException("Can't parse query: "+e.getMessage(), e);
   }
   catch(IOException e)
   {
-   // TODO Auto-generated catch block
-   e.printStackTrace();
+   throw new IndexIOException("Index search failed: "+e.getMessage(), e);
   }
-
-  
-  //ScoreDoc[] hits = collector.topDocs().scoreDocs;
-  
-  return -1;
  }
 
  
- public List<AgeObject> select(String query)
+ public List<AgeObject> select(String query) throws IndexIOException
  {
   final List<AgeObject> res = new ArrayList<AgeObject>();
   
   Query q;
   try
   {
-   q = new QueryParser( Version.LUCENE_30, defaultFieldName, analyzer).parse(query);
+   q = parseQuery(query);
 
-   final IndexSearcher searcher = new IndexSearcher(index, true);
+   IndexSearcher srch = acquireSearcher();
    
-   //TopScoreDocCollector collector = TopScoreDocCollector.create(hitsPerPage, true);
-   searcher.search(q, new Collector()
+   try
    {
-    int base;
-    
-    @Override
-    public void setScorer(Scorer arg0) throws IOException
+    //TopScoreDocCollector collector = TopScoreDocCollector.create(hitsPerPage, true);
+    srch.search(q, new Collector()
     {
-    }
+     String[] ids;
     
-    @Override
-    public void setNextReader(IndexReader arg0, int arg1) throws IOException
-    {
-//     System.out.println("Next Reader: "+arg1);
-     base=arg1;
-    }
+     @Override
+     public void setScorer(Scorer arg0) throws IOException
+     {
+     }
+    
+     @Override
+     public void setNextReader(IndexReader segReader, int base) throws IOException
+     {
+      ids = FieldCache.DEFAULT.getStrings(segReader, ID_FIELD);
+     }
+    
+     @Override
+     public void collect(int docId) throws IOException
+     {
+      AgeObject obj = objectMap.get( ids[docId] );
+      
+      if( obj != null )
+       res.add( obj );
+     }
+    
+     @Override
+     public boolean acceptsDocsOutOfOrder()
+     {
+      return false;
+     }
+    });
+   }
+   finally
+   {
+    releaseSearcher(srch);
+   }
+  }
+  catch(ParseException e)
+  {
+   throw new IndexIOException("Can't parse query: "+e.getMessage(), e);
+  }
+  catch(IOException e)
+  {
+   throw new IndexIOException("Index search failed: "+e.getMessage(), e);
+  }
+  
+  return res;
+ }
+
+ // Only the top offset+limit documents are collected by Lucene
+ @Override
+ public TextSearchResult select(String query, String sortField, int offset, int limit) throws IndexIOException
+ {
+  List<AgeObject> res = new ArrayList<AgeObject>();
+  
+  if( offset < 0 || limit <= 0 )
+   return new TextSearchResult(res, 0);
+
+  try
+  {
+   Query q = parseQuery(query);
+
+   IndexSearcher srch = acquireSearcher();
+   
+   try
+   {
+    // offset+limit may overflow
+    int n = Math.max(1, (int)Math.min((long)offset+limit, srch.maxDoc()));
+    
+    TopDocs top = null;
+    
+    if( sortField == null )
+     top = srch.search(q, n);
+    else
+     top = srch.search(q, null, n, new Sort(new SortField(SORT_FIELD_PREFIX+sortField, SortField.STRING)));
+    
+    ScoreDoc[] hits = top.scoreDocs;
     
-    @Override
-    public void collect(int docId) throws IOException
+    IndexReader[] subs = srch.getIndexReader().getSequentialSubReaders();
+    
+    if( subs == null )
+     subs = new IndexReader[]{ srch.getIndexReader() };
+    
+    int[] starts = new int[subs.length];
+    
+    for( int i=1; i < subs.length; i++ )
+     starts[i] = starts[i-1]+subs[i-1].maxDoc();
+    
+    for( int i=offset; i < hits.length; i++ )
     {
-     int ind = docId+base;
+     int sub = Arrays.binarySearch(starts, hits[i].doc);
+     
+     if( sub < 0 )
+      sub = -sub-2;
+     else
+     {
+      while( sub < subs.length-1 && starts[sub+1] == starts[sub] )
+       sub++;
+     }
+     
+     String id = FieldCache.DEFAULT.getStrings(subs[sub], ID_FIELD)[hits[i].doc-starts[sub]];
      
-//     System.out.println("Found doc: "+ind+". Object: "+objectList.get(ind).getId()+". Class: "+objectList.get(ind).getAgeElClass().getName() );
+     AgeObject obj = objectMap.get(id);
      
-     res.add( objectList.get(ind) );
+     if( obj != null )
+      res.add(obj);
     }
     
-    @Override
-    public boolean acceptsDocsOutOfOrder()
-    {
-     return false;
-    }
-   });
+    return new TextSearchResult(res, top.totalHits);
+   }
+   finally
+   {
+    releaseSearcher(srch);
+   }
   }
   catch(ParseException e)
   {
-   // TODO Auto-generated catch block
-   e.printStackTrace();
+   throw new IndexIOException("Can't parse query: "+e.getMessage(), e);
   }
   catch(IOException e)
   {
-   // TODO Auto-generated catch block
-   e.printStackTrace();
+   throw new IndexIOException("Index search failed: "+e.getMessage(), e);
   }
-
-  
-  //ScoreDoc[] hits = collector.topDocs().scoreDocs;
-  
-  return res;
  }
 
  @Override
@@ -191,73 +409,180 @@ public class LuceneFullTextIndex implements TextIndex
   return query;
  }
 
+ // Adds new objects or replaces the documents of objects that are already indexed
  @Override
- public void index(List<AgeObject> aol)
+ public void index(List<AgeObject> aol) throws IndexIOException
  {
   try
   {
-   IndexWriter iWriter = new IndexWriter(index, analyzer, objectList == null,
-     IndexWriter.MaxFieldLength.UNLIMITED);
-
-   if( objectList == null )
-    objectList=aol;
-   else
-    objectList.addAll(aol);
-   
    for(AgeObject ao : aol )
    {
     Document doc = new Document();
     
+    doc.add(new Field(ID_FIELD, ao.getId(), Field.Store.NO, Field.Index.NOT_ANALYZED_NO_NORMS));
+    
     for(TextFieldExtractor tfe : extractors )
-     doc.add(new Field(tfe.getName(), tfe.getExtractor().getValue(ao), Field.Store.NO, Field.Index.ANALYZED));
+    {
+     String val = tfe.getExtractor().getValue(ao);
+     
+     doc.add(new Field(tfe.getName(), val, Field.Store.NO, Field.Index.ANALYZED));
+     doc.add(new Field(SORT_FIELD_PREFIX+tfe.getName(), val, Field.Store.NO, Field.Index.NOT_ANALYZED_NO_NORMS));
+    }
     
-    iWriter.addDocument(doc);
+    objectMap.put(ao.getId(), ao);
+    
+    iWriter.updateDocument(new Term(ID_FIELD, ao.getId()), doc);
    }
+  }
+  catch(IOException e)
+  {
+   throw new IndexIOException("Can't update index: "+e.getMessage(), e);
+  }
+  finally
+  {
+   // Documents written before a failure are visible too
+   changed = true;
+  }
+ }
 
-   iWriter.close();
+ @Override
+ public void remove(Collection<? extends AgeObject> aol) throws IndexIOException
+ {
+  try
+  {
+   for(AgeObject ao : aol )
+   {
+    if( objectMap.remove(ao.getId()) != null )
+     iWriter.deleteDocuments(new Term(ID_FIELD, ao.getId()));
+   }
+  }
+  catch(IOException e)
+  {
+   throw new IndexIOException("Can't update index: "+e.getMessage(), e);
+  }
+  finally
+  {
+   changed = true;
+  }
+ }
+
+ // Binds the documents of a reopened index to the objects. Documents of missing objects are deleted
+ @Override
+ public void restore(Map<String, ? extends AgeObject> objects) throws IndexIOException
+ {
+  try
+  {
+   List<Term> stale = new ArrayList<Term>();
+   
+   IndexReader rd = iWriter.getReader();
+   
+   try
+   {
+    TermEnum te = rd.terms( new Term(ID_FIELD, "") );
+    TermDocs td = rd.termDocs();
+    
+    try
+    {
+     do
+     {
+      Term t = te.term();
+      
+      if( t == null || ! ID_FIELD.equals(t.field()) )
+       break;
+      
+      td.seek(t);
+      
+      if( ! td.next() )
+       continue;
+      
+      AgeObject obj = objects.get(t.text());
+      
+      if( obj == null )
+       stale.add(t);
+      else
+       objectMap.put(t.text(), obj);
+     }
+     while( te.next() );
+    }
+    finally
+    {
+     td.close();
+     te.close();
+    }
+   }
+   finally
+   {
+    rd.close();
+   }
    
-   defaultFieldName = extractors.iterator().next().getName();
+   if( stale.size() > 0 )
+   {
+    iWriter.deleteDocuments(stale.toArray(new Term[stale.size()]));
+    changed = true;
+   }
   }
-  catch(CorruptIndexException e)
+  catch(IOException e)
   {
-   // TODO Auto-generated catch block
-   e.printStackTrace();
+   throw new IndexIOException("Can't restore index: "+e.getMessage(), e);
+  }
+ }
+ 
+ @Override
+ public void commit() throws IndexIOException
+ {
+  try
+  {
+   iWriter.commit();
   }
   catch(IOException e)
   {
-   // TODO Auto-generated catch block
-   e.printStackTrace();
+   throw new IndexIOException("Can't commit index: "+e.getMessage(), e);
   }
-  
  }
 
-
  @Override
- public void reset()
+ public void reset() throws IndexIOException
  {
   try
   {
-   IndexWriter iWriter = new IndexWriter(index, analyzer, true,
-     IndexWriter.MaxFieldLength.UNLIMITED);
-   iWriter.close();
+   iWriter.deleteAll();
+   objectMap.clear();
+   
+   changed = true;
+  }
+  catch(IOException e)
+  {
+   throw new IndexIOException("Can't reset index: "+e.getMessage(), e);
+  }
+ }
 
-   objectList=null;
+ // The writer is closed even if the reader can't be, otherwise the index directory stays locked
+ @Override
+ public synchronized void close() throws IndexIOException
+ {
+  IOException failure = null;
+  
+  try
+  {
+   searcher.getIndexReader().decRef();
   }
-  catch(CorruptIndexException e)
+  catch(IOException e)
   {
-   // TODO Auto-generated catch block
-   e.printStackTrace();
+   log.warn("Can't close index reader: "+e.getMessage(), e);
+   failure = e;
   }
-  catch(LockObtainFailedException e)
+  
+  try
   {
-   // TODO Auto-generated catch block
-   e.printStackTrace();
+   iWriter.close();
   }
   catch(IOException e)
   {
-   // TODO Auto-generated catch block
-   e.printStackTrace();
+   failure = e;
   }
+  
+  if( failure != null )
+   throw new IndexIOException("Can't close index: "+failure.getMessage(), failure);
  }
 
  private static class CountCollector extends Collector
@@ -1,40 +1,60 @@
 package uk.ac.ebi.age.storage.impl;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.nio.channels.FileChannel;
 
 import uk.ac.ebi.age.model.Submission;
 import uk.ac.ebi.age.model.writable.SubmissionWritable;
 import uk.ac.ebi.age.storage.SubmissionReaderWriter;
+import uk.ac.ebi.age.util.ByteBufferInputStream;
 
 public class SerializedSubmissionReaderWriter implements SubmissionReaderWriter
 {
+ private static final long MAP_THRESHOLD = 64*1024;
 
  @Override
  public SubmissionWritable read(File f) throws IOException, ClassNotFoundException
  {
-  ObjectInputStream ois = new ObjectInputStream( new FileInputStream(f) );
-  
-  SubmissionWritable submission = (SubmissionWritable)ois.readObject();
-  
-  ois.close();
-  
-  return submission;
+  FileInputStream fis = new FileInputStream(f);
+
+  try
+  {
+   InputStream is = null;
+
+   if( f.length() > MAP_THRESHOLD )
+   {
+    FileChannel chnl = fis.getChannel();
+    is = new ByteBufferInputStream( chnl.map(FileChannel.MapMode.READ_ONLY, 0, chnl.size()) );
+   }
+   else
+    is = new BufferedInputStream(fis);
+
+   ObjectInputStream ois = new ObjectInputStream( is );
+
+   return (SubmissionWritable)ois.readObject();
+  }
+  finally
+  {
+   fis.close();
+  }
  }
 
  @Override
  public void write(Submission s, File f) throws IOException
  {
   FileOutputStream fileOut = new FileOutputStream(f);
-  
+
   ObjectOutputStream oos = new ObjectOutputStream( fileOut );
-  
+
   oos.writeObject(s);
-  
+
   oos.close();
  }
 
@@ -0,0 +1,183 @@
+package uk.ac.ebi.age.storage.impl.ser;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+import uk.ac.ebi.age.model.AgeAttribute;
+import uk.ac.ebi.age.model.AgeAttributeClass;
+import uk.ac.ebi.age.model.AgeObject;
+import uk.ac.ebi.age.model.DataType;
+import uk.ac.ebi.age.query.AttributeEqualsExpression;
+import uk.ac.ebi.age.query.AttributeExpression;
+import uk.ac.ebi.age.query.AttributePrefixExpression;
+import uk.ac.ebi.age.query.AttributeRangeExpression;
+import uk.ac.ebi.age.query.ClassNameExpression.ClassType;
+import uk.ac.ebi.age.query.QueryExpression;
+
+// Sorted value indexes of object attributes. Buckets are selected by the attribute class data type
+class AttributeIndex
+{
+ private Map<String, IntValueIndex> definedIntMap = new HashMap<String, IntValueIndex>();
+ private Map<String, IntValueIndex> customIntMap = new HashMap<String, IntValueIndex>();
+
+ private Map<String, RealValueIndex> definedRealMap = new HashMap<String, RealValueIndex>();
+ private Map<String, RealValueIndex> customRealMap = new HashMap<String, RealValueIndex>();
+
+ private Map<String, StringValueIndex> definedStringMap = new HashMap<String, StringValueIndex>();
+ private Map<String, StringValueIndex> customStringMap = new HashMap<String, StringValueIndex>();
+
+ void clear()
+ {
+  definedIntMap.clear();
+  customIntMap.clear();
+  definedRealMap.clear();
+  customRealMap.clear();
+  definedStringMap.clear();
+  customStringMap.clear();
+ }
+
+ void addObjects( Collection<? extends AgeObject> objs )
+ {
+  for( AgeObject obj : objs )
+  {
+   if( obj.getAttributes() == null )
+    continue;
+   
+   for( AgeAttribute attr : obj.getAttributes() )
+   {
+    AgeAttributeClass cls = attr.getAgeElClass();
+    DataType dt = cls.getDataType();
+    
+    if( dt == DataType.INTEGER )
+    {
+     Map<String, IntValueIndex> map = cls.isCustom()?customIntMap:definedIntMap;
+     
+     IntValueIndex idx = map.get(cls.getName());
+     
+     if( idx == null )
+      map.put(cls.getName(), idx = new IntValueIndex() );
+     
+     idx.add(attr.getValueAsInteger(), obj);
+    }
+    else if( dt == DataType.REAL )
+    {
+     Map<String, RealValueIndex> map = cls.isCustom()?customRealMap:definedRealMap;
+     
+     RealValueIndex idx = map.get(cls.getName());
+     
+     if( idx == null )
+      map.put(cls.getName(), idx = new RealValueIndex() );
+     
+     idx.add(attr.getValueAsDouble(), obj);
+    }
+    else
+    {
+     Object val = attr.getValue();
+     
+     if( ! (val instanceof String) )
+      continue;
+     
+     Map<String, StringValueIndex> map = cls.isCustom()?customStringMap:definedStringMap;
+     
+     StringValueIndex idx = map.get(cls.getName());
+     
+     if( idx == null )
+      map.put(cls.getName(), idx = new StringValueIndex() );
+     
+     idx.add((String)val, obj);
+    }
+   }
+  }
+ }
+ 
+ // Returns null if the expression is not an attribute expression
+ Collection<AgeObject> select( QueryExpression expr )
+ {
+  if( ! ( expr instanceof AttributeExpression ) )
+   return null;
+  
+  AttributeExpression aexp = (AttributeExpression)expr;
+  
+  boolean def = aexp.getClassType() != ClassType.CUSTOM;
+  boolean cust = aexp.getClassType() != ClassType.DEFINED;
+  String name = aexp.getAttributeName();
+  
+  Collection<AgeObject> res = new LinkedHashSet<AgeObject>();
+
+  if( expr instanceof AttributeRangeExpression )
+  {
+   AttributeRangeExpression rexp = (AttributeRangeExpression)expr;
+   
+   double min = rexp.getMin() != null ? rexp.getMin() : Double.NEGATIVE_INFINITY;
+   double max = rexp.getMax() != null ? rexp.getMax() : Double.POSITIVE_INFINITY;
+   
+   boolean minIncl = rexp.getMin() == null || rexp.isMinInclusive();
+   boolean maxIncl = rexp.getMax() == null || rexp.isMaxInclusive();
+   
+   long lo = minIncl? (long)Math.ceil(min) : (long)Math.floor(min)+1;
+   long hi = maxIncl? (long)Math.floor(max) : (long)Math.ceil(max)-1;
+   
+   if( def )
+    selectRange(definedIntMap.get(name), definedRealMap.get(name), lo, hi, min, minIncl, max, maxIncl, res);
+
+   if( cust )
+    selectRange(customIntMap.get(name), customRealMap.get(name), lo, hi, min, minIncl, max, maxIncl, res);
+  }
+  else if( expr instanceof AttributePrefixExpression )
+  {
+   String pfx = ((AttributePrefixExpression)expr).getPrefix();
+   
+   if( pfx == null )
+    return res;
+   
+   if( def && definedStringMap.get(name) != null )
+    definedStringMap.get(name).selectPrefix(pfx, res);
+   
+   if( cust && customStringMap.get(name) != null )
+    customStringMap.get(name).selectPrefix(pfx, res);
+  }
+  else if( expr instanceof AttributeEqualsExpression )
+  {
+   Object val = ((AttributeEqualsExpression)expr).getValue();
+   
+   if( val == null )
+    return res;
+   
+   if( val instanceof Number )
+   {
+    double dv = ((Number)val).doubleValue();
+    
+    if( def )
+     selectRange(definedIntMap.get(name), definedRealMap.get(name), (long)Math.ceil(dv), (long)Math.floor(dv), dv, true, dv, true, res);
+
+    if( cust )
+     selectRange(customIntMap.get(name), customRealMap.get(name), (long)Math.ceil(dv), (long)Math.floor(dv), dv, true, dv, true, res);
+   }
+   else
+   {
+    String sv = val.toString();
+    
+    if( def && definedStringMap.get(name) != null )
+     definedStringMap.get(name).selectEqual(sv, res);
+    
+    if( cust && customStringMap.get(name) != null )
+     customStringMap.get(name).selectEqual(sv, res);
+   }
+  }
+  else
+   return null;
+  
+  return res;
+ }
+ 
+ private void selectRange( IntValueIndex iidx, RealValueIndex ridx, long lo, long hi, double min, boolean minIncl, double max, boolean maxIncl, Collection<AgeObject> res )
+ {
+  if( iidx != null )
+   iidx.selectRange(lo, hi, res);
+  
+  if( ridx != null )
+   ridx.selectRange(min, minIncl, max, maxIncl, res);
+ }
+}
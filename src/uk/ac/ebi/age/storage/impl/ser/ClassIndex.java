@@ -0,0 +1,97 @@
+package uk.ac.ebi.age.storage.impl.ser;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import uk.ac.ebi.age.model.AgeClass;
+import uk.ac.ebi.age.model.AgeObject;
+import uk.ac.ebi.age.query.ClassNameExpression;
+import uk.ac.ebi.age.query.ClassNameExpression.ClassType;
+
+class ClassIndex
+{
+ private Map<String, List<AgeObject>> definedMap = new HashMap<String, List<AgeObject>>();
+ private Map<String, List<AgeObject>> customMap = new HashMap<String, List<AgeObject>>();
+
+ private Map<String, List<AgeObject>> definedClosureMap = new HashMap<String, List<AgeObject>>();
+ private Map<String, List<AgeObject>> customClosureMap = new HashMap<String, List<AgeObject>>();
+
+ void clear()
+ {
+  definedMap.clear();
+  customMap.clear();
+  definedClosureMap.clear();
+  customClosureMap.clear();
+ }
+
+ void addObjects( Collection<? extends AgeObject> objs )
+ {
+  Set<AgeClass> visited = new HashSet<AgeClass>();
+
+  for( AgeObject obj : objs )
+  {
+   AgeClass cls = obj.getAgeElClass();
+
+   addToBucket( cls.isCustom()?customMap:definedMap, cls.getName(), obj );
+
+   visited.clear();
+   addToClosure(cls, obj, visited);
+  }
+ }
+
+ private void addToClosure( AgeClass cls, AgeObject obj, Set<AgeClass> visited )
+ {
+  if( cls == null || ! visited.add(cls) )
+   return;
+
+  addToBucket( cls.isCustom()?customClosureMap:definedClosureMap, cls.getName(), obj );
+
+  if( cls.getSuperClasses() != null )
+  {
+   for( AgeClass sup : cls.getSuperClasses() )
+    addToClosure(sup, obj, visited);
+  }
+ }
+
+ private void addToBucket( Map<String, List<AgeObject>> map, String name, AgeObject obj )
+ {
+  List<AgeObject> lst = map.get(name);
+
+  if( lst == null )
+   map.put(name, lst = new ArrayList<AgeObject>() );
+
+  lst.add(obj);
+ }
+
+ Collection<AgeObject> lookup( ClassNameExpression expr )
+ {
+  ClassType type = expr.getClassType();
+
+  Map<String, List<AgeObject>> defMap = expr.isWithSubclasses()? definedClosureMap : definedMap;
+  Map<String, List<AgeObject>> custMap = expr.isWithSubclasses()? customClosureMap : customMap;
+
+  List<AgeObject> defs = type != ClassType.CUSTOM ? defMap.get(expr.getClassName()) : null;
+  List<AgeObject> custs = type != ClassType.DEFINED ? custMap.get(expr.getClassName()) : null;
+
+  if( defs == null && custs == null )
+   return Collections.emptyList();
+
+  if( custs == null )
+   return defs;
+
+  if( defs == null )
+   return custs;
+
+  Collection<AgeObject> res = new LinkedHashSet<AgeObject>(defs);
+  res.addAll(custs);
+
+  return res;
+ }
+}
@@ -0,0 +1,18 @@
+package uk.ac.ebi.age.storage.impl.ser;
+
+import uk.ac.ebi.age.model.impl.v1.ColumnarAttributeStore;
+import uk.ac.ebi.age.model.writable.SubmissionWritable;
+
+/*
+ * SerializedStorage keeping the plain object attributes of every submission in a ColumnarAttributeStore.
+ * Attribute objects are created only when the attributes are accessed, which makes large stores considerably
+ * smaller at the cost of some garbage on reads. Objects are inflated back if they are modified.
+ */
+public class CompactSerializedStorage extends SerializedStorage
+{
+ @Override
+ protected void prepareSubmission( SubmissionWritable sbm )
+ {
+  ColumnarAttributeStore.compact(sbm);
+ }
+}
@@ -18,21 +18,44 @@ public class InMemoryQueryProcessor implements Iterable<AgeObject>, Iterator<Age
  private CondIterator objItr = new CondIterator();
  
  public InMemoryQueryProcessor(AgeQuery qury, Collection<? extends Submission> roots)
+ {
+  this(qury, roots, 0);
+ }
+
+ // Starts from the object 'skipObjects' of the first submission
+ public InMemoryQueryProcessor(AgeQuery qury, Collection<? extends Submission> roots, int skipObjects)
  {
   query = qury;
   
   if( roots.size() == 0 )
   {
    submsItr = EmptyIterator.<Submission> getInstance();
-   objItr.setObjIterator(EmptyIterator.<AgeObject>getInstance());
+   objItr.setObjIterator(null, EmptyIterator.<AgeObject>getInstance());
   }
   else
   {
    submsItr = roots.iterator();
-   objItr.setObjIterator(submsItr.next().getObjects().iterator());
+   
+   Submission first = submsItr.next();
+   
+   objItr.setObjIterator(first, first.getObjects().iterator());
+   
+   objItr.skip(skipObjects);
   }
  }
 
+ // Submission of the object last returned by next()
+ public Submission getCurrentSubmission()
+ {
+  return objItr.submission;
+ }
+ 
+ // Position within the current submission right after the object last returned by next()
+ public int getNextObjectIndex()
+ {
+  return objItr.position;
+ }
+
  public Iterator<AgeObject> iterator()
  {
   return this;
@@ -45,7 +68,9 @@ public class InMemoryQueryProcessor implements Iterable<AgeObject>, Iterator<Age
   
   while( submsItr.hasNext() )
   {
-   objItr.setObjIterator(submsItr.next().getObjects().iterator());
+   Submission s = submsItr.next();
+   
+   objItr.setObjIterator(s, s.getObjects().iterator());
 
    if( objItr.hasNext() )
     return true;
@@ -75,13 +100,27 @@ public class InMemoryQueryProcessor implements Iterable<AgeObject>, Iterator<Age
  {
   private Iterator<? extends AgeObject> objItr;
   private AgeObject prepObj;
+  
+  private Submission submission;
+  private int position;
  
   CondIterator()
   {}
   
-  void setObjIterator( Iterator<? extends AgeObject> oi )
+  void setObjIterator( Submission s, Iterator<? extends AgeObject> oi )
   {
+   submission = s;
    objItr = oi;
+   position = 0;
+  }
+  
+  void skip( int n )
+  {
+   while( position < n && objItr.hasNext() )
+   {
+    objItr.next();
+    position++;
+   }
   }
 
   public boolean hasNext()
@@ -95,6 +134,7 @@ public class InMemoryQueryProcessor implements Iterable<AgeObject>, Iterator<Age
    while( objItr.hasNext() )
    {
     prepObj = objItr.next();
+    position++;
     
     if( testQueryConditions( prepObj ) )
      return true; 
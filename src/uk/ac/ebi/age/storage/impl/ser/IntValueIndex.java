@@ -0,0 +1,90 @@
+package uk.ac.ebi.age.storage.impl.ser;
+
+import java.util.Collection;
+
+import uk.ac.ebi.age.model.AgeObject;
+
+class IntValueIndex extends SortedValueIndex
+{
+ private int[] values = new int[16];
+
+ void add( int v, AgeObject obj )
+ {
+  int i = append(obj);
+  
+  values[i] = v;
+ }
+ 
+ // Collects objects with values within [lo,hi]
+ void selectRange( long lo, long hi, Collection<AgeObject> res )
+ {
+  if( lo > hi )
+   return;
+  
+  ensureSorted();
+  
+  collect( lowerBound(lo), upperBound(hi), res );
+ }
+ 
+ private int lowerBound( long key )
+ {
+  int l=0, h=size;
+  
+  while( l < h )
+  {
+   int m = (l+h) >>> 1;
+   
+   if( values[m] < key )
+    l = m+1;
+   else
+    h = m;
+  }
+  
+  return l;
+ }
+
+ private int upperBound( long key )
+ {
+  int l=0, h=size;
+  
+  while( l < h )
+  {
+   int m = (l+h) >>> 1;
+   
+   if( values[m] <= key )
+    l = m+1;
+   else
+    h = m;
+  }
+  
+  return l;
+ }
+
+ @Override
+ protected int compare(int i, int j)
+ {
+  return values[i] < values[j] ? -1 : ( values[i] == values[j] ? 0 : 1 );
+ }
+
+ @Override
+ protected void swapValues(int i, int j)
+ {
+  int t = values[i];
+  values[i] = values[j];
+  values[j] = t;
+ }
+
+ @Override
+ protected void moveValue(int from, int to)
+ {
+  values[to] = values[from];
+ }
+
+ @Override
+ protected void resizeValues(int cap)
+ {
+  int[] nv = new int[cap];
+  System.arraycopy(values, 0, nv, 0, size);
+  values = nv;
+ }
+}
@@ -0,0 +1,196 @@
+package uk.ac.ebi.age.storage.impl.ser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * File mapped into memory in chunks of CHUNK_SIZE bytes. The mapping grows on demand (ensureCapacity), so the file
+ * length is always a multiple of CHUNK_SIZE; the length of the data is up to the user. Any value may cross a chunk
+ * boundary, such values are read and written byte by byte. Reads are safe for concurrent threads, writes must be
+ * exclusive.
+ */
+class MappedFile
+{
+ private static final int CHUNK_BITS = 24;
+ static final long CHUNK_SIZE = 1L << CHUNK_BITS;
+ private static final int CHUNK_MASK = (int)(CHUNK_SIZE-1);
+
+ private File file;
+ private RandomAccessFile raf;
+ private FileChannel channel;
+
+ private List<MappedByteBuffer> chunks = new ArrayList<MappedByteBuffer>();
+
+ MappedFile( File f ) throws IOException
+ {
+  file = f;
+  raf = new RandomAccessFile(f, "rw");
+  channel = raf.getChannel();
+
+  ensureCapacity( channel.size() );
+ }
+
+ File getFile()
+ {
+  return file;
+ }
+
+ void ensureCapacity( long cap ) throws IOException
+ {
+  while( (long)chunks.size() << CHUNK_BITS < cap )
+   chunks.add( channel.map(FileChannel.MapMode.READ_WRITE, (long)chunks.size() << CHUNK_BITS, CHUNK_SIZE) );
+ }
+
+ private MappedByteBuffer chunk( long pos )
+ {
+  return chunks.get( (int)(pos >>> CHUNK_BITS) );
+ }
+
+ private static boolean crossesChunk( long pos, int len )
+ {
+  return ( (int)pos & CHUNK_MASK ) + len > CHUNK_SIZE;
+ }
+
+ int getInt( long pos )
+ {
+  if( ! crossesChunk(pos, 4) )
+   return chunk(pos).getInt( (int)pos & CHUNK_MASK );
+
+  return (int)getBytes(pos, 4);
+ }
+
+ long getLong( long pos )
+ {
+  if( ! crossesChunk(pos, 8) )
+   return chunk(pos).getLong( (int)pos & CHUNK_MASK );
+
+  return getBytes(pos, 8);
+ }
+
+ void putInt( long pos, int v )
+ {
+  if( ! crossesChunk(pos, 4) )
+   chunk(pos).putInt( (int)pos & CHUNK_MASK, v );
+  else
+   putBytes(pos, v, 4);
+ }
+
+ void putLong( long pos, long v )
+ {
+  if( ! crossesChunk(pos, 8) )
+   chunk(pos).putLong( (int)pos & CHUNK_MASK, v );
+  else
+   putBytes(pos, v, 8);
+ }
+
+ // Big-endian like ByteBuffer's own accessors
+ private long getBytes( long pos, int len )
+ {
+  long v = 0;
+
+  for( int i=0; i < len; i++ )
+   v = (v << 8) | ( chunk(pos+i).get( (int)(pos+i) & CHUNK_MASK ) & 0xFF );
+
+  return v;
+ }
+
+ private void putBytes( long pos, long v, int len )
+ {
+  for( int i=len-1; i >= 0; i-- )
+  {
+   chunk(pos+i).put( (int)(pos+i) & CHUNK_MASK, (byte)v );
+   v >>>= 8;
+  }
+ }
+
+ void get( long pos, byte[] dst, int off, int len )
+ {
+  while( len > 0 )
+  {
+   ByteBuffer b = chunk(pos).duplicate();
+   b.position( (int)pos & CHUNK_MASK );
+
+   int n = Math.min(len, b.remaining());
+   b.get(dst, off, n);
+
+   pos += n;
+   off += n;
+   len -= n;
+  }
+ }
+
+ void put( long pos, ByteBuffer src )
+ {
+  src = src.duplicate();
+
+  while( src.hasRemaining() )
+  {
+   ByteBuffer b = chunk(pos).duplicate();
+   b.position( (int)pos & CHUNK_MASK );
+
+   int n = Math.min(src.remaining(), b.remaining());
+
+   ByteBuffer part = src.duplicate();
+   part.limit( part.position()+n );
+
+   b.put(part);
+
+   src.position( src.position()+n );
+   pos += n;
+  }
+ }
+
+ // The mapped range itself if it lies within a chunk, a copy otherwise
+ ByteBuffer slice( long pos, int len )
+ {
+  int off = (int)pos & CHUNK_MASK;
+
+  if( off+len <= CHUNK_SIZE )
+  {
+   ByteBuffer b = chunk(pos).duplicate();
+   b.position(off);
+   b.limit(off+len);
+
+   return b.slice();
+  }
+
+  byte[] bts = new byte[len];
+  get(pos, bts, 0, len);
+
+  return ByteBuffer.wrap(bts);
+ }
+
+ void force()
+ {
+  for( MappedByteBuffer b : chunks )
+   b.force();
+ }
+
+ void force( long from, long to )
+ {
+  for( long pos = from & ~(long)CHUNK_MASK; pos < to; pos += CHUNK_SIZE )
+   chunk(pos).force();
+ }
+
+ void clear( long from, long to )
+ {
+  for( long pos = from; pos < to; pos += 8 )
+   putLong(pos, 0);
+ }
+
+ void close() throws IOException
+ {
+  force();
+
+  chunks.clear();
+
+  channel.close();
+  raf.close();
+ }
+}
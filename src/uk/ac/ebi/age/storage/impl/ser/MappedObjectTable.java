@@ -0,0 +1,289 @@
+package uk.ac.ebi.age.storage.impl.ser;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Off-heap object tables of MappedStorage:
+ *
+ *  objects.map  header, then 32 byte object records: long submission record offset, long ID offset,
+ *               long first inverse relation record (+1, 0 - none), int position within submission, int ID hash
+ *  ids.map      object IDs: int length, UTF-8 bytes
+ *  hash.map     open addressing hash table of int object record numbers (+1, 0 - empty slot)
+ *  inverse.map  16 byte records: long source object record number, long next record of the list (+1, 0 - end)
+ *
+ * Objects are numbered in the order they are stored, so the objects of a submission occupy consecutive records.
+ * The tables are derived from the submission file and aren't forced on commit. The header flag "clean" is set
+ * by close() only, the storage rebuilds the tables if it finds the flag cleared.
+ */
+class MappedObjectTable
+{
+ private static final int MAGIC = 0x41474F54;
+ private static final int VERSION = 1;
+
+ private static final Charset UTF8 = Charset.forName("UTF-8");
+
+ private static final int HEADER_SIZE = 64;
+ private static final int OBJECT_SIZE = 32;
+ private static final int INVERSE_SIZE = 16;
+ private static final int INITIAL_HASH_CAPACITY = 1024;
+
+ private static final int H_MAGIC = 0;
+ private static final int H_VERSION = 4;
+ private static final int H_DATA_LENGTH = 8;
+ private static final int H_OBJECTS = 16;
+ private static final int H_IDS_LENGTH = 24;
+ private static final int H_INVERSE = 32;
+ private static final int H_HASH_CAPACITY = 40;
+ private static final int H_CLEAN = 44;
+
+ private static final int O_SUBMISSION = 0;
+ private static final int O_ID = 8;
+ private static final int O_INVERSE = 16;
+ private static final int O_POSITION = 24;
+ private static final int O_HASH = 28;
+
+ private MappedFile objects;
+ private MappedFile ids;
+ private MappedFile hash;
+ private MappedFile inverse;
+
+ private long dataLength;
+ private long objectCount;
+ private long idsLength;
+ private long inverseCount;
+ private int hashCapacity;
+
+ MappedObjectTable( File dir ) throws IOException
+ {
+  objects = new MappedFile( new File(dir, "objects.map") );
+  ids = new MappedFile( new File(dir, "ids.map") );
+  hash = new MappedFile( new File(dir, "hash.map") );
+  inverse = new MappedFile( new File(dir, "inverse.map") );
+ }
+
+ /*
+  * Returns false if the tables weren't closed properly. They are empty then and have to be refilled
+  */
+ boolean open() throws IOException
+ {
+  objects.ensureCapacity(HEADER_SIZE);
+
+  boolean clean = objects.getInt(H_MAGIC) == MAGIC && objects.getInt(H_VERSION) == VERSION && objects.getInt(H_CLEAN) == 1;
+
+  if( clean )
+  {
+   dataLength = objects.getLong(H_DATA_LENGTH);
+   objectCount = objects.getLong(H_OBJECTS);
+   idsLength = objects.getLong(H_IDS_LENGTH);
+   inverseCount = objects.getLong(H_INVERSE);
+   hashCapacity = objects.getInt(H_HASH_CAPACITY);
+  }
+  else
+  {
+   dataLength = 0;
+   objectCount = 0;
+   idsLength = 0;
+   inverseCount = 0;
+   hashCapacity = INITIAL_HASH_CAPACITY;
+
+   hash.ensureCapacity(hashCapacity*4L);
+   hash.clear(0, hashCapacity*4L);
+  }
+
+  writeHeader(false);
+  objects.force(0, HEADER_SIZE);
+
+  return clean;
+ }
+
+ void close() throws IOException
+ {
+  ids.close();
+  hash.close();
+  inverse.close();
+
+  writeHeader(true);
+  objects.close();
+ }
+
+ private void writeHeader( boolean clean )
+ {
+  objects.putInt(H_MAGIC, MAGIC);
+  objects.putInt(H_VERSION, VERSION);
+  objects.putLong(H_DATA_LENGTH, dataLength);
+  objects.putLong(H_OBJECTS, objectCount);
+  objects.putLong(H_IDS_LENGTH, idsLength);
+  objects.putLong(H_INVERSE, inverseCount);
+  objects.putInt(H_HASH_CAPACITY, hashCapacity);
+  objects.putInt(H_CLEAN, clean ? 1 : 0);
+ }
+
+ // Length of the submission file part the tables describe
+ long getDataLength()
+ {
+  return dataLength;
+ }
+
+ void setDataLength( long len )
+ {
+  dataLength = len;
+ }
+
+ long getObjectCount()
+ {
+  return objectCount;
+ }
+
+ long addObject( String id, long sbmOffset, int pos ) throws IOException
+ {
+  byte[] idb = id.getBytes(UTF8);
+
+  ids.ensureCapacity(idsLength+4+idb.length);
+  ids.putInt(idsLength, idb.length);
+  ids.put(idsLength+4, ByteBuffer.wrap(idb));
+
+  long n = objectCount;
+  long rec = HEADER_SIZE+n*OBJECT_SIZE;
+
+  objects.ensureCapacity(rec+OBJECT_SIZE);
+  objects.putLong(rec+O_SUBMISSION, sbmOffset);
+  objects.putLong(rec+O_ID, idsLength);
+  objects.putLong(rec+O_INVERSE, 0);
+  objects.putInt(rec+O_POSITION, pos);
+  objects.putInt(rec+O_HASH, id.hashCode());
+
+  idsLength += 4+idb.length;
+  objectCount++;
+
+  if( objectCount*2 > hashCapacity )
+   rehash(hashCapacity*2);
+  else
+   insert(n, id);
+
+  return n;
+ }
+
+ private void rehash( int cap ) throws IOException
+ {
+  hashCapacity = cap;
+
+  hash.ensureCapacity(cap*4L);
+  hash.clear(0, cap*4L);
+
+  for( long i=0; i < objectCount; i++ )
+   insert(i, getId(i));
+ }
+
+ // A later object with the same ID replaces the earlier one
+ private void insert( long n, String id )
+ {
+  int h = id.hashCode();
+  int slot = spread(h) & (hashCapacity-1);
+
+  while( true )
+  {
+   int v = hash.getInt(slot*4L);
+
+   if( v == 0 || ( getHash(v-1) == h && getId(v-1).equals(id) ) )
+   {
+    hash.putInt(slot*4L, (int)(n+1));
+    return;
+   }
+
+   slot = (slot+1) & (hashCapacity-1);
+  }
+ }
+
+ // Object record number or -1
+ long find( String id )
+ {
+  int h = id.hashCode();
+  int slot = spread(h) & (hashCapacity-1);
+
+  while( true )
+  {
+   int v = hash.getInt(slot*4L);
+
+   if( v == 0 )
+    return -1;
+
+   if( getHash(v-1) == h && getId(v-1).equals(id) )
+    return v-1;
+
+   slot = (slot+1) & (hashCapacity-1);
+  }
+ }
+
+ private static int spread( int h )
+ {
+  h ^= h >>> 16;
+  h *= 0x85EBCA6B;
+  return h ^ (h >>> 13);
+ }
+
+ private int getHash( long n )
+ {
+  return objects.getInt(HEADER_SIZE+n*OBJECT_SIZE+O_HASH);
+ }
+
+ String getId( long n )
+ {
+  long off = objects.getLong(HEADER_SIZE+n*OBJECT_SIZE+O_ID);
+
+  byte[] idb = new byte[ ids.getInt(off) ];
+  ids.get(off+4, idb, 0, idb.length);
+
+  return new String(idb, UTF8);
+ }
+
+ long getSubmissionOffset( long n )
+ {
+  return objects.getLong(HEADER_SIZE+n*OBJECT_SIZE+O_SUBMISSION);
+ }
+
+ int getPosition( long n )
+ {
+  return objects.getInt(HEADER_SIZE+n*OBJECT_SIZE+O_POSITION);
+ }
+
+ // Records that object 'source' has an external relation to object 'target'
+ void addInverse( long target, long source ) throws IOException
+ {
+  long rec = inverseCount*INVERSE_SIZE;
+  long head = HEADER_SIZE+target*OBJECT_SIZE+O_INVERSE;
+
+  inverse.ensureCapacity(rec+INVERSE_SIZE);
+  inverse.putLong(rec, source);
+  inverse.putLong(rec+8, objects.getLong(head));
+
+  inverseCount++;
+
+  objects.putLong(head, inverseCount);
+ }
+
+ List<Long> getInverseSources( long n )
+ {
+  List<Long> res = null;
+
+  long next = objects.getLong(HEADER_SIZE+n*OBJECT_SIZE+O_INVERSE);
+
+  while( next != 0 )
+  {
+   long rec = (next-1)*INVERSE_SIZE;
+
+   if( res == null )
+    res = new ArrayList<Long>(3);
+
+   res.add( inverse.getLong(rec) );
+
+   next = inverse.getLong(rec+8);
+  }
+
+  return res;
+ }
+}
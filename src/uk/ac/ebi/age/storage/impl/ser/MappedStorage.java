@@ -0,0 +1,1223 @@
+package uk.ac.ebi.age.storage.impl.ser;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import uk.ac.ebi.age.log.LogNode;
+import uk.ac.ebi.age.log.LogNode.Level;
+import uk.ac.ebi.age.log.impl.BufferLogger;
+import uk.ac.ebi.age.mng.SemanticManager;
+import uk.ac.ebi.age.mng.SubmissionManager;
+import uk.ac.ebi.age.model.AgeAttribute;
+import uk.ac.ebi.age.model.AgeObject;
+import uk.ac.ebi.age.model.AgeRelation;
+import uk.ac.ebi.age.model.AgeRelationClass;
+import uk.ac.ebi.age.model.Attributed;
+import uk.ac.ebi.age.model.ObjectResolver;
+import uk.ac.ebi.age.model.SemanticModel;
+import uk.ac.ebi.age.model.Submission;
+import uk.ac.ebi.age.model.writable.AgeExternalObjectAttributeWritable;
+import uk.ac.ebi.age.model.writable.AgeExternalRelationWritable;
+import uk.ac.ebi.age.model.writable.AgeObjectWritable;
+import uk.ac.ebi.age.model.writable.AgeRelationWritable;
+import uk.ac.ebi.age.model.writable.SubmissionWritable;
+import uk.ac.ebi.age.query.AgeQuery;
+import uk.ac.ebi.age.service.IdGenerator;
+import uk.ac.ebi.age.storage.AgeStorageAdm;
+import uk.ac.ebi.age.storage.DataChangeListener;
+import uk.ac.ebi.age.storage.IndexFactory;
+import uk.ac.ebi.age.storage.QueryResult;
+import uk.ac.ebi.age.storage.RelationResolveException;
+import uk.ac.ebi.age.storage.TextIndex;
+import uk.ac.ebi.age.storage.TextSearchResult;
+import uk.ac.ebi.age.storage.exeption.IndexIOException;
+import uk.ac.ebi.age.storage.exeption.ModelStoreException;
+import uk.ac.ebi.age.storage.exeption.StorageInstantiationException;
+import uk.ac.ebi.age.storage.exeption.SubmissionStoreException;
+import uk.ac.ebi.age.storage.impl.AgeStorageIndex;
+import uk.ac.ebi.age.storage.impl.BinarySubmissionReaderWriter;
+import uk.ac.ebi.age.storage.index.AgeIndex;
+import uk.ac.ebi.age.storage.index.TextFieldExtractor;
+import uk.ac.ebi.age.validator.AgeSemanticValidator;
+
+/*
+ * Storage keeping the data in memory-mapped files instead of the Java heap, so the amount of data is limited by
+ * the disk rather than by the heap size. Submissions are appended in the binary format to the submission file:
+ *
+ *  int record length, long number of the first object record, int ID length, ID (UTF-8), submission data, long CRC32
+ *
+ * Objects, their IDs and inverse relation lists are kept in the fixed-width tables of MappedObjectTable.
+ * A submission is decoded only when one of its objects is accessed and stays in a soft reference cache, so the
+ * heap holds the working set only. Relations and object attributes pointing to other submissions don't reference
+ * their targets but look them up by ID on access, so decoding one submission never pulls in others and a cached
+ * submission stays reachable exactly as long as one of its objects is in use. Startup reads just the record
+ * headers; if the storage wasn't shut down properly the tables are rebuilt from the submission file.
+ * Queries are executed by scanning: class and attribute indices would bring the whole graph back to the heap.
+ */
+public class MappedStorage implements AgeStorageAdm
+{
+ private Log log = LogFactory.getLog(this.getClass());
+
+ static final String mappedPath = "mapped";
+ static final String submissionFileName = "submissions.map";
+
+ private static final Charset UTF8 = Charset.forName("UTF-8");
+
+ // record length, first object, ID length, CRC
+ private static final int RECORD_OVERHEAD = 4+8+4+8;
+
+ private File modelFile;
+ private File indexDir;
+
+ private MappedFile sbmFile;
+ private MappedObjectTable objTable;
+
+ // Submission ID -> record offset
+ private SortedMap<String, Long> submissionMap = new TreeMap<String, Long>();
+
+ private Map<Long, CacheRef> cache = new HashMap<Long, CacheRef>();
+ private ReferenceQueue<SubmissionWritable> cacheQueue = new ReferenceQueue<SubmissionWritable>();
+
+ private Map<AgeIndex,AgeStorageIndex> indexMap = new HashMap<AgeIndex,AgeStorageIndex>();
+
+ private SemanticModel model;
+
+ private ReentrantReadWriteLock dbLock = new ReentrantReadWriteLock();
+
+ private BinarySubmissionReaderWriter submRW = new BinarySubmissionReaderWriter();
+
+ private volatile long dataVersion = 0;
+
+ private Collection<DataChangeListener> chgListeners = new ArrayList<DataChangeListener>(3);
+
+ private boolean master = false;
+
+ /*
+  * The objects refer to their submission, so the reference is cleared only when none of them is in use
+  * and decoding again never makes a second copy of a live object
+  */
+ private static class CacheRef extends SoftReference<SubmissionWritable>
+ {
+  long offset;
+
+  // external references and inverse relations are set up
+  boolean connected;
+
+  CacheRef( long off, SubmissionWritable sbm, ReferenceQueue<SubmissionWritable> q )
+  {
+   super(sbm, q);
+
+   offset = off;
+  }
+ }
+
+ private ObjectResolver resolver = new ObjectResolver()
+ {
+  @Override
+  public AgeObjectWritable resolveObject(String id)
+  {
+   try
+   {
+    dbLock.readLock().lock();
+
+    return findObject(id);
+   }
+   finally
+   {
+    dbLock.readLock().unlock();
+   }
+  }
+ };
+
+ public MappedStorage()
+ {
+ }
+
+ public SemanticModel getSemanticModel()
+ {
+  return model;
+ }
+
+ public void setMaster( boolean m )
+ {
+  master=m;
+ }
+
+ public void init(String initStr) throws StorageInstantiationException
+ {
+  File baseDir = new File( initStr );
+
+  if( baseDir.isFile() )
+   throw new StorageInstantiationException("The initial path must be directory: "+initStr);
+
+  File modelDir = new File( baseDir, SerializedStorage.modelPath );
+  File dataDir = new File( baseDir, mappedPath );
+
+  modelFile = new File(modelDir, SerializedStorage.modelFileName );
+  indexDir = new File( baseDir, SerializedStorage.indexPath );
+
+  if( ! modelDir.exists() )
+   modelDir.mkdirs();
+
+  if( ! dataDir.exists() )
+   dataDir.mkdirs();
+
+  if( modelFile.canRead() )
+   model = SerializedStorage.readModel(modelFile);
+  else
+   model = SemanticManager.getInstance().createMasterModel();
+
+  SemanticManager.getInstance().setMasterModel( model );
+
+  try
+  {
+   dbLock.writeLock().lock();
+
+   long tm = System.currentTimeMillis();
+
+   boolean newDb = ! new File(dataDir, submissionFileName).exists();
+
+   sbmFile = new MappedFile( new File(dataDir, submissionFileName) );
+   objTable = new MappedObjectTable( dataDir );
+
+   if( objTable.open() )
+    readDirectory();
+   else
+   {
+    if( ! newDb )
+     log.warn("Storage wasn't shut down properly. Rebuilding object tables");
+
+    rebuildTables();
+   }
+
+   log.info("Submissions: "+submissionMap.size()+" objects: "+objTable.getObjectCount()+" time: "+(System.currentTimeMillis()-tm)+"ms");
+  }
+  catch(IOException e)
+  {
+   throw new StorageInstantiationException("Can't open data files: "+e.getMessage(), e);
+  }
+  finally
+  {
+   dbLock.writeLock().unlock();
+  }
+ }
+
+ private void readDirectory()
+ {
+  long off = 0;
+
+  while( off < objTable.getDataLength() )
+  {
+   submissionMap.put(getRecordId(off), off);
+
+   off += 4+sbmFile.getInt(off);
+  }
+ }
+
+ private void rebuildTables() throws IOException
+ {
+  long off = 0;
+  long len = sbmFile.getFile().length();
+
+  // Relations to objects stored later in the same batch: target ID -> source objects
+  Map<String, List<Long>> pending = new HashMap<String, List<Long>>();
+
+  while( off+4 <= len )
+  {
+   int recLen = sbmFile.getInt(off);
+
+   if( recLen < RECORD_OVERHEAD-4 || off+4+recLen > len )
+    break;
+
+   byte[] rec = new byte[recLen-8];
+   sbmFile.get(off+4, rec, 0, rec.length);
+
+   CRC32 crc = new CRC32();
+   crc.update(rec);
+
+   if( crc.getValue() != sbmFile.getLong(off+4+recLen-8) )
+   {
+    log.warn("Checksum mismatch in submission file at "+off+". Data beyond are ignored");
+    break;
+   }
+
+   SubmissionWritable sbm = readSubmission(off);
+
+   int pos = 0;
+
+   for( AgeObjectWritable obj : sbm.getObjects() )
+    objTable.addObject(obj.getId(), off, pos++);
+
+   addInverseRelations(sbm, pending);
+
+   submissionMap.put(sbm.getId(), off);
+
+   off += 4+recLen;
+  }
+
+  for( Map.Entry<String, List<Long>> me : pending.entrySet() )
+  {
+   long tgt = objTable.find(me.getKey());
+
+   if( tgt < 0 )
+    continue;
+
+   for( long src : me.getValue() )
+    objTable.addInverse(tgt, src);
+  }
+
+  objTable.setDataLength(off);
+ }
+
+ private String getRecordId( long off )
+ {
+  byte[] idb = new byte[ sbmFile.getInt(off+12) ];
+  sbmFile.get(off+16, idb, 0, idb.length);
+
+  return new String(idb, UTF8);
+ }
+
+ private SubmissionWritable readSubmission( long off ) throws IOException
+ {
+  int recLen = sbmFile.getInt(off);
+  int idLen = sbmFile.getInt(off+12);
+
+  SubmissionWritable sbm = submRW.decode( sbmFile.slice(off+16+idLen, recLen-RECORD_OVERHEAD+4-idLen) );
+
+  sbm.setMasterModel(model);
+
+  return sbm;
+ }
+
+ // Appends a record at 'off' and returns the offset of its end
+ private long writeRecord( long off, long firstObject, String id, ByteBuffer[] data ) throws IOException
+ {
+  byte[] idb = id.getBytes(UTF8);
+
+  int dataLen = 0;
+
+  for( ByteBuffer b : data )
+   dataLen += b.remaining();
+
+  int recLen = RECORD_OVERHEAD-4+idb.length+dataLen;
+
+  // 4 more bytes for the zero length marker which stops the recovery scan at the end of valid data
+  sbmFile.ensureCapacity(off+4+recLen+4);
+
+  ByteBuffer hdr = ByteBuffer.allocate(4+8+4+idb.length);
+
+  hdr.putInt(recLen);
+  hdr.putLong(firstObject);
+  hdr.putInt(idb.length);
+  hdr.put(idb);
+  hdr.flip();
+
+  CRC32 crc = new CRC32();
+  crc.update(hdr.array(), 4, hdr.limit()-4);
+
+  sbmFile.put(off, hdr);
+
+  long pos = off+hdr.limit();
+
+  for( ByteBuffer b : data )
+  {
+   if( b.hasArray() )
+    crc.update(b.array(), b.arrayOffset()+b.position(), b.remaining());
+   else
+   {
+    byte[] bts = new byte[b.remaining()];
+    b.duplicate().get(bts);
+    crc.update(bts);
+   }
+
+   sbmFile.put(pos, b);
+   pos += b.remaining();
+  }
+
+  sbmFile.putLong(pos, crc.getValue());
+  pos += 8;
+
+  sbmFile.putInt(pos, 0);
+
+  return pos;
+ }
+
+ private SubmissionWritable getCached( long off )
+ {
+  CacheRef ref = null;
+
+  while( ( ref = (CacheRef)cacheQueue.poll() ) != null )
+  {
+   if( cache.get(ref.offset) == ref )
+    cache.remove(ref.offset);
+  }
+
+  ref = cache.get(off);
+
+  return ref == null ? null : ref.get();
+ }
+
+ // Decodes the submission at 'off' (or takes it from the cache) without connecting it. Must be called under the cache lock
+ private SubmissionWritable decoded( long off )
+ {
+  SubmissionWritable sbm = getCached(off);
+
+  if( sbm != null )
+   return sbm;
+
+  try
+  {
+   sbm = readSubmission(off);
+  }
+  catch(IOException e)
+  {
+   throw new RuntimeException("Can't read submission at "+off+": "+e.getMessage(), e);
+  }
+
+  cache.put(off, new CacheRef(off, sbm, cacheQueue));
+
+  return sbm;
+ }
+
+ /*
+  * Decodes the submission at 'off' and connects it to the objects it refers to and to the objects referring to it.
+  * The targets are resolved by ID on access, so only the submissions of the objects referring to this one are decoded
+  * here (to read their relations) and they are not connected in turn.
+  */
+ private SubmissionWritable materialize( long off )
+ {
+  synchronized(cache)
+  {
+   SubmissionWritable sbm = decoded(off);
+   CacheRef ref = cache.get(off);
+
+   if( ref.connected )
+    return sbm;
+
+   ref.connected = true;
+
+   if( sbm.getExternalRelations() != null )
+   {
+    for( AgeExternalRelationWritable exr : sbm.getExternalRelations() )
+     exr.setObjectResolver(resolver);
+   }
+
+   long first = sbmFile.getLong(off+4);
+
+   int pos = 0;
+
+   for( AgeObjectWritable obj : sbm.getObjects() )
+   {
+    List<Long> srcs = objTable.getInverseSources(first+pos);
+
+    if( srcs != null )
+    {
+     Map<String, List<AgeExternalRelationWritable>> byId = externalRelationsById(obj);
+
+     for( long src : srcs )
+      connectInverseRelations(obj, objectAt( decoded( objTable.getSubmissionOffset(src) ), objTable.getPosition(src) ), byId );
+    }
+
+    connectObjectAttributes(obj);
+
+    pos++;
+   }
+
+   return sbm;
+  }
+ }
+
+ private static AgeObjectWritable objectAt( SubmissionWritable sbm, int pos )
+ {
+  Collection<AgeObjectWritable> objs = sbm.getObjects();
+
+  if( pos >= objs.size() )
+   return null;
+
+  if( objs instanceof List )
+   return ((List<AgeObjectWritable>)objs).get(pos);
+
+  for( AgeObjectWritable obj : objs )
+  {
+   if( pos-- == 0 )
+    return obj;
+  }
+
+  return null;
+ }
+
+ private AgeObjectWritable getObject( long n )
+ {
+  return objectAt( materialize( objTable.getSubmissionOffset(n) ), objTable.getPosition(n) );
+ }
+
+ private AgeObjectWritable findObject( String id )
+ {
+  long n = objTable.find(id);
+
+  if( n < 0 )
+   return null;
+
+  return getObject(n);
+ }
+
+ // Relations to objects not in the table yet are put to 'pending' if it is given
+ private void addInverseRelations( SubmissionWritable sbm, Map<String, List<Long>> pending ) throws IOException
+ {
+  if( sbm.getExternalRelations() == null )
+   return;
+
+  for( AgeExternalRelationWritable exr : sbm.getExternalRelations() )
+  {
+   long tgt = objTable.find(exr.getTargetObjectId());
+   long src = objTable.find(exr.getSourceObject().getId());
+
+   if( src < 0 )
+    continue;
+
+   if( tgt >= 0 )
+    objTable.addInverse(tgt, src);
+   else if( pending != null )
+   {
+    List<Long> srcs = pending.get(exr.getTargetObjectId());
+
+    if( srcs == null )
+     pending.put(exr.getTargetObjectId(), srcs = new ArrayList<Long>(3));
+
+    srcs.add(src);
+   }
+  }
+ }
+
+ /*
+  * Adds to tgObj the inverses of srcObj's relations to it, unless tgObj already has them. byId holds tgObj's
+  * external relations by target ID, so an object referred to by many others isn't scanned for each of them
+  */
+ private void connectInverseRelations( AgeObjectWritable tgObj, AgeObjectWritable srcObj, Map<String, List<AgeExternalRelationWritable>> byId )
+ {
+  if( srcObj == null || srcObj.getRelations() == null )
+   return;
+
+  for( AgeRelation srl : srcObj.getRelations() )
+  {
+   if( ! ( srl instanceof AgeExternalRelationWritable ) )
+    continue;
+
+   AgeExternalRelationWritable exr = (AgeExternalRelationWritable)srl;
+
+   if( ! exr.getTargetObjectId().equals(tgObj.getId()) )
+    continue;
+
+   AgeRelationClass invRCls = exr.getAgeElClass().getInverseRelationClass();
+
+   if( invRCls == null || hasRelationOfClass(byId.get(srcObj.getId()), invRCls) )
+    continue;
+
+   AgeExternalRelationWritable invRel = tgObj.getAgeElClass().getSemanticModel().createExternalRelation(tgObj, srcObj.getId(), invRCls);
+   invRel.setObjectResolver(resolver);
+   invRel.setInferred(true);
+   tgObj.addRelation(invRel);
+
+   addById(byId, invRel);
+  }
+ }
+
+ // Compares IDs only: resolving the targets here would decode their submissions
+ private static Map<String, List<AgeExternalRelationWritable>> externalRelationsById( AgeObjectWritable obj )
+ {
+  Map<String, List<AgeExternalRelationWritable>> byId = new HashMap<String, List<AgeExternalRelationWritable>>();
+
+  if( obj.getRelations() != null )
+  {
+   for( AgeRelation rl : obj.getRelations() )
+   {
+    if( rl instanceof AgeExternalRelationWritable )
+     addById(byId, (AgeExternalRelationWritable)rl);
+   }
+  }
+
+  return byId;
+ }
+
+ private static void addById( Map<String, List<AgeExternalRelationWritable>> byId, AgeExternalRelationWritable rl )
+ {
+  List<AgeExternalRelationWritable> rels = byId.get(rl.getTargetObjectId());
+
+  if( rels == null )
+   byId.put(rl.getTargetObjectId(), rels = new ArrayList<AgeExternalRelationWritable>(2));
+
+  rels.add(rl);
+ }
+
+ private static boolean hasRelationOfClass( List<AgeExternalRelationWritable> rels, AgeRelationClass cls )
+ {
+  if( rels != null )
+  {
+   for( AgeExternalRelationWritable rl : rels )
+   {
+    if( rl.getAgeElClass().isClassOrSubclass(cls) )
+     return true;
+   }
+  }
+
+  return false;
+ }
+
+ // Compares IDs only: resolving the targets here would decode their submissions
+ private static boolean hasExternalRelation( AgeObjectWritable obj, AgeRelationClass cls, String tgtId )
+ {
+  if( obj.getRelations() == null )
+   return false;
+
+  for( AgeRelation rl : obj.getRelations() )
+  {
+   if( rl instanceof AgeExternalRelationWritable && rl.getAgeElClass().isClassOrSubclass(cls)
+     && ((AgeExternalRelationWritable)rl).getTargetObjectId().equals(tgtId) )
+    return true;
+  }
+
+  return false;
+ }
+
+ private void connectObjectAttributes( Attributed host )
+ {
+  if( host.getAttributes() == null )
+   return;
+
+  for( AgeAttribute attr : host.getAttributes() )
+  {
+   if( attr instanceof AgeExternalObjectAttributeWritable )
+    ((AgeExternalObjectAttributeWritable)attr).setObjectResolver(resolver);
+
+   connectObjectAttributes(attr);
+  }
+ }
+
+ // Submissions in the order of the offsets, decoded while iterated
+ private Collection<SubmissionWritable> submissions( final Collection<Long> offsets )
+ {
+  return new AbstractCollection<SubmissionWritable>()
+  {
+   @Override
+   public Iterator<SubmissionWritable> iterator()
+   {
+    final Iterator<Long> offIter = offsets.iterator();
+
+    return new Iterator<SubmissionWritable>()
+    {
+     @Override
+     public boolean hasNext()
+     {
+      return offIter.hasNext();
+     }
+
+     @Override
+     public SubmissionWritable next()
+     {
+      return materialize(offIter.next());
+     }
+
+     @Override
+     public void remove()
+     {
+      throw new UnsupportedOperationException();
+     }
+    };
+   }
+
+   @Override
+   public int size()
+   {
+    return offsets.size();
+   }
+  };
+ }
+
+ public String storeSubmission(SubmissionWritable sbm) throws RelationResolveException, SubmissionStoreException
+ {
+  return storeSubmissions( Collections.singletonList(sbm) ).get(0);
+ }
+
+ public List<String> storeSubmissions(Collection<SubmissionWritable> sbms) throws RelationResolveException, SubmissionStoreException
+ {
+  if( ! master )
+   throw new SubmissionStoreException("Only the master instance can store data");
+
+  List<String> ids = new ArrayList<String>( sbms.size() );
+
+  try
+  {
+   dbLock.writeLock().lock();
+
+   long start = objTable.getDataLength();
+   long off = start;
+   long firstObject = objTable.getObjectCount();
+
+   List<Long> offsets = new ArrayList<Long>( sbms.size() );
+
+   for( SubmissionWritable sbm : sbms )
+   {
+    String newSubmissionId = "SBM" + IdGenerator.getInstance().getStringId();
+
+    sbm.setId(newSubmissionId);
+
+    ids.add(newSubmissionId);
+    offsets.add(off);
+
+    off = writeRecord(off, firstObject, newSubmissionId, submRW.encode(sbm));
+    
+    firstObject += sbm.getObjects().size();
+   }
+
+   // The whole batch is made durable by one force. The tables are rebuilt after a crash so they aren't forced
+   sbmFile.force(start, off+4);
+
+   int i = 0;
+
+   // All objects of the batch go first: submissions may refer to the ones stored after them
+   for( SubmissionWritable sbm : sbms )
+   {
+    long recOff = offsets.get(i++);
+
+    int pos = 0;
+
+    for( AgeObjectWritable obj : sbm.getObjects() )
+     objTable.addObject(obj.getId(), recOff, pos++);
+   }
+
+   i = 0;
+
+   for( SubmissionWritable sbm : sbms )
+   {
+    long recOff = offsets.get(i++);
+
+    addInverseRelations(sbm, null);
+
+    submissionMap.put(sbm.getId(), recOff);
+
+    // The stored submission is connected already
+    CacheRef ref = new CacheRef(recOff, sbm, cacheQueue);
+    ref.connected = true;
+
+    synchronized(cache)
+    {
+     cache.put(recOff, ref);
+    }
+   }
+
+   objTable.setDataLength(off);
+
+   updateIndices( sbms );
+
+   dataVersion++;
+
+   for(DataChangeListener chls : chgListeners )
+    chls.dataChanged();
+  }
+  catch(IOException e)
+  {
+   throw new SubmissionStoreException("Can't store submission: "+e.getMessage(), e);
+  }
+  finally
+  {
+   dbLock.writeLock().unlock();
+  }
+
+  return ids;
+ }
+
+ @Override
+ public SubmissionWritable getSubmission(String name)
+ {
+  try
+  {
+   dbLock.readLock().lock();
+
+   Long off = submissionMap.get(name);
+
+   if( off == null )
+    return null;
+
+   return materialize(off);
+  }
+  finally
+  {
+   dbLock.readLock().unlock();
+  }
+ }
+
+ @Override
+ public AgeObject getObjectById(String objID)
+ {
+  try
+  {
+   dbLock.readLock().lock();
+
+   return findObject( objID );
+  }
+  finally
+  {
+   dbLock.readLock().unlock();
+  }
+ }
+
+ @Override
+ public boolean hasObject(String objID)
+ {
+  try
+  {
+   dbLock.readLock().lock();
+
+   return objTable.find( objID ) >= 0;
+  }
+  finally
+  {
+   dbLock.readLock().unlock();
+  }
+ }
+
+ public List<AgeObject> executeQuery(AgeQuery qury)
+ {
+  try
+  {
+   dbLock.readLock().lock();
+
+   ArrayList<AgeObject> res = new ArrayList<AgeObject>();
+
+   for(AgeObject nd : new InMemoryQueryProcessor(qury, submissions(submissionMap.values())) )
+    res.add(nd);
+
+   return res;
+  }
+  finally
+  {
+   dbLock.readLock().unlock();
+  }
+ }
+
+ /*
+  * Paged queries. Continuation token (see SerializedStorage): s:<object index>:<submission id>
+  */
+ @Override
+ public QueryResult executeQuery(AgeQuery qury, int offset, int limit)
+ {
+  return queryBatch(qury, null, 0, offset, limit);
+ }
+
+ @Override
+ public QueryResult continueQuery(AgeQuery qury, String token, int limit)
+ {
+  String[] parts = token.split(":", 3);
+
+  try
+  {
+   if( parts.length == 3 && "s".equals(parts[0]) )
+    return queryBatch(qury, parts[2], Integer.parseInt(parts[1]), 0, limit);
+  }
+  catch(NumberFormatException e)
+  {
+  }
+
+  throw new IllegalArgumentException("Invalid continuation token: "+token);
+ }
+
+ private QueryResult queryBatch(AgeQuery qury, String fromSubmission, int fromObject, int offset, int limit)
+ {
+  if( limit <= 0 || offset < 0 || fromObject < 0 )
+   throw new IllegalArgumentException("Invalid query range");
+
+  try
+  {
+   dbLock.readLock().lock();
+
+   List<AgeObject> res = new ArrayList<AgeObject>( Math.min(limit, 1000) );
+
+   Collection<Long> offsets = submissionMap.values();
+
+   if( fromSubmission != null )
+   {
+    if( ! submissionMap.containsKey(fromSubmission) )
+     fromObject = 0;
+
+    offsets = submissionMap.tailMap(fromSubmission).values();
+   }
+
+   InMemoryQueryProcessor proc = new InMemoryQueryProcessor(qury, submissions(offsets), fromObject);
+
+   for( int i=0; i < offset && proc.hasNext(); i++ )
+    proc.next();
+
+   Submission lastSbm = null;
+   int lastPos = 0;
+
+   while( res.size() < limit && proc.hasNext() )
+   {
+    res.add(proc.next());
+
+    lastSbm = proc.getCurrentSubmission();
+    lastPos = proc.getNextObjectIndex();
+   }
+
+   if( lastSbm == null || ! proc.hasNext() )
+    return new QueryResult(res, null);
+
+   return new QueryResult(res, "s:"+lastPos+":"+lastSbm.getId());
+  }
+  finally
+  {
+   dbLock.readLock().unlock();
+  }
+ }
+
+ public AgeIndex createTextIndex(AgeQuery qury, Collection<TextFieldExtractor> exts) throws IndexIOException
+ {
+  AgeIndex idx = new AgeIndex();
+
+  TextIndex ti = IndexFactory.getInstance().createFullTextIndex(qury,exts);
+
+  try
+  {
+   dbLock.readLock().lock();
+
+   ti.index(executeQuery(qury) );
+
+   indexMap.put(idx, ti);
+
+   if( ti instanceof DataChangeListener )
+    addDataChangeListener( (DataChangeListener)ti );
+
+   return idx;
+  }
+  finally
+  {
+   dbLock.readLock().unlock();
+  }
+ }
+
+ // Indexed objects are looked up by ID on restore, so named indices are simply rebuilt here
+ public AgeIndex createTextIndex(String name, AgeQuery qury, Collection<TextFieldExtractor> exts) throws IndexIOException
+ {
+  AgeIndex idx = new AgeIndex();
+
+  File dir = new File(indexDir, name);
+
+  try
+  {
+   dbLock.readLock().lock();
+
+   if( ! dir.exists() )
+    dir.mkdirs();
+
+   TextIndex ti = IndexFactory.getInstance().createFullTextIndex(qury, exts, dir, true);
+
+   ti.index(executeQuery(qury) );
+
+   indexMap.put(idx, ti);
+
+   if( ti instanceof DataChangeListener )
+    addDataChangeListener( (DataChangeListener)ti );
+
+   return idx;
+  }
+  catch(IOException e)
+  {
+   throw new IndexIOException("Can't open index '"+name+"': "+e.getMessage(), e);
+  }
+  finally
+  {
+   dbLock.readLock().unlock();
+  }
+ }
+
+ private void updateIndices( Collection<SubmissionWritable> sbms )
+ {
+  ArrayList<AgeObject> res = new ArrayList<AgeObject>();
+
+  for( AgeStorageIndex idx : indexMap.values() )
+  {
+   res.clear();
+
+   for(AgeObject nd : new InMemoryQueryProcessor(idx.getQuery(), sbms) )
+    res.add(nd);
+
+   try
+   {
+    if(res.size() > 0)
+     idx.index(res);
+   }
+   catch(IndexIOException e)
+   {
+    log.error("Text index update failed: "+e.getMessage(), e);
+   }
+  }
+ }
+
+ private void updateIndices( AgeObject obj )
+ {
+  List<AgeObject> lst = Collections.singletonList(obj);
+
+  for( AgeStorageIndex idx : indexMap.values() )
+  {
+   if( ! idx.getQuery().getExpression().isTestingRelations() )
+    continue;
+
+   try
+   {
+    if( idx.getQuery().getExpression().test(obj) )
+     idx.index(lst);
+    else
+     idx.remove(lst);
+   }
+   catch(IndexIOException e)
+   {
+    log.error("Text index update failed: "+e.getMessage(), e);
+   }
+  }
+ }
+
+ public List<AgeObject> queryTextIndex(AgeIndex idx, String query) throws IndexIOException
+ {
+  TextIndex ti = (TextIndex)indexMap.get(idx);
+
+  return ti.select(query);
+ }
+
+ public int queryTextIndexCount(AgeIndex idx, String query) throws IndexIOException
+ {
+  TextIndex ti = (TextIndex)indexMap.get(idx);
+
+  return ti.count(query);
+ }
+
+ public TextSearchResult queryTextIndex(AgeIndex idx, String query, String sortField, int offset, int limit) throws IndexIOException
+ {
+  TextIndex ti = (TextIndex)indexMap.get(idx);
+
+  return ti.select(query, sortField, offset, limit);
+ }
+
+ /*
+  * Submissions are decoded one at a time, so unlike SerializedStorage the validation runs under the write lock
+  * instead of on a snapshot of the data
+  */
+ @Override
+ public boolean updateSemanticModel(SemanticModel sm, LogNode bfLog )
+ {
+  if( ! master )
+  {
+   bfLog.log(Level.ERROR, "Only the master instance can store data");
+   return false;
+  }
+
+  try
+  {
+   dbLock.writeLock().lock();
+
+   LogNode vldBranch = bfLog.branch("Validating model");
+
+   AgeSemanticValidator validator = SubmissionManager.getInstance().getAgeSemanticValidator();
+
+   boolean ok = true;
+
+   for( SubmissionWritable sbm : submissions(submissionMap.values()) )
+   {
+    BufferLogger submLog=new BufferLogger();
+
+    LogNode ln = submLog.getRootNode().branch("Validating submission: "+sbm.getId());
+
+    if( ! validator.validate(sbm, sm, ln) )
+    {
+     ln.log(Level.ERROR,"Validation failed");
+     vldBranch.append( submLog.getRootNode() );
+     ok = false;
+    }
+   }
+
+   if( ! ok )
+   {
+    BufferLogger.printBranch(vldBranch);
+
+    vldBranch.log(Level.ERROR,"Validation failed");
+    return false;
+   }
+
+   vldBranch.log(Level.INFO,"Success");
+
+   LogNode saveBranch = bfLog.branch("Saving model");
+
+   try
+   {
+    SerializedStorage.writeModel(sm, modelFile);
+   }
+   catch(ModelStoreException e)
+   {
+    saveBranch.log(Level.ERROR, "Model saving failed: "+e.getMessage());
+    return false;
+   }
+
+   saveBranch.log(Level.INFO, "Success");
+
+   LogNode setupBranch = bfLog.branch("Installing model");
+
+   // Submissions decoded later get the new model in readSubmission()
+   synchronized(cache)
+   {
+    for( CacheRef ref : cache.values() )
+    {
+     SubmissionWritable sbm = ref.get();
+
+     if( sbm != null )
+      sbm.setMasterModel(sm);
+    }
+   }
+
+   model = sm;
+
+   dataVersion++;
+
+   SemanticManager.getInstance().setMasterModel(model);
+
+   setupBranch.log(Level.INFO, "Success");
+
+   return true;
+  }
+  finally
+  {
+   dbLock.writeLock().unlock();
+  }
+ }
+
+ public void shutdown()
+ {
+  try
+  {
+   dbLock.writeLock().lock();
+
+   for( AgeStorageIndex idx : indexMap.values() )
+   {
+    try
+    {
+     idx.close();
+    }
+    catch(IndexIOException e)
+    {
+     log.error(e.getMessage(), e);
+    }
+   }
+
+   objTable.close();
+   sbmFile.close();
+  }
+  catch(IOException e)
+  {
+   log.error("Can't close data files: "+e.getMessage(), e);
+  }
+  finally
+  {
+   dbLock.writeLock().unlock();
+  }
+ }
+
+ @Override
+ public void addDataChangeListener(DataChangeListener dataChangeListener)
+ {
+  chgListeners.add(dataChangeListener);
+ }
+
+ @Override
+ public void lockWrite()
+ {
+  dbLock.writeLock().lock();
+ }
+
+ @Override
+ public void unlockWrite()
+ {
+  dbLock.writeLock().unlock();
+ }
+
+ @Override
+ public void lockRead()
+ {
+  dbLock.readLock().lock();
+ }
+
+ @Override
+ public void unlockRead()
+ {
+  dbLock.readLock().unlock();
+ }
+
+ @Override
+ public long getDataVersion()
+ {
+  return dataVersion;
+ }
+
+ /*
+  * The relations are inverses of the stored submissions' external relations. They are persistent as the inverse lists
+  * (rebuilt from the submission file after a crash) and were added there by storeSubmissions(). Here a connected copy of
+  * the target object gets them too (a not connected one will get them from the lists) and the indices are updated
+  */
+ @Override
+ public void addRelations(String key, Collection<AgeRelationWritable> rels)
+ {
+  long n = objTable.find(key);
+
+  if( n < 0 )
+   return;
+
+  AgeObjectWritable obj = null;
+
+  synchronized(cache)
+  {
+   long off = objTable.getSubmissionOffset(n);
+   SubmissionWritable sbm = getCached(off);
+
+   // not connected copies get the relations from the inverse lists when connected
+   if( sbm != null && cache.get(off).connected )
+    obj = objectAt(sbm, objTable.getPosition(n));
+  }
+
+  if( obj != null )
+  {
+   for( AgeRelationWritable r : rels )
+   {
+    // the copy may have been connected after the lists were updated
+    if( r.getTargetObject() == null || ! hasExternalRelation(obj, r.getAgeElClass(), r.getTargetObject().getId()) )
+     obj.addRelation(r);
+   }
+  }
+
+  for( AgeStorageIndex idx : indexMap.values() )
+  {
+   if( idx.getQuery().getExpression().isTestingRelations() )
+   {
+    // the object is decoded and connected if it isn't cached
+    updateIndices( obj != null ? obj : getObject(n) );
+    break;
+   }
+  }
+
+  dataVersion++;
+ }
+}
@@ -0,0 +1,273 @@
+package uk.ac.ebi.age.storage.impl.ser;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import uk.ac.ebi.age.model.AgeObject;
+import uk.ac.ebi.age.query.AndExpression;
+import uk.ac.ebi.age.query.ClassNameExpression;
+import uk.ac.ebi.age.query.ObjectSelectExpression;
+import uk.ac.ebi.age.query.OrExpression;
+import uk.ac.ebi.age.query.QueryExpression;
+import uk.ac.ebi.age.query.RelationExpression;
+
+class QueryPlanner
+{
+ private ClassIndex classIndex;
+ private AttributeIndex attributeIndex;
+ private SerializedStorage storage;
+
+ QueryPlanner( ClassIndex cIdx, AttributeIndex aIdx, SerializedStorage stor )
+ {
+  classIndex = cIdx;
+  attributeIndex = aIdx;
+  storage = stor;
+ }
+
+ // Evaluates the expression with index lookups. Returns null if the expression can't be planned on the indexes
+ Collection<AgeObject> select( QueryExpression expr )
+ {
+  if( expr instanceof ClassNameExpression )
+   return classIndex.lookup( (ClassNameExpression)expr );
+
+  if( expr instanceof OrExpression )
+  {
+   Collection<AgeObject> res = new LinkedHashSet<AgeObject>();
+
+   for( QueryExpression sub : ((OrExpression)expr).getExpressions() )
+   {
+    Collection<AgeObject> subRes = select(sub);
+
+    if( subRes == null )
+     return null;
+
+    res.addAll(subRes);
+   }
+
+   return res;
+  }
+
+  if( expr instanceof AndExpression )
+   return selectAll( ((AndExpression)expr).getExpressions() );
+
+  if( expr instanceof ObjectSelectExpression )
+  {
+   ObjectSelectExpression os = (ObjectSelectExpression)expr;
+
+   List<QueryExpression> subs = new ArrayList<QueryExpression>(2);
+
+   if( os.getClassExpression() != null )
+    subs.add( os.getClassExpression() );
+
+   if( os.getCondition() != null )
+    subs.add( os.getCondition() );
+
+   return selectAll(subs);
+  }
+
+  if( expr instanceof RelationExpression )
+   return join( (RelationExpression)expr, null );
+
+  return attributeIndex.select(expr);
+ }
+
+ /*
+  * Conjunction: indexed parts are intersected first, then relation expressions are joined to the result and
+  * what can't be planned is tested object by object
+  */
+ private Collection<AgeObject> selectAll( Collection<QueryExpression> exprs )
+ {
+  Collection<AgeObject> res = null;
+  List<QueryExpression> filters = null;
+  List<RelationExpression> joins = null;
+
+  for( QueryExpression sub : exprs )
+  {
+   if( sub instanceof RelationExpression )
+   {
+    if( joins == null )
+     joins = new ArrayList<RelationExpression>(3);
+
+    joins.add( (RelationExpression)sub );
+    continue;
+   }
+
+   Collection<AgeObject> subRes = select(sub);
+
+   if( subRes == null )
+   {
+    if( filters == null )
+     filters = new ArrayList<QueryExpression>(3);
+
+    filters.add(sub);
+   }
+   else if( res == null )
+    res = new LinkedHashSet<AgeObject>(subRes);
+   else
+    res.retainAll( subRes instanceof Set<?>? subRes : new HashSet<AgeObject>(subRes) );
+  }
+
+  if( joins != null )
+  {
+   for( RelationExpression rel : joins )
+   {
+    Collection<AgeObject> joinRes = join(rel, res);
+
+    if( joinRes != null )
+     res = joinRes;
+    else
+    {
+     if( filters == null )
+      filters = new ArrayList<QueryExpression>(3);
+
+     filters.add(rel);
+    }
+   }
+  }
+
+  if( res == null )
+   return null;
+
+  if( filters != null )
+  {
+   Iterator<AgeObject> iter = res.iterator();
+
+   while( iter.hasNext() )
+   {
+    AgeObject obj = iter.next();
+
+    for( QueryExpression flt : filters )
+    {
+     if( ! flt.test(obj) )
+     {
+      iter.remove();
+      break;
+     }
+    }
+   }
+  }
+
+  return res;
+ }
+
+ /*
+  * Semi-join over the relation graph: the candidates (all objects if null) having a relation of the expression's
+  * class to a target. Starts from the smaller side: candidates are probed along their outgoing edges against the
+  * target set, otherwise the incoming edges of the targets give the sources. Returns null if the target expression
+  * can't be planned
+  */
+ private Collection<AgeObject> join( RelationExpression rel, Collection<AgeObject> cands )
+ {
+  Collection<AgeObject> targets = null;
+
+  if( rel.getTargetExpression() != null )
+  {
+   targets = select( rel.getTargetExpression() );
+
+   if( targets == null )
+    return null;
+  }
+
+  RelationGraph g = storage.getRelationGraph();
+
+  BitSet clsMask = new BitSet();
+
+  for( int i=0; i < g.getRelationClassCount(); i++ )
+  {
+   if( rel.isMatchingClass( g.getRelationClass(i) ) )
+    clsMask.set(i);
+  }
+
+  if( clsMask.isEmpty() || ( targets != null && targets.size() == 0 ) )
+   return Collections.emptyList();
+
+  Collection<AgeObject> res = new LinkedHashSet<AgeObject>();
+
+  if( cands != null && ( targets == null || cands.size() <= targets.size() ) )
+  {
+   BitSet tgSet = targets == null ? null : ordinals(g, targets);
+
+   for( AgeObject obj : cands )
+   {
+    int n = g.getOrdinal(obj);
+
+    if( n < 0 )
+     continue;
+
+    for( int i=g.outStart[n]; i < g.outStart[n+1]; i++ )
+    {
+     if( clsMask.get(g.outClasses[i]) && ( tgSet == null || tgSet.get(g.outTargets[i]) ) )
+     {
+      res.add(obj);
+      break;
+     }
+    }
+   }
+
+   return res;
+  }
+
+  BitSet srcSet = new BitSet();
+
+  if( targets == null )
+  {
+   for( int i=0; i < g.getEdgeCount(); i++ )
+    if( clsMask.get(g.inClasses[i]) )
+     srcSet.set(g.inSources[i]);
+  }
+  else
+  {
+   for( AgeObject obj : targets )
+   {
+    int n = g.getOrdinal(obj);
+
+    if( n < 0 )
+     continue;
+
+    for( int i=g.inStart[n]; i < g.inStart[n+1]; i++ )
+     if( clsMask.get(g.inClasses[i]) )
+      srcSet.set(g.inSources[i]);
+   }
+  }
+
+  if( cands == null )
+  {
+   for( int n = srcSet.nextSetBit(0); n >= 0; n = srcSet.nextSetBit(n+1) )
+    res.add( g.getObject(n) );
+  }
+  else
+  {
+   for( AgeObject obj : cands )
+   {
+    int n = g.getOrdinal(obj);
+
+    if( n >= 0 && srcSet.get(n) )
+     res.add(obj);
+   }
+  }
+
+  return res;
+ }
+
+ private static BitSet ordinals( RelationGraph g, Collection<AgeObject> objs )
+ {
+  BitSet set = new BitSet( g.getObjectCount() );
+
+  for( AgeObject obj : objs )
+  {
+   int n = g.getOrdinal(obj);
+
+   if( n >= 0 )
+    set.set(n);
+  }
+
+  return set;
+ }
+}
@@ -0,0 +1,76 @@
+package uk.ac.ebi.age.storage.impl.ser;
+
+import java.util.Collection;
+
+import uk.ac.ebi.age.model.AgeObject;
+
+class RealValueIndex extends SortedValueIndex
+{
+ private double[] values = new double[16];
+
+ void add( double v, AgeObject obj )
+ {
+  int i = append(obj);
+  
+  values[i] = v;
+ }
+ 
+ void selectRange( double lo, boolean loIncl, double hi, boolean hiIncl, Collection<AgeObject> res )
+ {
+  ensureSorted();
+  
+  int from = bound(lo, ! loIncl);
+  int to = bound(hi, hiIncl);
+
+  if( from < to )
+   collect( from, to, res );
+ }
+ 
+ // Returns the first position with value greater than (or equal to, if not 'after') the key
+ private int bound( double key, boolean after )
+ {
+  int l=0, h=size;
+  
+  while( l < h )
+  {
+   int m = (l+h) >>> 1;
+   
+   int cmp = Double.compare(values[m], key);
+   
+   if( cmp < 0 || ( after && cmp == 0 ) )
+    l = m+1;
+   else
+    h = m;
+  }
+  
+  return l;
+ }
+
+ @Override
+ protected int compare(int i, int j)
+ {
+  return Double.compare(values[i], values[j]);
+ }
+
+ @Override
+ protected void swapValues(int i, int j)
+ {
+  double t = values[i];
+  values[i] = values[j];
+  values[j] = t;
+ }
+
+ @Override
+ protected void moveValue(int from, int to)
+ {
+  values[to] = values[from];
+ }
+
+ @Override
+ protected void resizeValues(int cap)
+ {
+  double[] nv = new double[cap];
+  System.arraycopy(values, 0, nv, 0, size);
+  values = nv;
+ }
+}
@@ -0,0 +1,311 @@
+package uk.ac.ebi.age.storage.impl.ser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import uk.ac.ebi.age.model.AgeObject;
+import uk.ac.ebi.age.model.AgeRelation;
+import uk.ac.ebi.age.model.AgeRelationClass;
+
+/*
+ * Immutable snapshot of the relations between stored objects in compressed sparse row form. Objects are numbered
+ * (ordinals) and the edges of object n are outTargets[outStart[n]..outStart[n+1]), likewise for incoming edges.
+ * The edges of an object are grouped by relation class, so a class filter skips whole runs. Relation classes are
+ * numbered too: defined classes are shared, custom ones come from the submissions' context models.
+ * A graph is made from the previous one by extend(): only the relations of new and changed objects are read.
+ */
+public class RelationGraph
+{
+ private AgeObject[] objects = new AgeObject[0];
+
+ private AgeRelationClass[] relClasses = new AgeRelationClass[0];
+
+ int[] outStart = new int[1];
+ int[] outTargets = new int[0];
+ int[] outClasses = new int[0];
+
+ int[] inStart = new int[1];
+ int[] inSources = new int[0];
+ int[] inClasses = new int[0];
+
+ // Open addressing identity hash: object -> ordinal
+ private AgeObject[] hashKeys = new AgeObject[0];
+ private int[] hashOrds = new int[0];
+
+ private long version;
+
+ public static RelationGraph build( Collection< ? extends AgeObject> objs, long version )
+ {
+  return extend(new RelationGraph(), objs, Collections.<AgeObject>emptyList(), version);
+ }
+
+ /*
+  * The graph with the objects added and the relations of the changed objects (the graph's or the added ones)
+  * read again. The graph's objects keep their ordinals, the added ones are numbered after them. Edges of other
+  * objects are copied, so objects removed from the storage need a new graph made by build()
+  */
+ public static RelationGraph extend( RelationGraph prev, Collection< ? extends AgeObject> added,
+   Collection< ? extends AgeObject> changed, long version )
+ {
+  RelationGraph g = new RelationGraph();
+
+  g.version = version;
+
+  int n0 = prev.objects.length;
+  int n = n0+added.size();
+
+  g.objects = Arrays.copyOf(prev.objects, n);
+
+  int k = n0;
+
+  for( AgeObject obj : added )
+   g.objects[k++] = obj;
+
+  int cap = Integer.highestOneBit( Math.max(n, 8)*2 ) * 2;
+
+  // The table is rehashed only when it grows
+  if( cap == prev.hashKeys.length )
+  {
+   g.hashKeys = prev.hashKeys.clone();
+   g.hashOrds = prev.hashOrds.clone();
+   k = n0;
+  }
+  else
+  {
+   g.hashKeys = new AgeObject[cap];
+   g.hashOrds = new int[cap];
+   k = 0;
+  }
+
+  for( ; k < n; k++ )
+   g.putOrdinal(g.objects[k], k);
+
+  BitSet dirty = new BitSet(n);
+  dirty.set(n0, n);
+
+  for( AgeObject obj : changed )
+  {
+   int ord = g.getOrdinal(obj);
+
+   if( ord >= 0 )
+    dirty.set(ord);
+  }
+
+  Map<AgeRelationClass, Integer> clsMap = new IdentityHashMap<AgeRelationClass, Integer>();
+  List<AgeRelationClass> clsList = new ArrayList<AgeRelationClass>( Arrays.asList(prev.relClasses) );
+
+  for( int i=0; i < prev.relClasses.length; i++ )
+   clsMap.put(prev.relClasses[i], i);
+
+  int[] src = new int[16];
+  int[] tgt = new int[src.length];
+  int[] cls = new int[src.length];
+  int m = 0;
+
+  int total = prev.outTargets.length;
+
+  for( int i=dirty.nextSetBit(0); i >= 0; i=dirty.nextSetBit(i+1) )
+  {
+   if( i < n0 )
+    total -= prev.outStart[i+1]-prev.outStart[i];
+
+   Collection< ? extends AgeRelation> rels = g.objects[i].getRelations();
+
+   if( rels == null )
+    continue;
+
+   for( AgeRelation rel : rels )
+   {
+    if( rel.getTargetObject() == null )
+     continue;
+
+    int t = g.getOrdinal(rel.getTargetObject());
+
+    if( t < 0 )
+     continue;
+
+    Integer c = clsMap.get(rel.getAgeElClass());
+
+    if( c == null )
+    {
+     c = clsList.size();
+     clsList.add(rel.getAgeElClass());
+     clsMap.put(rel.getAgeElClass(), c);
+    }
+
+    if( m == src.length )
+    {
+     src = Arrays.copyOf(src, m*2);
+     tgt = Arrays.copyOf(tgt, m*2);
+     cls = Arrays.copyOf(cls, m*2);
+    }
+
+    src[m] = i;
+    tgt[m] = t;
+    cls[m] = c;
+    m++;
+   }
+  }
+
+  total += m;
+
+  g.relClasses = clsList.toArray( new AgeRelationClass[clsList.size()] );
+
+  int nCls = g.relClasses.length;
+
+  // Edges sorted by class first, so the stable sort by node keeps every node's edges grouped by class
+  int[] order = sortedOrder(src, sortedOrder(cls, null, m, nCls), m, n);
+
+  g.outStart = new int[n+1];
+  g.outTargets = new int[total];
+  g.outClasses = new int[total];
+
+  int p = 0;
+  int e = 0;
+
+  for( int i=0; i < n; i++ )
+  {
+   g.outStart[i] = p;
+
+   if( dirty.get(i) )
+   {
+    for( ; e < m && src[order[e]] == i; e++, p++ )
+    {
+     g.outTargets[p] = tgt[order[e]];
+     g.outClasses[p] = cls[order[e]];
+    }
+   }
+   else
+   {
+    int len = prev.outStart[i+1]-prev.outStart[i];
+
+    System.arraycopy(prev.outTargets, prev.outStart[i], g.outTargets, p, len);
+    System.arraycopy(prev.outClasses, prev.outStart[i], g.outClasses, p, len);
+
+    p += len;
+   }
+  }
+
+  g.outStart[n] = p;
+
+  // Incoming edges are the outgoing ones sorted by target, no relations have to be read for them
+  int[] from = new int[total];
+
+  for( int i=0; i < n; i++ )
+   Arrays.fill(from, g.outStart[i], g.outStart[i+1], i);
+
+  g.inStart = new int[n+1];
+  g.inSources = new int[total];
+  g.inClasses = new int[total];
+  fill(sortedOrder(g.outTargets, sortedOrder(g.outClasses, null, total, nCls), total, n), g.outTargets, from, g.outClasses, total,
+    g.inStart, g.inSources, g.inClasses);
+
+  return g;
+ }
+
+ /*
+  * Stable counting sort: returns the edge numbers (taken in the given order, or 0..m-1 if order is null)
+  * ordered by key
+  */
+ private static int[] sortedOrder( int[] key, int[] order, int m, int nKeys )
+ {
+  int[] cnt = new int[nKeys+1];
+
+  for( int i=0; i < m; i++ )
+   cnt[ key[i]+1 ]++;
+
+  for( int i=0; i < nKeys; i++ )
+   cnt[i+1] += cnt[i];
+
+  int[] res = new int[m];
+
+  for( int i=0; i < m; i++ )
+  {
+   int e = order == null ? i : order[i];
+   res[ cnt[key[e]]++ ] = e;
+  }
+
+  return res;
+ }
+
+ private static void fill( int[] order, int[] from, int[] to, int[] cls, int m, int[] start, int[] adj, int[] adjCls )
+ {
+  for( int i=0; i < m; i++ )
+  {
+   int e = order[i];
+
+   start[ from[e]+1 ]++;
+   adj[i] = to[e];
+   adjCls[i] = cls[e];
+  }
+
+  for( int i=1; i < start.length; i++ )
+   start[i] += start[i-1];
+ }
+
+ private void putOrdinal( AgeObject obj, int ord )
+ {
+  int mask = hashKeys.length-1;
+  int slot = System.identityHashCode(obj) & mask;
+
+  while( hashKeys[slot] != null && hashKeys[slot] != obj )
+   slot = (slot+1) & mask;
+
+  hashKeys[slot] = obj;
+  hashOrds[slot] = ord;
+ }
+
+ // Ordinal of the object or -1 if the object is not in the graph
+ public int getOrdinal( AgeObject obj )
+ {
+  int mask = hashKeys.length-1;
+  int slot = System.identityHashCode(obj) & mask;
+
+  while( hashKeys[slot] != null )
+  {
+   if( hashKeys[slot] == obj )
+    return hashOrds[slot];
+
+   slot = (slot+1) & mask;
+  }
+
+  return -1;
+ }
+
+ public AgeObject getObject( int ord )
+ {
+  return objects[ord];
+ }
+
+ public int getObjectCount()
+ {
+  return objects.length;
+ }
+
+ public int getEdgeCount()
+ {
+  return outTargets.length;
+ }
+
+ int getRelationClassCount()
+ {
+  return relClasses.length;
+ }
+
+ AgeRelationClass getRelationClass( int n )
+ {
+  return relClasses[n];
+ }
+
+ // Data version of the storage the graph was built at
+ public long getVersion()
+ {
+  return version;
+ }
+}
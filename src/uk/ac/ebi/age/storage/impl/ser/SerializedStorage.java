@@ -3,16 +3,27 @@ package uk.ac.ebi.age.storage.impl.ser;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.SortedMap;
 import java.util.TreeMap;
-import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.commons.logging.Log;
@@ -29,6 +40,7 @@ import uk.ac.ebi.age.model.AgeRelation;
 import uk.ac.ebi.age.model.AgeRelationClass;
 import uk.ac.ebi.age.model.Attributed;
 import uk.ac.ebi.age.model.SemanticModel;
+import uk.ac.ebi.age.model.Submission;
 import uk.ac.ebi.age.model.writable.AgeExternalObjectAttributeWritable;
 import uk.ac.ebi.age.model.writable.AgeExternalRelationWritable;
 import uk.ac.ebi.age.model.writable.AgeObjectWritable;
@@ -39,14 +51,16 @@ import uk.ac.ebi.age.service.IdGenerator;
 import uk.ac.ebi.age.storage.AgeStorageAdm;
 import uk.ac.ebi.age.storage.DataChangeListener;
 import uk.ac.ebi.age.storage.IndexFactory;
+import uk.ac.ebi.age.storage.QueryResult;
 import uk.ac.ebi.age.storage.RelationResolveException;
-import uk.ac.ebi.age.storage.SubmissionReaderWriter;
 import uk.ac.ebi.age.storage.TextIndex;
+import uk.ac.ebi.age.storage.TextSearchResult;
+import uk.ac.ebi.age.storage.exeption.IndexIOException;
 import uk.ac.ebi.age.storage.exeption.ModelStoreException;
 import uk.ac.ebi.age.storage.exeption.StorageInstantiationException;
 import uk.ac.ebi.age.storage.exeption.SubmissionStoreException;
 import uk.ac.ebi.age.storage.impl.AgeStorageIndex;
-import uk.ac.ebi.age.storage.impl.SerializedSubmissionReaderWriter;
+import uk.ac.ebi.age.storage.impl.BinarySubmissionReaderWriter;
 import uk.ac.ebi.age.storage.index.AgeIndex;
 import uk.ac.ebi.age.storage.index.TextFieldExtractor;
 import uk.ac.ebi.age.validator.AgeSemanticValidator;
@@ -55,28 +69,63 @@ public class SerializedStorage implements AgeStorageAdm
 {
  private Log log = LogFactory.getLog(this.getClass());
  
- private static final String modelPath = "model";
- private static final String submissionsPath = "submission";
- private static final String modelFileName = "model.ser";
+ static final String modelPath = "model";
+ static final String submissionsPath = "submission";
+ static final String modelFileName = "model.ser";
+ static final String walPath = "wal";
+ static final String indexPath = "index";
  
  private File modelFile;
  private File dataDir;
+ private File indexDir;
  
  private Map<String, AgeObjectWritable> mainIndexMap = new HashMap<String, AgeObjectWritable>();
- private Map<String, SubmissionWritable> submissionMap = new TreeMap<String, SubmissionWritable>();
+ private SortedMap<String, SubmissionWritable> submissionMap = new TreeMap<String, SubmissionWritable>();
 
  private Map<AgeIndex,AgeStorageIndex> indexMap = new HashMap<AgeIndex,AgeStorageIndex>();
+ private Map<AgeIndex,TextIndexDefinition> indexDefMap = new HashMap<AgeIndex,TextIndexDefinition>();
+
+ private ClassIndex classIndex = new ClassIndex();
+ private AttributeIndex attrIndex = new AttributeIndex();
+ private QueryPlanner planner = new QueryPlanner(classIndex, attrIndex, this);
 
  private SemanticModel model;
  
- private ReadWriteLock dbLock = new ReentrantReadWriteLock();
+ private ReentrantReadWriteLock dbLock = new ReentrantReadWriteLock();
+ 
+ private BinarySubmissionReaderWriter submRW = new BinarySubmissionReaderWriter();
+
+ private WriteAheadLog wal;
  
- private SubmissionReaderWriter submRW = new SerializedSubmissionReaderWriter();
+ // Incremented on every data or model change
+ private volatile long dataVersion = 0;
 
  private Collection<DataChangeListener> chgListeners = new ArrayList<DataChangeListener>(3);
  
  private boolean master = false;
  
+ private static final int LOADER_THREADS = Runtime.getRuntime().availableProcessors();
+ private static final int MODEL_UPDATE_ATTEMPTS = 3;
+ 
+ private Object modelUpdateLock = new Object();
+ 
+ // Built on demand, extended with the changes made since when dataVersion has changed
+ private volatile RelationGraph relationGraph;
+ private Object graphLock = new Object();
+ 
+ // Changes not in relationGraph yet. Collected under the write lock, applied under the read lock and graphLock
+ private List<AgeObject> graphAdded = new ArrayList<AgeObject>();
+ private Set<AgeObject> graphChanged = Collections.newSetFromMap( new IdentityHashMap<AgeObject, Boolean>() );
+ 
+ private static final Comparator<AgeObject> idComparator = new Comparator<AgeObject>()
+ {
+  @Override
+  public int compare(AgeObject o1, AgeObject o2)
+  {
+   return o1.getId().compareTo(o2.getId());
+  }
+ };
+ 
  public SerializedStorage()
  {
  }
@@ -86,6 +135,14 @@ public class SerializedStorage implements AgeStorageAdm
   return model;
  }
  
+ /*
+  * Called for every submission before it becomes visible: after it is read at startup and after it is written
+  * to the log on store. Subclasses can change the in-memory representation of the submission here
+  */
+ protected void prepareSubmission( SubmissionWritable sbm )
+ {
+ }
+ 
  public void setMaster( boolean m )
  {
   master=m;
@@ -119,7 +176,7 @@ public class SerializedStorage implements AgeStorageAdm
   return submissionMap.get(name);
  }
  
- public AgeIndex createTextIndex(AgeQuery qury, Collection<TextFieldExtractor> exts)
+ public AgeIndex createTextIndex(AgeQuery qury, Collection<TextFieldExtractor> exts) throws IndexIOException
  {
   AgeIndex idx = new AgeIndex();
 
@@ -132,6 +189,9 @@ public class SerializedStorage implements AgeStorageAdm
    ti.index(executeQuery(qury) );
 
    indexMap.put(idx, ti);
+   
+   if( ti instanceof DataChangeListener )
+    addDataChangeListener( (DataChangeListener)ti );
 
    return idx;
   }
@@ -142,37 +202,137 @@ public class SerializedStorage implements AgeStorageAdm
 
  }
 
- private void updateIndices( SubmissionWritable s )
+ // Index is stored on disk under the given name. It is reopened at startup if neither its definition nor the data has changed
+ public AgeIndex createTextIndex(String name, AgeQuery qury, Collection<TextFieldExtractor> exts) throws IndexIOException
  {
-  ArrayList<AgeObject> res = new ArrayList<AgeObject>();
+  AgeIndex idx = new AgeIndex();
 
-  for( Map.Entry<AgeIndex, AgeStorageIndex> me : indexMap.entrySet() )
+  File dir = new File(indexDir, name);
+  
+  try
   {
-   AgeStorageIndex idx = me.getValue();
+   dbLock.readLock().lock();
+
+   TextIndexDefinition def = new TextIndexDefinition(dir, qury, exts);
+   def.setGeneration( getDataGeneration() );
+   
+   TextIndexDefinition stored = TextIndexDefinition.read(dir);
    
-   Collection<SubmissionWritable> objects = null;
+   boolean upToDate = stored != null && stored.isSame(def);
    
-   if( idx.getQuery().getExpression().isTestingRelations() && s.getExternalRelations() != null && s.getExternalRelations().size() > 0 )
+   if( ! upToDate )
    {
-    idx.reset();
-    objects = submissionMap.values();
+    if( ! dir.exists() )
+     dir.mkdirs();
+    
+    def.delete();
+   }
+   
+   TextIndex ti = IndexFactory.getInstance().createFullTextIndex(qury, exts, dir, ! upToDate);
+
+   if( upToDate )
+   {
+    ti.restore(mainIndexMap);
+    log.info("Text index '"+name+"' reopened");
    }
    else
-    objects = Collections.singleton(s);
+   {
+    ti.index(executeQuery(qury) );
+    log.info("Text index '"+name+"' rebuilt");
+   }
+
+   indexMap.put(idx, ti);
+   indexDefMap.put(idx, def);
    
+   if( ti instanceof DataChangeListener )
+    addDataChangeListener( (DataChangeListener)ti );
+
+   return idx;
+  }
+  catch(IOException e)
+  {
+   throw new IndexIOException("Can't open index '"+name+"': "+e.getMessage(), e);
+  }
+  finally
+  {
+   dbLock.readLock().unlock();
+  }
+ }
+ 
+ private long getDataGeneration()
+ {
+  long gen = submissionMap.size();
+  
+  for( String id : submissionMap.keySet() )
+   gen = gen*31 + id.hashCode();
+  
+  return gen*31 + modelFile.lastModified();
+ }
+
+ private void updateIndices( Collection<SubmissionWritable> sbms )
+ {
+  ArrayList<AgeObject> res = new ArrayList<AgeObject>();
+
+  for( Map.Entry<AgeIndex, AgeStorageIndex> me : indexMap.entrySet() )
+  {
+   AgeStorageIndex idx = me.getValue();
    
-   Iterable<AgeObject> trv = traverse(idx.getQuery(), objects);
+   Iterable<AgeObject> trv = traverse(idx.getQuery(), sbms);
 
    res.clear();
 
    for(AgeObject nd : trv)
     res.add(nd);
 
-   if(res.size() > 0)
-    idx.index(res);
+   try
+   {
+    if(res.size() > 0)
+     idx.index(res);
+   }
+   catch(IndexIOException e)
+   {
+    indexFailed(me.getKey(), e);
+   }
+  }
+ }
+ 
+ // Objects which relations were changed are re-tested against the queries of relation-aware indices
+ private void updateIndices( AgeObject obj )
+ {
+  List<AgeObject> lst = Collections.singletonList(obj);
+  
+  for( Map.Entry<AgeIndex, AgeStorageIndex> me : indexMap.entrySet() )
+  {
+   AgeStorageIndex idx = me.getValue();
+   
+   if( ! idx.getQuery().getExpression().isTestingRelations() )
+    continue;
+   
+   try
+   {
+    if( idx.getQuery().getExpression().test(obj) )
+     idx.index(lst);
+    else
+     idx.remove(lst);
+   }
+   catch(IndexIOException e)
+   {
+    indexFailed(me.getKey(), e);
+   }
   }
  }
  
+ // The data is stored already, so a failed index update doesn't fail the change. The index is rebuilt at the next start
+ private void indexFailed( AgeIndex idx, IndexIOException e )
+ {
+  log.error("Text index update failed: "+e.getMessage(), e);
+  
+  TextIndexDefinition def = indexDefMap.remove(idx);
+  
+  if( def != null )
+   def.delete();
+ }
+ 
  
  public List<AgeObject> executeQuery(AgeQuery qury)
  {
@@ -180,6 +340,11 @@ public class SerializedStorage implements AgeStorageAdm
   {
    dbLock.readLock().lock();
 
+   Collection<AgeObject> sel = planner.select(qury.getExpression());
+   
+   if( sel != null )
+    return new ArrayList<AgeObject>(sel);
+   
    Iterable<AgeObject> trv = traverse(qury, submissionMap.values());
 
    ArrayList<AgeObject> res = new ArrayList<AgeObject>();
@@ -196,60 +361,256 @@ public class SerializedStorage implements AgeStorageAdm
 
  }
 
+/*
+ * Paged queries. The read lock is held for one batch only, the position is returned to the caller as
+ * a continuation token:
+ *
+ *  s:<object index>:<submission id>  - scan position. Submissions are kept sorted by ID so the position
+ *                                      stays valid when new data arrive
+ *  p:<object id>                     - the last object returned from the result of an index plan. Batches are
+ *                                      taken in object ID order, the next one is selected by running the plan
+ *                                      again over the current indexes and skipping IDs up to the last one
+ */
+ @Override
+ public QueryResult executeQuery(AgeQuery qury, int offset, int limit)
+ {
+  return queryBatch(qury, null, 0, offset, limit);
+ }
+
+ @Override
+ public QueryResult continueQuery(AgeQuery qury, String token, int limit)
+ {
+  if( token.startsWith("p:") )
+   return planBatch(qury, token.substring(2), limit);
+  
+  String[] parts = token.split(":", 3);
+  
+  try
+  {
+   if( parts.length == 3 && "s".equals(parts[0]) )
+    return queryBatch(qury, parts[2], Integer.parseInt(parts[1]), 0, limit);
+  }
+  catch(NumberFormatException e)
+  {
+  }
+  
+  throw new IllegalArgumentException("Invalid continuation token: "+token);
+ }
+
+ private QueryResult queryBatch(AgeQuery qury, String fromSubmission, int fromObject, int offset, int limit)
+ {
+  if( limit <= 0 || offset < 0 || fromObject < 0 )
+   throw new IllegalArgumentException("Invalid query range");
+  
+  try
+  {
+   dbLock.readLock().lock();
+
+   List<AgeObject> res = new ArrayList<AgeObject>( Math.min(limit, 1000) );
+
+   if( fromSubmission == null )
+   {
+    Collection<AgeObject> sel = planner.select(qury.getExpression());
+    
+    if( sel != null )
+     return planPage(sel, null, offset, limit);
+   }
+   
+   Collection<SubmissionWritable> sbms = submissionMap.values();
+   
+   if( fromSubmission != null )
+   {
+    if( ! submissionMap.containsKey(fromSubmission) )
+     fromObject = 0;
+    
+    sbms = submissionMap.tailMap(fromSubmission).values();
+   }
+   
+   InMemoryQueryProcessor proc = new InMemoryQueryProcessor(qury, sbms, fromObject);
+   
+   for( int i=0; i < offset && proc.hasNext(); i++ )
+    proc.next();
+
+   Submission lastSbm = null;
+   int lastPos = 0;
+   
+   while( res.size() < limit && proc.hasNext() )
+   {
+    res.add(proc.next());
+    
+    lastSbm = proc.getCurrentSubmission();
+    lastPos = proc.getNextObjectIndex();
+   }
+   
+   if( lastSbm == null || ! proc.hasNext() )
+    return new QueryResult(res, null);
+   
+   return new QueryResult(res, "s:"+lastPos+":"+lastSbm.getId());
+  }
+  finally
+  {
+   dbLock.readLock().unlock();
+  }
+ }
+
+ // Next batch of an index plan result, after the object with the ID lastId
+ private QueryResult planBatch(AgeQuery qury, String lastId, int limit)
+ {
+  if( limit <= 0 )
+   throw new IllegalArgumentException("Invalid query range");
+  
+  try
+  {
+   dbLock.readLock().lock();
+
+   Collection<AgeObject> sel = planner.select(qury.getExpression());
+   
+   if( sel == null )
+    throw new IllegalArgumentException("Continuation token doesn't match the query");
+   
+   return planPage(sel, lastId, 0, limit);
+  }
+  finally
+  {
+   dbLock.readLock().unlock();
+  }
+ }
+ 
+ /*
+  * Objects offset+1 to offset+limit of the plan result in ID order, counting from the object following lastId
+  * (from the first one if lastId is null). Only these objects are kept while the result is scanned.
+  */
+ private QueryResult planPage( Collection<AgeObject> sel, String lastId, int offset, int limit )
+ {
+  int n = (int)Math.min( (long)offset+limit, Integer.MAX_VALUE );
+  
+  // The greatest ID on top, so it is the one to drop when a smaller ID comes
+  PriorityQueue<AgeObject> top = new PriorityQueue<AgeObject>( Math.min(n, 1000)+1, Collections.reverseOrder(idComparator) );
+  
+  boolean more = false;
+  
+  for( AgeObject obj : sel )
+  {
+   if( lastId != null && obj.getId().compareTo(lastId) <= 0 )
+    continue;
+   
+   if( top.size() < n )
+    top.add(obj);
+   else
+   {
+    more = true;
+    
+    if( idComparator.compare(obj, top.peek()) < 0 )
+    {
+     top.poll();
+     top.add(obj);
+    }
+   }
+  }
+  
+  List<AgeObject> res = new ArrayList<AgeObject>(top);
+  
+  Collections.sort(res, idComparator);
+  
+  res = new ArrayList<AgeObject>( res.subList(Math.min(offset, res.size()), res.size()) );
+  
+  return new QueryResult(res, more && res.size() > 0 ? "p:"+res.get(res.size()-1).getId() : null );
+ }
+
  private Iterable<AgeObject>  traverse(AgeQuery query, Collection<SubmissionWritable> sbms)
  {
   return new InMemoryQueryProcessor(query,sbms);
  }
 
- public List<AgeObject> queryTextIndex(AgeIndex idx, String query)
+ public List<AgeObject> queryTextIndex(AgeIndex idx, String query) throws IndexIOException
  {
   TextIndex ti = (TextIndex)indexMap.get(idx);
   
   return ti.select(query);
  }
  
- public int queryTextIndexCount(AgeIndex idx, String query)
+ public int queryTextIndexCount(AgeIndex idx, String query) throws IndexIOException
  {
   TextIndex ti = (TextIndex)indexMap.get(idx);
   
   return ti.count(query);
  }
 
+ public TextSearchResult queryTextIndex(AgeIndex idx, String query, String sortField, int offset, int limit) throws IndexIOException
+ {
+  TextIndex ti = (TextIndex)indexMap.get(idx);
+  
+  return ti.select(query, sortField, offset, limit);
+ }
+
 
  public String storeSubmission(SubmissionWritable sbm) throws RelationResolveException, SubmissionStoreException
+ {
+  return storeSubmissions( Collections.singletonList(sbm) ).get(0);
+ }
+
+ public List<String> storeSubmissions(Collection<SubmissionWritable> sbms) throws RelationResolveException, SubmissionStoreException
  {
   if( ! master )
    throw new SubmissionStoreException("Only the master instance can store data");
   
+  List<String> ids = new ArrayList<String>( sbms.size() );
+  
   try
   {
    dbLock.writeLock().lock();
 
+   List<ByteBuffer[]> data = new ArrayList<ByteBuffer[]>( sbms.size() );
+   
+   for( SubmissionWritable sbm : sbms )
+   {
+    String newSubmissionId = "SBM" + IdGenerator.getInstance().getStringId();
 
-   String newSubmissionId = "SBM" + IdGenerator.getInstance().getStringId();
-
-   sbm.setId(newSubmissionId);
+    sbm.setId(newSubmissionId);
+    
+    ids.add(newSubmissionId);
+    data.add( submRW.encode(sbm) );
+   }
  
-   saveSubmission(sbm);
+   // All records go to the log at once so the whole batch is made durable by one force. The batch is published
+   // when it is durable: a failed submission is never seen by the readers
+   try
+   {
+    wal.awaitCommit( wal.append(ids, data) );
+   }
+   catch(IOException e)
+   {
+    throw new SubmissionStoreException("Can't store submission: "+e.getMessage(), e);
+   }
    
-   submissionMap.put(newSubmissionId, sbm);
+   for( SubmissionWritable sbm : sbms )
+   {
+    prepareSubmission(sbm);
+    
+    submissionMap.put(sbm.getId(), sbm);
 
+    for( AgeObjectWritable obj : sbm.getObjects() )
+     mainIndexMap.put(obj.getId(), obj);
+   
+    classIndex.addObjects( sbm.getObjects() );
+    attrIndex.addObjects( sbm.getObjects() );
+    
+    trackGraphChange( sbm.getObjects(), null );
+   }
    
-   for( AgeObjectWritable obj : sbm.getObjects() )
-    mainIndexMap.put(obj.getId(), obj);
+   updateIndices( sbms );
    
-   updateIndices( sbm );
+   dataVersion++;
    
    for(DataChangeListener chls : chgListeners )
     chls.dataChanged();
-   
-   return newSubmissionId;
   }
   finally
   {
    dbLock.writeLock().unlock();
   }
 
+  return ids;
  }
 
 
@@ -261,6 +622,7 @@ public class SerializedStorage implements AgeStorageAdm
   
   modelFile = new File(modelDir, modelFileName );
   dataDir = new File( baseDir, submissionsPath ); 
+  indexDir = new File( baseDir, indexPath );
   
   if( baseDir.isFile() )
    throw new StorageInstantiationException("The initial path must be directory: "+initStr);
@@ -279,97 +641,303 @@ public class SerializedStorage implements AgeStorageAdm
   else
    model = SemanticManager.getInstance().createMasterModel();
   
+  wal = new WriteAheadLog( new File( baseDir, walPath ), dataDir, submRW.getExtension() );
+  
+  try
+  {
+   wal.recover();
+  }
+  catch(IOException e)
+  {
+   throw new StorageInstantiationException("Can't recover submissions from the log", e);
+  }
+
   loadData();
+  
+  try
+  {
+   wal.open();
+  }
+  catch(IOException e)
+  {
+   throw new StorageInstantiationException("Can't open submission log", e);
+  }
  }
 
  
  private void loadData() throws StorageInstantiationException
  {
+  ExecutorService exec = Executors.newFixedThreadPool( LOADER_THREADS );
+
   try
   {
    dbLock.writeLock().lock();
    
-   for( File f : dataDir.listFiles() )
+   long tm = System.currentTimeMillis();
+   
+   List<Callable<SubmissionWritable>> readers = new ArrayList<Callable<SubmissionWritable>>();
+   
+   for( final File f : dataDir.listFiles() )
+   {
+    readers.add( new Callable<SubmissionWritable>()
+    {
+     @Override
+     public SubmissionWritable call() throws Exception
+     {
+      SubmissionWritable submission = submRW.read(f);
+      
+      submission.setMasterModel(model);
+      
+      prepareSubmission(submission);
+      
+      return submission;
+     }
+    });
+   }
+   
+   for( SubmissionWritable submission : runParallel(exec, readers) )
    {
-    SubmissionWritable submission = submRW.read(f);
-    
     submissionMap.put(submission.getId(), submission);
     
     for( AgeObjectWritable obj : submission.getObjects() )
      mainIndexMap.put(obj.getId(), obj);
-    
-    submission.setMasterModel(model);
    }
    
-   for( SubmissionWritable smb : submissionMap.values() )
+   log.info("Submissions read: "+submissionMap.size()+" objects: "+mainIndexMap.size()+" time: "+(System.currentTimeMillis()-tm)+"ms");
+   tm = System.currentTimeMillis();
+   
+   List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+
+   for( final Collection<SubmissionWritable> chunk : split( submissionMap.values() ) )
    {
-    if( smb.getExternalRelations() != null )
+    tasks.add( new Callable<Object>()
     {
-     for( AgeExternalRelationWritable exr : smb.getExternalRelations() )
+     @Override
+     public Object call()
      {
-      if( exr.getTargetObject() != null )
-       continue;
-      
-      AgeObjectWritable tgObj = mainIndexMap.get(exr.getTargetObjectId());
-      
-      if( tgObj == null )
-       log.warn("Can't resolve external relation. "+exr.getTargetObjectId());
-      
-      exr.setTargetObject(tgObj);
+      for( SubmissionWritable smb : chunk )
+       resolveTargets( smb );
       
-      AgeRelationClass invRCls = exr.getAgeElClass().getInverseRelationClass();
-      
-      if( invRCls == null )
-       continue;
-      
-      boolean hasInv = false;
-      
-      for( AgeRelation rl : tgObj.getRelations() )
-      {
-       if( ! rl.getAgeElClass().isClassOrSubclass(invRCls) )
-        continue;
-       
-       if( rl.getTargetObject() == exr.getSourceObject() )
-       {
-        hasInv=true;
-        break;
-       }
-       else if( rl instanceof AgeExternalRelationWritable)
-       {
-        AgeExternalRelationWritable invExR = (AgeExternalRelationWritable) rl;
-        
-        if( invExR.getTargetObjectId().equals(exr.getSourceObject().getId()) )
-        {
-         invExR.setTargetObject(exr.getSourceObject());
-         hasInv=true;
-         break;
-        }
-       }
-      }
-      
-      if( ! hasInv )
-      {
-       AgeExternalRelationWritable invRel = tgObj.getAgeElClass().getSemanticModel().createExternalRelation(tgObj, exr.getSourceObject().getId(), invRCls);
-       invRel.setTargetObject(exr.getSourceObject());
-       invRel.setInferred(true);
-       tgObj.addRelation(invRel);
-      }
+      return null;
+     }
+    });
+   }
+   
+   runParallel(exec, tasks);
+   
+   tasks.clear();
+   
+   // Every target object is connected by one task, so targets needn't be locked
+   Map<AgeObjectWritable, List<AgeExternalRelationWritable>> byTarget = groupByTarget( submissionMap.values() );
+   
+   for( final Collection<Map.Entry<AgeObjectWritable, List<AgeExternalRelationWritable>>> chunk : split( byTarget.entrySet() ) )
+   {
+    tasks.add( new Callable<Object>()
+    {
+     @Override
+     public Object call()
+     {
+      for( Map.Entry<AgeObjectWritable, List<AgeExternalRelationWritable>> me : chunk )
+       connectInverseRelations( me.getKey(), me.getValue() );
       
+      return null;
      }
-    }
+    });
    }
+
+   runParallel(exec, tasks);
+
+   log.info("External relations connected. Time: "+(System.currentTimeMillis()-tm)+"ms");
+   tm = System.currentTimeMillis();
+
+   tasks.clear();
    
-   for( AgeObjectWritable obj : mainIndexMap.values() )
-    connectObjectAttributes( obj );
-  }
-  catch(Exception e)
-  {
-   throw new StorageInstantiationException("Can't read submissions. System error", e);
-  }
-  finally
-  {
-   dbLock.writeLock().unlock();
-  }
+   for( final Collection<AgeObjectWritable> chunk : split( mainIndexMap.values() ) )
+   {
+    tasks.add( new Callable<Object>()
+    {
+     @Override
+     public Object call()
+     {
+      for( AgeObjectWritable obj : chunk )
+       connectObjectAttributes( obj );
+      
+      return null;
+     }
+    });
+   }
+
+   runParallel(exec, tasks);
+
+   log.info("Object attributes connected. Time: "+(System.currentTimeMillis()-tm)+"ms");
+
+   for( SubmissionWritable smb : submissionMap.values() )
+   {
+    classIndex.addObjects( smb.getObjects() );
+    attrIndex.addObjects( smb.getObjects() );
+   }
+  }
+  catch(Exception e)
+  {
+   throw new StorageInstantiationException("Can't read submissions. System error", e);
+  }
+  finally
+  {
+   dbLock.writeLock().unlock();
+   
+   exec.shutdown();
+  }
+ }
+ 
+ private <T> List<T> runParallel( ExecutorService exec, List<Callable<T>> tasks ) throws Exception
+ {
+  List<T> res = new ArrayList<T>( tasks.size() );
+  
+  for( Future<T> ftr : exec.invokeAll(tasks) )
+  {
+   try
+   {
+    res.add( ftr.get() );
+   }
+   catch(ExecutionException e)
+   {
+    if( e.getCause() instanceof Exception )
+     throw (Exception)e.getCause();
+    
+    throw e;
+   }
+  }
+  
+  return res;
+ }
+ 
+ private <T> List<Collection<T>> split( Collection<T> coll )
+ {
+  int chunkSz = coll.size() / (LOADER_THREADS*4) + 1;
+  
+  List<Collection<T>> chunks = new ArrayList<Collection<T>>();
+  
+  List<T> chunk = null;
+  
+  for( T el : coll )
+  {
+   if( chunk == null || chunk.size() == chunkSz )
+   {
+    chunk = new ArrayList<T>( chunkSz );
+    chunks.add(chunk);
+   }
+   
+   chunk.add(el);
+  }
+  
+  return chunks;
+ }
+ 
+ private void resolveTargets( SubmissionWritable smb )
+ {
+  if( smb.getExternalRelations() == null )
+   return;
+  
+  for( AgeExternalRelationWritable exr : smb.getExternalRelations() )
+  {
+   if( exr.getTargetObject() != null )
+    continue;
+   
+   AgeObjectWritable tgObj = mainIndexMap.get(exr.getTargetObjectId());
+   
+   if( tgObj == null )
+    log.warn("Can't resolve external relation. "+exr.getTargetObjectId());
+   else
+    exr.setTargetObject(tgObj);
+  }
+ }
+ 
+ // External relations with an inverse class grouped by their target objects
+ private Map<AgeObjectWritable, List<AgeExternalRelationWritable>> groupByTarget( Collection<SubmissionWritable> sbms )
+ {
+  Map<AgeObjectWritable, List<AgeExternalRelationWritable>> byTarget = new HashMap<AgeObjectWritable, List<AgeExternalRelationWritable>>();
+  
+  for( SubmissionWritable smb : sbms )
+  {
+   if( smb.getExternalRelations() == null )
+    continue;
+   
+   for( AgeExternalRelationWritable exr : smb.getExternalRelations() )
+   {
+    if( exr.getTargetObject() == null || exr.getAgeElClass().getInverseRelationClass() == null )
+     continue;
+    
+    List<AgeExternalRelationWritable> rels = byTarget.get(exr.getTargetObject());
+    
+    if( rels == null )
+     byTarget.put(exr.getTargetObject(), rels = new ArrayList<AgeExternalRelationWritable>(3));
+    
+    rels.add(exr);
+   }
+  }
+  
+  return byTarget;
+ }
+ 
+ /*
+  * Adds to tgObj the inverses of the relations referring to it unless it has them already. The target's external
+  * relations are looked up by the ID of their target, so a target referred to many times isn't scanned every time
+  */
+ private void connectInverseRelations( AgeObjectWritable tgObj, List<AgeExternalRelationWritable> refs )
+ {
+  Map<String, List<AgeExternalRelationWritable>> byId = new HashMap<String, List<AgeExternalRelationWritable>>();
+  
+  if( tgObj.getRelations() != null )
+  {
+   for( AgeRelation rl : tgObj.getRelations() )
+   {
+    if( rl instanceof AgeExternalRelationWritable )
+     addById(byId, (AgeExternalRelationWritable)rl);
+   }
+  }
+  
+  for( AgeExternalRelationWritable exr : refs )
+  {
+   AgeRelationClass invRCls = exr.getAgeElClass().getInverseRelationClass();
+   AgeObjectWritable srcObj = exr.getSourceObject();
+   
+   boolean hasInv = false;
+   
+   List<AgeExternalRelationWritable> cands = byId.get(srcObj.getId());
+   
+   if( cands != null )
+   {
+    for( AgeExternalRelationWritable invExR : cands )
+    {
+     if( invExR.getAgeElClass().isClassOrSubclass(invRCls) )
+     {
+      invExR.setTargetObject(srcObj);
+      hasInv=true;
+      break;
+     }
+    }
+   }
+   
+   if( ! hasInv )
+   {
+    AgeExternalRelationWritable invRel = tgObj.getAgeElClass().getSemanticModel().createExternalRelation(tgObj, srcObj.getId(), invRCls);
+    invRel.setTargetObject(srcObj);
+    invRel.setInferred(true);
+    tgObj.addRelation(invRel);
+    
+    addById(byId, invRel);
+   }
+  }
+ }
+ 
+ private static void addById( Map<String, List<AgeExternalRelationWritable>> byId, AgeExternalRelationWritable rl )
+ {
+  List<AgeExternalRelationWritable> rels = byId.get(rl.getTargetObjectId());
+  
+  if( rels == null )
+   byId.put(rl.getTargetObjectId(), rels = new ArrayList<AgeExternalRelationWritable>(2));
+  
+  rels.add(rl);
  }
  
  private void connectObjectAttributes( Attributed host )
@@ -397,16 +965,23 @@ public class SerializedStorage implements AgeStorageAdm
  
  
  private void loadModel() throws StorageInstantiationException
+ {
+  model = readModel(modelFile);
+   
+  SemanticManager.getInstance().setMasterModel( model );
+ }
+ 
+ static SemanticModel readModel( File modelFile ) throws StorageInstantiationException
  {
   try
   {
    ObjectInputStream ois = new ObjectInputStream( new FileInputStream(modelFile) );
    
-   model = (SemanticModel)ois.readObject();
+   SemanticModel sm = (SemanticModel)ois.readObject();
    
    ois.close();
    
-   SemanticManager.getInstance().setMasterModel( model );
+   return sm;
   }
   catch(Exception e)
   {
@@ -415,6 +990,11 @@ public class SerializedStorage implements AgeStorageAdm
  }
  
  private void saveModel(SemanticModel sm) throws ModelStoreException
+ {
+  writeModel(sm, modelFile);
+ }
+ 
+ static void writeModel(SemanticModel sm, File modelFile) throws ModelStoreException
  {
   File modelFile2 = new File( modelFile.getAbsolutePath() );
   File tmpModelFile = new File(modelFile.getAbsolutePath()+".tmp");
@@ -442,26 +1022,53 @@ public class SerializedStorage implements AgeStorageAdm
   }
  }
 
- private void saveSubmission(SubmissionWritable sm) throws SubmissionStoreException
+ public void shutdown()
  {
-  File sbmFile = new File( dataDir, sm.getId()+submRW.getExtension() );
+  if( wal != null )
+   wal.close();
   
-  try
+  long gen = getDataGeneration();
+  
+  for( Map.Entry<AgeIndex, TextIndexDefinition> me : indexDefMap.entrySet() )
   {
-   submRW.write(sm, sbmFile);
+   TextIndexDefinition def = me.getValue();
+
+   // Without the definition the index is rebuilt at the next start
+   try
+   {
+    ((TextIndex)indexMap.get(me.getKey())).commit();
+   }
+   catch(IndexIOException e)
+   {
+    log.error(e.getMessage(), e);
+    def.delete();
+    continue;
+   }
+   
+   def.setGeneration(gen);
+   
+   try
+   {
+    def.write();
+   }
+   catch(IOException e)
+   {
+    log.error("Can't write index definition: "+e.getMessage(), e);
+   }
   }
-  catch(Exception e)
+  
+  for( AgeStorageIndex idx : indexMap.values() )
   {
-   sbmFile.delete();
-   
-   throw new SubmissionStoreException("Can't store model: "+e.getMessage(), e);
+   try
+   {
+    idx.close();
+   }
+   catch(IndexIOException e)
+   {
+    log.error(e.getMessage(), e);
+   }
   }
  }
- 
- public void shutdown()
- {
-
- }
 
  @Override
  public boolean updateSemanticModel(SemanticModel sm, LogNode bfLog ) //throws ModelStoreException
@@ -472,72 +1079,229 @@ public class SerializedStorage implements AgeStorageAdm
    return false;
   }
   
-  try
+  // Model updates are serialized with each other but not with data access
+  synchronized(modelUpdateLock)
   {
-   dbLock.writeLock().lock();
- 
-   AgeSemanticValidator validator = SubmissionManager.getInstance().getAgeSemanticValidator();
-   
-   boolean res = true;
-   
-   LogNode vldBranch = bfLog.branch("Validating model"); 
-   
-   for(SubmissionWritable sbm : submissionMap.values())
+   ExecutorService exec = Executors.newFixedThreadPool( LOADER_THREADS );
+
+   try
    {
-    BufferLogger submLog=new BufferLogger();
-    
-    LogNode ln = submLog.getRootNode().branch("Validating submission: "+sbm.getId());
+    LogNode vldBranch = bfLog.branch("Validating model"); 
+
+    int attempt = 1;
     
-    if( ! validator.validate(sbm, sm, ln) )
+    while( true )
     {
-     ln.log(Level.ERROR,"Validation failed");
-     res = false;
-     vldBranch.append( submLog.getRootNode() );
+     // The last attempt holds the write lock during validation so a steady flow of submissions can't starve the update
+     boolean optimistic = attempt < MODEL_UPDATE_ATTEMPTS;
+     
+     // Only the lock taken here is released, the caller may hold the write lock too
+     boolean locked = false;
+     
+     if( ! optimistic )
+     {
+      dbLock.writeLock().lock();
+      locked = true;
+     }
+
+     try
+     {
+      long ver = dataVersion;
+
+      Boolean vldRes = validateModel(sm, vldBranch, ver, exec);
+
+      if( vldRes == null ) // data changed under the validator
+      {
+       vldBranch = bfLog.branch("Data was modified during model validation. Validating model again"); 
+       attempt++;
+       continue;
+      }
+      
+      if( ! vldRes )
+      {
+       BufferLogger.printBranch(vldBranch);
+       
+       vldBranch.log(Level.ERROR,"Validation failed");    
+       return false;
+      }
+
+      if( optimistic )
+      {
+       dbLock.writeLock().lock();
+       locked = true;
+      }
+      
+      if( dataVersion != ver )
+      {
+       dbLock.writeLock().unlock();
+       locked = false;
+       
+       vldBranch = bfLog.branch("Data was modified during model validation. Validating model again"); 
+       attempt++;
+       continue;
+      }
+      
+      vldBranch.log(Level.INFO,"Success");    
+
+      return installModel(sm, bfLog);
+     }
+     finally
+     {
+      if( locked )
+       dbLock.writeLock().unlock();
+     }
     }
    }
-   
-   if( !res )
+   finally
    {
-    BufferLogger.printBranch(vldBranch);
-    
-    vldBranch.log(Level.ERROR,"Validation failed");    
-    return false;
+    exec.shutdown();
    }
-   else
-    vldBranch.log(Level.INFO,"Success");    
+  }
+ }
+ 
+ /*
+  * Validates all submissions against the candidate model in parallel. Submissions aren't locked: if data is
+  * changed meanwhile (i.e. dataVersion differs from ver) the result is useless and null is returned.
+  * A writer bumps the version after its changes, so the version is compared under the read lock, when
+  * the writer the validator may have run into is done.
+  */
+ private Boolean validateModel( final SemanticModel sm, LogNode vldBranch, long ver, ExecutorService exec )
+ {
+  final AgeSemanticValidator validator = SubmissionManager.getInstance().getAgeSemanticValidator();
 
+  List<SubmissionWritable> sbms = null;
+  
+  try
+  {
+   dbLock.readLock().lock();
    
-   LogNode saveBranch = bfLog.branch("Saving model"); 
-
-   try
+   sbms = new ArrayList<SubmissionWritable>( submissionMap.values() );
+  }
+  finally
+  {
+   dbLock.readLock().unlock();
+  }
+  
+  List<Callable<List<LogNode>>> tasks = new ArrayList<Callable<List<LogNode>>>();
+  
+  for( final Collection<SubmissionWritable> chunk : split( sbms ) )
+  {
+   tasks.add( new Callable<List<LogNode>>()
    {
-    saveModel(sm);
-   }
-   catch(ModelStoreException e)
+    @Override
+    public List<LogNode> call()
+    {
+     List<LogNode> failed = new ArrayList<LogNode>();
+     
+     for(SubmissionWritable sbm : chunk)
+     {
+      BufferLogger submLog=new BufferLogger();
+      
+      LogNode ln = submLog.getRootNode().branch("Validating submission: "+sbm.getId());
+      
+      if( ! validator.validate(sbm, sm, ln) )
+      {
+       ln.log(Level.ERROR,"Validation failed");
+       failed.add( submLog.getRootNode() );
+      }
+     }
+     
+     return failed;
+    }
+   });
+  }
+  
+  List<List<LogNode>> res = null;
+  Exception failure = null;
+  
+  try
+  {
+   res = runParallel(exec, tasks);
+  }
+  catch(Exception e)
+  {
+   failure = e;
+  }
+  
+  long curVer;
+  
+  try
+  {
+   dbLock.readLock().lock();
+   
+   curVer = dataVersion;
+  }
+  finally
+  {
+   dbLock.readLock().unlock();
+  }
+  
+  if( curVer != ver ) // an exception most likely means the validator has seen half-done changes
+   return null;
+  
+  if( failure instanceof RuntimeException )
+   throw (RuntimeException)failure;
+  
+  if( failure != null )
+   throw new RuntimeException("Model validation failed: "+failure.getMessage(), failure);
+  
+  boolean ok = true;
+  
+  for( List<LogNode> failed : res )
+  {
+   for( LogNode ln : failed )
    {
-    saveBranch.log(Level.ERROR, "Model saving failed: "+e.getMessage());
-    return false;
+    vldBranch.append( ln );
+    ok = false;
    }
+  }
+  
+  return ok;
+ }
+ 
+ // Must be called under the write lock
+ private boolean installModel( SemanticModel sm, LogNode bfLog )
+ {
+  LogNode saveBranch = bfLog.branch("Saving model"); 
 
-   saveBranch.log(Level.INFO, "Success");
+  try
+  {
+   saveModel(sm);
+  }
+  catch(ModelStoreException e)
+  {
+   saveBranch.log(Level.ERROR, "Model saving failed: "+e.getMessage());
+   return false;
+  }
 
-   LogNode setupBranch = bfLog.branch("Installing model"); 
+  saveBranch.log(Level.INFO, "Success");
 
-   
-   for(SubmissionWritable sbm : submissionMap.values())
-    sbm.setMasterModel(sm);
+  LogNode setupBranch = bfLog.branch("Installing model"); 
 
-   model = sm;
+  
+  for(SubmissionWritable sbm : submissionMap.values())
+   sbm.setMasterModel(sm);
 
-   SemanticManager.getInstance().setMasterModel(model);
-   
-   setupBranch.log(Level.INFO, "Success");
-  }
-  finally
+  model = sm;
+
+  classIndex.clear();
+  attrIndex.clear();
+  
+  for(SubmissionWritable sbm : submissionMap.values())
   {
-   dbLock.writeLock().unlock();
+   classIndex.addObjects( sbm.getObjects() );
+   attrIndex.addObjects( sbm.getObjects() );
   }
 
+  // Relation classes come from the new model, the graph is built anew
+  dropGraph();
+
+  dataVersion++;
+
+  SemanticManager.getInstance().setMasterModel(model);
+  
+  setupBranch.log(Level.INFO, "Success");
+  
   return true;
  }
 
@@ -573,6 +1337,85 @@ public class SerializedStorage implements AgeStorageAdm
   dbLock.writeLock().unlock();
  }
 
+ @Override
+ public void lockRead()
+ {
+  dbLock.readLock().lock();
+ }
+
+ @Override
+ public void unlockRead()
+ {
+  dbLock.readLock().unlock();
+ }
+
+ @Override
+ public long getDataVersion()
+ {
+  return dataVersion;
+ }
+
+ /*
+  * Snapshot of the relations between the stored objects for Traverser. The first call after a data change
+  * extends the graph with the objects stored and changed since it was made
+  */
+ public RelationGraph getRelationGraph()
+ {
+  RelationGraph g = relationGraph;
+  
+  if( g != null && g.getVersion() == dataVersion )
+   return g;
+  
+  try
+  {
+   dbLock.readLock().lock();
+   
+   synchronized(graphLock)
+   {
+    g = relationGraph;
+    
+    if( g == null )
+     relationGraph = g = RelationGraph.build(mainIndexMap.values(), dataVersion);
+    else if( g.getVersion() != dataVersion )
+     relationGraph = g = RelationGraph.extend(g, graphAdded, graphChanged, dataVersion);
+    
+    graphAdded.clear();
+    graphChanged.clear();
+    
+    return g;
+   }
+  }
+  finally
+  {
+   dbLock.readLock().unlock();
+  }
+ }
+
+ // Must be called under the write lock. A graph the changes have outgrown is dropped, building a new one is cheaper
+ private void trackGraphChange( Collection< ? extends AgeObject> added, AgeObject changed )
+ {
+  RelationGraph g = relationGraph;
+  
+  if( g == null )
+   return;
+  
+  if( added != null )
+   graphAdded.addAll(added);
+  
+  if( changed != null )
+   graphChanged.add(changed);
+  
+  if( graphAdded.size()+graphChanged.size() > g.getObjectCount() )
+   dropGraph();
+ }
+ 
+ private void dropGraph()
+ {
+  relationGraph = null;
+  graphAdded.clear();
+  graphChanged.clear();
+ }
+ 
  @Override
  public void addRelations(String key, Collection<AgeRelationWritable> rels)
  {
@@ -580,6 +1423,12 @@ public class SerializedStorage implements AgeStorageAdm
   
   for( AgeRelationWritable r : rels )
    obj.addRelation(r);
+  
+  trackGraphChange( null, obj );
+  
+  updateIndices(obj);
+  
+  dataVersion++;
  }
 
 
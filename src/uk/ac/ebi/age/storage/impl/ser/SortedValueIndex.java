@@ -0,0 +1,179 @@
+package uk.ac.ebi.age.storage.impl.ser;
+
+import java.util.Collection;
+
+import uk.ac.ebi.age.model.AgeObject;
+
+// Parallel arrays of values and owning objects. Values are appended unsorted and sorted lazily on the first lookup:
+// the appended tail is sorted alone and merged into the sorted part
+abstract class SortedValueIndex
+{
+ private static final int INSERTION_SORT_THRESHOLD = 16;
+ 
+ protected AgeObject[] objects = new AgeObject[16];
+ protected int size = 0;
+ 
+ // Number of leading entries in order
+ private volatile int sortedSize = 0;
+
+ protected abstract int compare( int i, int j );
+ protected abstract void swapValues( int i, int j );
+ protected abstract void moveValue( int from, int to );
+ protected abstract void resizeValues( int cap );
+ 
+ protected int append( AgeObject obj )
+ {
+  ensureCapacity(size+1);
+  
+  objects[size] = obj;
+  
+  return size++;
+ }
+ 
+ private void ensureCapacity( int cap )
+ {
+  if( cap <= objects.length )
+   return;
+  
+  int ncap = objects.length*2;
+  
+  while( ncap < cap )
+   ncap *= 2;
+  
+  AgeObject[] nobjs = new AgeObject[ ncap ];
+  System.arraycopy(objects, 0, nobjs, 0, size);
+  objects = nobjs;
+  
+  resizeValues( ncap );
+ }
+ 
+ int size()
+ {
+  return size;
+ }
+ 
+ protected void ensureSorted()
+ {
+  if( sortedSize == size )
+   return;
+  
+  synchronized(this)
+  {
+   if( sortedSize == size )
+    return;
+   
+   sort(sortedSize, size-1);
+   
+   if( sortedSize > 0 )
+    merge(sortedSize);
+   
+   sortedSize = size;
+  }
+ }
+ 
+ /*
+  * Merges the sorted tail starting at mid into the sorted entries before it. The tail is moved beyond size and
+  * merged back from the end, so the entries less than the smallest tail value stay in place
+  */
+ private void merge( int mid )
+ {
+  int tlen = size-mid;
+  
+  ensureCapacity(size+tlen);
+  
+  for( int k=0; k < tlen; k++ )
+   move(mid+k, size+k);
+  
+  int i = mid-1;
+  int j = size+tlen-1;
+  int k = size-1;
+  
+  while( j >= size )
+  {
+   // On equal values the tail entry goes last, as appended
+   if( i >= 0 && compare(i, j) > 0 )
+    move(i--, k--);
+   else
+    move(j--, k--);
+  }
+  
+  for( int n=size; n < size+tlen; n++ )
+   objects[n] = null;
+ }
+ 
+ protected void collect( int from, int to, Collection<AgeObject> res )
+ {
+  for( int i=from; i < to; i++ )
+   res.add( objects[i] );
+ }
+ 
+ private void move( int from, int to )
+ {
+  objects[to] = objects[from];
+  
+  moveValue(from, to);
+ }
+ 
+ private void swap( int i, int j )
+ {
+  AgeObject t = objects[i];
+  objects[i] = objects[j];
+  objects[j] = t;
+  
+  swapValues(i, j);
+ }
+ 
+ private void sort( int lo, int hi )
+ {
+  while( hi - lo > INSERTION_SORT_THRESHOLD )
+  {
+   int mid = (lo+hi) >>> 1;
+   
+   if( compare(mid, lo) < 0 )
+    swap(mid, lo);
+   
+   if( compare(hi, lo) < 0 )
+    swap(hi, lo);
+
+   if( compare(hi, mid) < 0 )
+    swap(hi, mid);
+   
+   swap(mid, hi-1);
+   
+   int pv = hi-1;
+   int i = lo;
+   int j = hi-1;
+   
+   while( true )
+   {
+    while( compare(++i, pv) < 0 )
+     ;
+    
+    while( compare(--j, pv) > 0 )
+     ;
+    
+    if( i >= j )
+     break;
+    
+    swap(i, j);
+   }
+   
+   swap(i, hi-1);
+   
+   if( i - lo < hi - i )
+   {
+    sort(lo, i-1);
+    lo = i+1;
+   }
+   else
+   {
+    sort(i+1, hi);
+    hi = i-1;
+   }
+  }
+  
+  for( int i=lo+1; i <= hi; i++ )
+   for( int j=i; j > lo && compare(j, j-1) < 0; j-- )
+    swap(j, j-1);
+ }
+}
@@ -0,0 +1,88 @@
+package uk.ac.ebi.age.storage.impl.ser;
+
+import java.util.Collection;
+
+import uk.ac.ebi.age.model.AgeObject;
+
+class StringValueIndex extends SortedValueIndex
+{
+ private String[] values = new String[16];
+
+ void add( String v, AgeObject obj )
+ {
+  int i = append(obj);
+  
+  values[i] = v;
+ }
+ 
+ void selectEqual( String key, Collection<AgeObject> res )
+ {
+  ensureSorted();
+  
+  int from = lowerBound(key);
+  int to = from;
+  
+  while( to < size && values[to].equals(key) )
+   to++;
+  
+  collect(from, to, res);
+ }
+
+ void selectPrefix( String prefix, Collection<AgeObject> res )
+ {
+  ensureSorted();
+  
+  int from = lowerBound(prefix);
+  int to = from;
+  
+  while( to < size && values[to].startsWith(prefix) )
+   to++;
+  
+  collect(from, to, res);
+ }
+
+ private int lowerBound( String key )
+ {
+  int l=0, h=size;
+  
+  while( l < h )
+  {
+   int m = (l+h) >>> 1;
+   
+   if( values[m].compareTo(key) < 0 )
+    l = m+1;
+   else
+    h = m;
+  }
+  
+  return l;
+ }
+
+ @Override
+ protected int compare(int i, int j)
+ {
+  return values[i].compareTo(values[j]);
+ }
+
+ @Override
+ protected void swapValues(int i, int j)
+ {
+  String t = values[i];
+  values[i] = values[j];
+  values[j] = t;
+ }
+
+ @Override
+ protected void moveValue(int from, int to)
+ {
+  values[to] = values[from];
+ }
+
+ @Override
+ protected void resizeValues(int cap)
+ {
+  String[] nv = new String[cap];
+  System.arraycopy(values, 0, nv, 0, size);
+  values = nv;
+ }
+}
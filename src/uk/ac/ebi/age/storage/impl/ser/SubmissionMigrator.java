@@ -0,0 +1,96 @@
+package uk.ac.ebi.age.storage.impl.ser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+
+import uk.ac.ebi.age.mng.SemanticManager;
+import uk.ac.ebi.age.model.SemanticModel;
+import uk.ac.ebi.age.model.writable.SubmissionWritable;
+import uk.ac.ebi.age.storage.impl.BinarySubmissionReaderWriter;
+
+public class SubmissionMigrator
+{
+ private BinarySubmissionReaderWriter submRW = new BinarySubmissionReaderWriter();
+
+ public static void main(String[] args)
+ {
+  if( args.length != 1 )
+  {
+   System.err.println("Usage: SubmissionMigrator <storage directory>");
+   System.exit(1);
+  }
+
+  try
+  {
+   int n = new SubmissionMigrator().migrate( new File(args[0]) );
+
+   System.out.println("Converted submissions: "+n);
+  }
+  catch(Exception e)
+  {
+   e.printStackTrace();
+   System.exit(2);
+  }
+ }
+
+ public int migrate( File baseDir ) throws IOException, ClassNotFoundException
+ {
+  File modelFile = new File( new File(baseDir, SerializedStorage.modelPath), SerializedStorage.modelFileName );
+  File dataDir = new File( baseDir, SerializedStorage.submissionsPath );
+
+  if( ! dataDir.isDirectory() )
+   throw new IOException("Submission directory not found: "+dataDir.getAbsolutePath());
+
+  SemanticModel model = null;
+
+  if( modelFile.canRead() )
+  {
+   ObjectInputStream ois = new ObjectInputStream( new FileInputStream(modelFile) );
+
+   try
+   {
+    model = (SemanticModel)ois.readObject();
+   }
+   finally
+   {
+    ois.close();
+   }
+
+   SemanticManager.getInstance().setMasterModel( model );
+  }
+  else
+   model = SemanticManager.getInstance().createMasterModel();
+
+  int count = 0;
+
+  for( File f : dataDir.listFiles() )
+  {
+   if( ! f.isFile() || f.getName().endsWith(submRW.getExtension()) || submRW.isBinaryFormat(f) )
+    continue;
+
+   SubmissionWritable sbm = submRW.getLegacyReaderWriter().read(f);
+
+   sbm.setMasterModel(model);
+
+   File outFile = new File(dataDir, sbm.getId()+submRW.getExtension());
+   File tmpFile = new File(dataDir, sbm.getId()+submRW.getExtension()+".tmp");
+
+   submRW.write(sbm, tmpFile);
+
+   if( outFile.exists() && ! outFile.delete() )
+    throw new IOException("Can't delete file: "+outFile.getAbsolutePath());
+
+   if( ! tmpFile.renameTo(outFile) )
+    throw new IOException("Can't rename file: "+tmpFile.getAbsolutePath());
+
+   if( ! f.delete() )
+    throw new IOException("Can't delete file: "+f.getAbsolutePath());
+
+   count++;
+  }
+
+  return count;
+ }
+}
@@ -0,0 +1,130 @@
+package uk.ac.ebi.age.storage.impl.ser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import uk.ac.ebi.age.query.AgeQuery;
+import uk.ac.ebi.age.storage.index.TextFieldExtractor;
+
+// Persisted next to an on-disk text index. The index is reused only if the definition and the data generation are the same
+class TextIndexDefinition implements Serializable
+{
+ private static final long serialVersionUID = 1L;
+
+ static final String fileName = "index.def";
+ 
+ // Incremented when the document layout changes so that indices written by older versions are rebuilt
+ private static final int LAYOUT_VERSION = 1;
+ 
+ private byte[] query;
+ private List<String> fields = new ArrayList<String>();
+ private long generation;
+ private int layout = LAYOUT_VERSION;
+ 
+ private transient File directory;
+ 
+ TextIndexDefinition( File dir, AgeQuery qury, Collection<TextFieldExtractor> exts ) throws IOException
+ {
+  directory = dir;
+  
+  ByteArrayOutputStream bos = new ByteArrayOutputStream();
+  
+  ObjectOutputStream oos = new ObjectOutputStream(bos);
+  oos.writeObject(qury);
+  oos.close();
+  
+  query = bos.toByteArray();
+  
+  for( TextFieldExtractor tfe : exts )
+   fields.add(tfe.getName());
+ }
+
+ File getDirectory()
+ {
+  return directory;
+ }
+ 
+ long getGeneration()
+ {
+  return generation;
+ }
+
+ void setGeneration(long generation)
+ {
+  this.generation = generation;
+ }
+ 
+ boolean isSame( TextIndexDefinition def )
+ {
+  return def.layout == layout && def.generation == generation && Arrays.equals(def.query, query) && def.fields.equals(fields);
+ }
+ 
+ // Returns null if there is no readable definition in the directory
+ static TextIndexDefinition read( File dir )
+ {
+  File f = new File(dir, fileName);
+  
+  if( ! f.canRead() )
+   return null;
+  
+  try
+  {
+   ObjectInputStream ois = new ObjectInputStream( new FileInputStream(f) );
+   
+   try
+   {
+    TextIndexDefinition def = (TextIndexDefinition)ois.readObject();
+    
+    def.directory = dir;
+    
+    return def;
+   }
+   finally
+   {
+    ois.close();
+   }
+  }
+  catch(Exception e)
+  {
+   return null;
+  }
+ }
+ 
+ void write() throws IOException
+ {
+  File f = new File(directory, fileName);
+  File tmp = new File(directory, fileName+".tmp");
+  
+  ObjectOutputStream oos = new ObjectOutputStream( new FileOutputStream(tmp) );
+  
+  try
+  {
+   oos.writeObject(this);
+  }
+  finally
+  {
+   oos.close();
+  }
+  
+  if( f.exists() && ! f.delete() )
+   throw new IOException("Can't delete file: "+f.getAbsolutePath());
+  
+  if( ! tmp.renameTo(f) )
+   throw new IOException("Can't rename file: "+tmp.getAbsolutePath());
+ }
+ 
+ void delete()
+ {
+  new File(directory, fileName).delete();
+ }
+}
@@ -1,94 +1,347 @@
 package uk.ac.ebi.age.storage.impl.ser;
 
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
-import java.util.Set;
 
 import uk.ac.ebi.age.model.AgeObject;
 import uk.ac.ebi.age.model.AgeRelation;
+import uk.ac.ebi.age.model.AgeRelationClass;
 
+/*
+ * Walks the objects reachable from the start object, the start object first. With a RelationGraph the walk runs over
+ * object ordinals and can follow incoming relations too, without it the objects' own relation lists are followed.
+ * Options have to be set before the iteration starts.
+ */
 public class Traverser implements Iterable<AgeObject>, Iterator<AgeObject>
 {
- enum Strategy
+ public enum Strategy
  {
   DEPTH_FIRST,
   WIDTH_FIRST
  }
- 
- private static final Strategy strategy = Strategy.DEPTH_FIRST;
- 
- private LinkedList<AgeObject> listToVisit = new LinkedList<AgeObject>();
- 
+
+ public enum Direction
+ {
+  OUTGOING,
+  INCOMING,
+  BOTH
+ }
+
+ private Strategy strategy = Strategy.DEPTH_FIRST;
+ private Direction direction = Direction.OUTGOING;
+ private int maxDepth = -1;
+ private List<AgeRelationClass> relClasses;
+
+ private RelationGraph graph;
+ private BitSet classMask;
+
+ // Ordinals given on the fly when there is no graph
+ private List<AgeObject> objects;
+ private Map<AgeObject, Integer> ordinals;
+
+ private AgeObject startObject;
+ private boolean started;
+
+ private BitSet visited = new BitSet();
+
+ // Depth limited DFS: the smallest depth each object was expanded at. A shallower path reaching the object again
+ // expands it again, otherwise objects within the limit behind it would be missed
+ private int[] expandDepths;
+
+ // BFS takes from the head, DFS from the tail
+ private int[] frontier = new int[16];
+ private int[] depths = new int[16];
+ private int head;
+ private int tail;
+
  private AgeObject preparedObject;
- private Set<AgeObject> visited = new HashSet<AgeObject>();
+ private int preparedDepth;
+ private int lastDepth = -1;
 
  public Traverser( AgeObject stNd )
  {
-  preparedObject = stNd;
-  addNodesToVisit(stNd);
+  startObject = stNd;
+
+  objects = new ArrayList<AgeObject>();
+  ordinals = new IdentityHashMap<AgeObject, Integer>();
+ }
+
+ public Traverser( RelationGraph g, AgeObject stNd )
+ {
+  startObject = stNd;
+  graph = g;
+ }
+
+ public void setStrategy( Strategy st )
+ {
+  strategy = st;
+ }
+
+ public void setDirection( Direction dir )
+ {
+  if( graph == null && dir != Direction.OUTGOING )
+   throw new IllegalStateException("Incoming relations can be followed with a relation graph only");
+
+  direction = dir;
+ }
+
+ // Objects farther than depth relations from the start object are not visited. Negative - no limit
+ public void setMaxDepth( int depth )
+ {
+  maxDepth = depth;
+ }
+
+ // Only relations of the given classes (and their subclasses) are followed. All relations if none is added
+ public void addRelationClass( AgeRelationClass cls )
+ {
+  if( relClasses == null )
+   relClasses = new ArrayList<AgeRelationClass>(3);
+
+  relClasses.add(cls);
  }
 
- 
  public Iterator<AgeObject> iterator()
  {
   return this;
  }
 
+ // Number of relations between the start object and the object last returned by next()
+ public int getDepth()
+ {
+  return lastDepth;
+ }
+
+ private void start()
+ {
+  started = true;
+
+  if( graph != null && relClasses != null )
+  {
+   classMask = new BitSet();
+
+   for( int i=0; i < graph.getRelationClassCount(); i++ )
+   {
+    if( matchClass( graph.getRelationClass(i) ) )
+     classMask.set(i);
+   }
+  }
+
+  int st = getOrdinal(startObject);
+
+  if( st < 0 )
+  {
+   // not in the graph, nothing but the object itself is known
+   preparedObject = startObject;
+   preparedDepth = 0;
+  }
+  else
+   push(st, 0);
+ }
+
  public boolean hasNext()
  {
+  if( ! started )
+   start();
+
   if( preparedObject != null )
    return true;
-  
-  if( listToVisit.size() == 0 )
-   return false;
-  
+
+  while( head < tail )
+  {
+   int n, d;
+
+   if( strategy == Strategy.DEPTH_FIRST )
+   {
+    tail--;
+    n = frontier[tail];
+    d = depths[tail];
+
+    if( maxDepth >= 0 )
+    {
+     if( d >= getExpandDepth(n) )
+      continue;
+
+     expandDepths[n] = d;
+
+     if( visited.get(n) )
+     {
+      if( d < maxDepth )
+       expand(n, d+1);
+
+      continue;
+     }
+    }
+    // DFS marks objects when they are taken, so the stack may hold an object more than once
+    else if( visited.get(n) )
+     continue;
+
+    visited.set(n);
+   }
+   else
+   {
+    n = frontier[head];
+    d = depths[head];
+    head++;
+   }
+
+   if( head == tail )
+    head = tail = 0;
+
+   if( maxDepth < 0 || d < maxDepth )
+    expand(n, d+1);
+
+   preparedObject = graph != null ? graph.getObject(n) : objects.get(n);
+   preparedDepth = d;
+
+   return true;
+  }
+
+  return false;
+ }
+
+ private void expand( int n, int d )
+ {
+  if( graph == null )
+  {
+   expandObject(objects.get(n), d);
+   return;
+  }
+
+  if( direction != Direction.INCOMING )
+   expandEdges(graph.outStart, graph.outTargets, graph.outClasses, n, d);
+
+  if( direction != Direction.OUTGOING )
+   expandEdges(graph.inStart, graph.inSources, graph.inClasses, n, d);
+ }
+
+ private void expandEdges( int[] start, int[] adj, int[] cls, int n, int d )
+ {
+  // DFS pushes in reverse to visit the edges in their order
   if( strategy == Strategy.DEPTH_FIRST )
   {
-   preparedObject = listToVisit.getLast();
-   listToVisit.removeLast();
+   for( int i=start[n+1]-1; i >= start[n]; i-- )
+    if( classMask == null || classMask.get(cls[i]) )
+     push(adj[i], d);
   }
   else
   {
-   preparedObject = listToVisit.getFirst();
-   listToVisit.removeFirst();
+   for( int i=start[n]; i < start[n+1]; i++ )
+    if( classMask == null || classMask.get(cls[i]) )
+     push(adj[i], d);
   }
- 
-  addNodesToVisit(preparedObject);
-  
-  return true;
  }
 
- private void addNodesToVisit(AgeObject obj)
+ private void expandObject( AgeObject obj, int d )
  {
-  for( AgeRelation rel : obj.getRelations() )
+  Collection< ? extends AgeRelation> rels = obj.getRelations();
+
+  if( rels == null )
+   return;
+
+  AgeRelation[] rla = rels.toArray( new AgeRelation[rels.size()] );
+
+  for( int i=0; i < rla.length; i++ )
   {
-   if( visited.add(rel.getTargetObject()) )
-   {
-    listToVisit.add(rel.getTargetObject());
-   }
+   AgeRelation rel = rla[ strategy == Strategy.DEPTH_FIRST ? rla.length-1-i : i ];
+
+   if( rel.getTargetObject() == null || ( relClasses != null && ! matchClass(rel.getAgeElClass()) ) )
+    continue;
+
+   push(getOrdinal(rel.getTargetObject()), d);
   }
  }
 
+ private boolean matchClass( AgeRelationClass cls )
+ {
+  for( AgeRelationClass rc : relClasses )
+  {
+   if( cls.isClassOrSubclass(rc) )
+    return true;
+  }
 
- public AgeObject next()
+  return false;
+ }
+
+ private int getOrdinal( AgeObject obj )
  {
-  if( preparedObject == null && !  hasNext() )
-   throw new NoSuchElementException();
-  
-  
-  if( preparedObject != null )
+  if( graph != null )
+   return graph.getOrdinal(obj);
+
+  Integer ord = ordinals.get(obj);
+
+  if( ord == null )
+  {
+   ord = objects.size();
+
+   objects.add(obj);
+   ordinals.put(obj, ord);
+  }
+
+  return ord;
+ }
+
+ private int getExpandDepth( int n )
+ {
+  if( expandDepths == null || n >= expandDepths.length )
+  {
+   int len = expandDepths == null ? 16 : expandDepths.length;
+
+   while( len <= n )
+    len *= 2;
+
+   int from = expandDepths == null ? 0 : expandDepths.length;
+
+   expandDepths = expandDepths == null ? new int[len] : Arrays.copyOf(expandDepths, len);
+
+   Arrays.fill(expandDepths, from, len, Integer.MAX_VALUE);
+  }
+
+  return expandDepths[n];
+ }
+
+ private void push( int n, int d )
+ {
+  if( strategy == Strategy.DEPTH_FIRST && maxDepth >= 0 )
+  {
+   if( d >= getExpandDepth(n) )
+    return;
+  }
+  else if( visited.get(n) )
+   return;
+
+  // BFS marks objects when they are queued
+  if( strategy == Strategy.WIDTH_FIRST )
+   visited.set(n);
+
+  if( tail == frontier.length )
   {
-   AgeObject toReturn =preparedObject;
-   preparedObject = null;
-   return toReturn;
+   frontier = Arrays.copyOf(frontier, tail*2);
+   depths = Arrays.copyOf(depths, tail*2);
   }
-  
+
+  frontier[tail] = n;
+  depths[tail] = d;
+  tail++;
+ }
+
+ public AgeObject next()
+ {
   if( ! hasNext() )
    throw new NoSuchElementException();
-  
-  return preparedObject;
+
+  AgeObject toReturn = preparedObject;
+  lastDepth = preparedDepth;
+
+  preparedObject = null;
+
+  return toReturn;
  }
 
  public void remove()
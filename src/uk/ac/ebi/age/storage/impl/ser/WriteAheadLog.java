@@ -0,0 +1,597 @@
+package uk.ac.ebi.age.storage.impl.ser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/*
+ * Append-only log of stored submissions. Record layout:
+ *
+ *  int record length, int id length, id (UTF-8), submission data, long CRC32 of id and data
+ *
+ * Records appended by concurrent writers are collected by the commit thread and made durable
+ * with a single force(). If a write fails the segment is truncated back to the previous batch and only
+ * the failed batch's tickets fail. If even that fails the log stops and no more records are accepted.
+ * The checkpointer periodically closes the current segment and copies its records into per-submission
+ * files of the data directory.
+ */
+
+class WriteAheadLog
+{
+ private static final String segmentPrefix = "wal-";
+ private static final String segmentSuffix = ".log";
+
+ private static final long SEGMENT_SIZE_LIMIT = 16*1024*1024;
+ private static final long CHECKPOINT_INTERVAL = 30000;
+
+ private static final Charset UTF8 = Charset.forName("UTF-8");
+
+ private Log log = LogFactory.getLog(this.getClass());
+
+ private File logDir;
+ private File dataDir;
+ private String dataExt;
+
+ private RandomAccessFile segmentFile;
+ private FileChannel segmentChannel;
+ private long segmentSeq;
+ private long segmentSize;
+ private Object segmentLock = new Object();
+
+ private List<ByteBuffer> pending = new ArrayList<ByteBuffer>();
+ private long appendedTicket = 0;
+ private long durableTicket = 0;
+ private Map<Long, IOException> failedTickets = new HashMap<Long, IOException>();
+ private IOException failure;
+ private boolean closed = false;
+
+ private Thread commitThread;
+ private Thread checkpointThread;
+
+ WriteAheadLog( File logDir, File dataDir, String dataExt )
+ {
+  this.logDir = logDir;
+  this.dataDir = dataDir;
+  this.dataExt = dataExt;
+ }
+
+ void recover() throws IOException
+ {
+  if( ! logDir.exists() )
+   logDir.mkdirs();
+
+  List<File> segs = listSegments();
+
+  for( int i=0; i < segs.size(); i++ )
+  {
+   File seg = segs.get(i);
+
+   // Only the last segment can end with a record torn by a crash
+   int n = checkpointSegment(seg, i == segs.size()-1);
+
+   log.info("Recovered "+n+" submission(s) from log segment "+seg.getName());
+  }
+ }
+
+ void open() throws IOException
+ {
+  List<File> segs = listSegments();
+
+  segmentSeq = 0;
+
+  if( segs.size() > 0 )
+   segmentSeq = getSegmentSeq(segs.get(segs.size()-1));
+
+  openSegment();
+
+  commitThread = new Thread("AGE WAL commit")
+  {
+   @Override
+   public void run()
+   {
+    commitLoop();
+   }
+  };
+
+  checkpointThread = new Thread("AGE WAL checkpoint")
+  {
+   @Override
+   public void run()
+   {
+    checkpointLoop();
+   }
+  };
+
+  commitThread.setDaemon(true);
+  checkpointThread.setDaemon(true);
+
+  commitThread.start();
+  checkpointThread.start();
+ }
+
+ synchronized long append( String id, ByteBuffer[] data ) throws IOException
+ {
+  return append( Collections.singletonList(id), Collections.singletonList(data) );
+ }
+
+ /*
+  * Records of one call are handed to the commit thread together, so they are made durable by the same force()
+  */
+ synchronized long append( List<String> ids, List<ByteBuffer[]> data ) throws IOException
+ {
+  if( failure != null )
+   throw failure;
+
+  if( closed )
+   throw new IOException("Log is closed");
+
+  for( int i=0; i < ids.size(); i++ )
+   pending.add( encodeRecord(ids.get(i), data.get(i)) );
+
+  notifyAll();
+
+  return ++appendedTicket;
+ }
+
+ private ByteBuffer encodeRecord( String id, ByteBuffer[] data )
+ {
+  byte[] idBytes = id.getBytes(UTF8);
+
+  int dataLen = 0;
+
+  for( ByteBuffer b : data )
+   dataLen += b.remaining();
+
+  ByteBuffer rec = ByteBuffer.allocate( 4+4+idBytes.length+dataLen+8 );
+
+  rec.putInt(4+idBytes.length+dataLen+8);
+  rec.putInt(idBytes.length);
+  rec.put(idBytes);
+
+  for( ByteBuffer b : data )
+   rec.put(b.duplicate());
+
+  CRC32 crc = new CRC32();
+  crc.update(rec.array(), 8, idBytes.length+dataLen);
+
+  rec.putLong(crc.getValue());
+
+  rec.flip();
+
+  return rec;
+ }
+
+ // Each ticket is awaited once
+ synchronized void awaitCommit( long ticket ) throws IOException
+ {
+  while( durableTicket < ticket )
+  {
+   if( failure != null )
+    throw failure;
+
+   try
+   {
+    wait();
+   }
+   catch(InterruptedException e)
+   {
+    Thread.currentThread().interrupt();
+    throw new IOException("Interrupted while waiting for log commit");
+   }
+  }
+  
+  IOException e = failedTickets.remove(ticket);
+  
+  if( e != null )
+   throw e;
+ }
+
+ void close()
+ {
+  synchronized(this)
+  {
+   closed = true;
+   notifyAll();
+  }
+
+  try
+  {
+   if( commitThread != null )
+    commitThread.join();
+
+   if( checkpointThread != null )
+   {
+    checkpointThread.interrupt();
+    checkpointThread.join();
+   }
+  }
+  catch(InterruptedException e)
+  {
+   Thread.currentThread().interrupt();
+  }
+
+  try
+  {
+   checkpoint();
+
+   synchronized(segmentLock)
+   {
+    segmentChannel.close();
+    segmentFile.close();
+   }
+  }
+  catch(IOException e)
+  {
+   log.error("Log checkpoint failed: "+e.getMessage(),e);
+  }
+ }
+
+ private void commitLoop()
+ {
+  while( true )
+  {
+   List<ByteBuffer> batch = null;
+   long from = 0;
+   long upTo = 0;
+
+   synchronized(this)
+   {
+    while( pending.size() == 0 && ! closed )
+    {
+     try
+     {
+      wait();
+     }
+     catch(InterruptedException e)
+     {
+     }
+    }
+
+    if( pending.size() == 0 )
+     return;
+
+    batch = pending;
+    pending = new ArrayList<ByteBuffer>();
+    from = durableTicket+1;
+    upTo = appendedTicket;
+   }
+
+   IOException error = null;
+   
+   synchronized(segmentLock)
+   {
+    long start = segmentSize;
+    
+    try
+    {
+     ByteBuffer[] bufs = batch.toArray(new ByteBuffer[batch.size()]);
+
+     long len = 0;
+
+     for( ByteBuffer b : bufs )
+      len += b.remaining();
+
+     segmentSize += len;
+
+     while( len > 0 )
+      len -= segmentChannel.write(bufs);
+
+     segmentChannel.force(false);
+    }
+    catch(IOException e)
+    {
+     log.error("Log write failed: "+e.getMessage(),e);
+
+     error = e;
+     
+     // The batch is cut off so the segment ends with the last durable record
+     try
+     {
+      segmentChannel.truncate(start);
+      segmentChannel.position(start);
+      segmentChannel.force(true);
+      
+      segmentSize = start;
+     }
+     catch(IOException re)
+     {
+      log.error("Can't restore log segment, the log is stopped: "+re.getMessage(),re);
+      
+      synchronized(this)
+      {
+       failure = new IOException("Submission log is stopped after a write failure, restart is required. Submissions of the failed batch may be recovered at restart: "+e.getMessage(), e);
+       notifyAll();
+      }
+      
+      return;
+     }
+    }
+   }
+
+   synchronized(this)
+   {
+    if( error != null )
+    {
+     for( long t=from; t <= upTo; t++ )
+      failedTickets.put(t, error);
+    }
+    
+    durableTicket = upTo;
+    notifyAll();
+   }
+  }
+ }
+
+ private void checkpointLoop()
+ {
+  long lastCheckpoint = System.currentTimeMillis();
+
+  while( true )
+  {
+   try
+   {
+    Thread.sleep(1000);
+   }
+   catch(InterruptedException e)
+   {
+    return;
+   }
+
+   boolean due = false;
+
+   synchronized(segmentLock)
+   {
+    if( segmentSize >= SEGMENT_SIZE_LIMIT )
+     due = true;
+    else if( segmentSize > 0 && System.currentTimeMillis()-lastCheckpoint >= CHECKPOINT_INTERVAL )
+     due = true;
+   }
+
+   if( ! due )
+    continue;
+
+   try
+   {
+    checkpoint();
+   }
+   catch(IOException e)
+   {
+    log.error("Log checkpoint failed: "+e.getMessage(),e);
+   }
+
+   lastCheckpoint = System.currentTimeMillis();
+  }
+ }
+
+ private void checkpoint() throws IOException
+ {
+  File current = null;
+
+  synchronized(segmentLock)
+  {
+   if( segmentSize > 0 )
+   {
+    segmentChannel.close();
+    segmentFile.close();
+
+    openSegment();
+   }
+
+   current = getSegmentFile(segmentSeq);
+  }
+
+  for( File seg : listSegments() )
+  {
+   if( seg.equals(current) )
+    continue;
+
+   checkpointSegment(seg, false);
+  }
+ }
+
+ private void openSegment() throws IOException
+ {
+  segmentSeq++;
+
+  segmentFile = new RandomAccessFile(getSegmentFile(segmentSeq), "rw");
+  segmentChannel = segmentFile.getChannel();
+  segmentSize = 0;
+ }
+
+ /*
+  * Copies the records of the segment to the data directory and deletes the segment. A damaged record is an error
+  * and the segment is kept unless tornTail is set and the record is the last one in the segment
+  */
+ private int checkpointSegment( File seg, boolean tornTail ) throws IOException
+ {
+  ByteBuffer buf = null;
+
+  FileInputStream fis = new FileInputStream(seg);
+
+  try
+  {
+   FileChannel chnl = fis.getChannel();
+
+   buf = ByteBuffer.allocate((int)chnl.size());
+
+   while( buf.hasRemaining() && chnl.read(buf) >= 0 )
+    ;
+
+   buf.flip();
+  }
+  finally
+  {
+   fis.close();
+  }
+
+  int n = 0;
+
+  while( buf.hasRemaining() )
+  {
+   int recPos = buf.position();
+
+   if( buf.remaining() < 4 )
+   {
+    damagedRecord(seg, recPos, "Truncated record", tornTail);
+    break;
+   }
+
+   int recLen = buf.getInt();
+
+   if( recLen < 12 || recLen > buf.remaining() )
+   {
+    damagedRecord(seg, recPos, "Truncated record", tornTail);
+    break;
+   }
+
+   boolean last = recPos+4+recLen == buf.limit();
+
+   int idLen = buf.getInt();
+
+   if( idLen < 0 || idLen > recLen-12 )
+   {
+    damagedRecord(seg, recPos, "Corrupted record", tornTail && last);
+    break;
+   }
+
+   byte[] payload = new byte[recLen-12];
+   buf.get(payload);
+
+   long sum = buf.getLong();
+
+   CRC32 crc = new CRC32();
+   crc.update(payload);
+
+   if( crc.getValue() != sum )
+   {
+    damagedRecord(seg, recPos, "Checksum mismatch of record", tornTail && last);
+    break;
+   }
+
+   String id = new String(payload, 0, idLen, UTF8);
+
+   File tmpFile = new File(logDir, id+dataExt+".tmp");
+   File sbmFile = new File(dataDir, id+dataExt);
+
+   FileOutputStream fos = new FileOutputStream(tmpFile);
+
+   try
+   {
+    FileChannel out = fos.getChannel();
+
+    ByteBuffer data = ByteBuffer.wrap(payload, idLen, payload.length-idLen);
+
+    while( data.hasRemaining() )
+     out.write(data);
+
+    out.force(false);
+   }
+   finally
+   {
+    fos.close();
+   }
+
+   if( sbmFile.exists() )
+    sbmFile.delete();
+
+   if( ! tmpFile.renameTo(sbmFile) )
+    throw new IOException("Can't rename file: "+tmpFile.getAbsolutePath()+" to "+sbmFile.getAbsolutePath());
+
+   n++;
+  }
+
+  // The renames must be durable before the records are gone from the log
+  if( n > 0 )
+   syncDirectory(dataDir);
+  
+  if( ! seg.delete() )
+   throw new IOException("Can't delete log segment: "+seg.getAbsolutePath());
+
+  return n;
+ }
+
+ private void syncDirectory( File dir ) throws IOException
+ {
+  FileChannel chnl = null;
+  
+  try
+  {
+   chnl = FileChannel.open(dir.toPath(), StandardOpenOption.READ);
+  }
+  catch(IOException e)
+  {
+   // Directories can't be opened on some platforms (Windows), their entries are durable there anyway
+   log.debug("Can't open directory for sync: "+dir.getAbsolutePath());
+   return;
+  }
+  
+  try
+  {
+   chnl.force(true);
+  }
+  finally
+  {
+   chnl.close();
+  }
+ }
+
+ private void damagedRecord( File seg, int pos, String what, boolean torn ) throws IOException
+ {
+  String msg = what+" in log segment "+seg.getName()+" at "+pos;
+
+  if( ! torn )
+   throw new IOException(msg+". The segment is kept");
+
+  log.warn(msg+". Ignored as a write torn by a crash");
+ }
+
+ private File getSegmentFile( long seq )
+ {
+  return new File(logDir, segmentPrefix+String.format("%012d", seq)+segmentSuffix);
+ }
+
+ private long getSegmentSeq( File f )
+ {
+  String nm = f.getName();
+
+  return Long.parseLong( nm.substring(segmentPrefix.length(), nm.length()-segmentSuffix.length()) );
+ }
+
+ private List<File> listSegments()
+ {
+  List<File> segs = new ArrayList<File>();
+
+  File[] files = logDir.listFiles();
+
+  if( files == null )
+   return segs;
+
+  Arrays.sort(files);
+
+  for( File f : files )
+  {
+   String nm = f.getName();
+
+   if( nm.startsWith(segmentPrefix) && nm.endsWith(segmentSuffix) )
+    segs.add(f);
+  }
+
+  return segs;
+ }
+}
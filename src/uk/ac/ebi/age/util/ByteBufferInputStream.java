@@ -0,0 +1,61 @@
+package uk.ac.ebi.age.util;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+public class ByteBufferInputStream extends InputStream
+{
+ private ByteBuffer buffer;
+
+ public ByteBufferInputStream( ByteBuffer buf )
+ {
+  buffer = buf;
+ }
+
+ @Override
+ public int read()
+ {
+  if( ! buffer.hasRemaining() )
+   return -1;
+
+  return buffer.get() & 0xFF;
+ }
+
+ @Override
+ public int read(byte[] b, int off, int len)
+ {
+  if( len == 0 )
+   return 0;
+
+  int rem = buffer.remaining();
+
+  if( rem == 0 )
+   return -1;
+
+  if( len > rem )
+   len = rem;
+
+  buffer.get(b, off, len);
+
+  return len;
+ }
+
+ @Override
+ public long skip(long n)
+ {
+  if( n <= 0 )
+   return 0;
+
+  int skp = (int)Math.min(n, buffer.remaining());
+
+  buffer.position(buffer.position()+skp);
+
+  return skp;
+ }
+
+ @Override
+ public int available()
+ {
+  return buffer.remaining();
+ }
+}
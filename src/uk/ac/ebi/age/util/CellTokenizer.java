@@ -0,0 +1,166 @@
+package uk.ac.ebi.age.util;
+
+import java.util.List;
+
+/*
+ * Single pass splitter of spreadsheet lines. Produces the same cells as StringUtil.splitExcelString
+ * but keeps only cell boundaries. Strings are created on request by getCell()
+ */
+public class CellTokenizer
+{
+ private CharSequence line;
+ 
+ private int[] starts = new int[64];
+ private int[] ends = new int[64];
+ private boolean[] escaped = new boolean[64];
+ private int count;
+ 
+ private StringBuilder sb = new StringBuilder(200);
+ 
+ public int split( CharSequence ln, char sep )
+ {
+  line = ln;
+  count = 0;
+  
+  int len = ln.length();
+  int pos = 0;
+  
+  while( pos < len )
+  {
+   if( ln.charAt(pos) != '"' )
+   {
+    int end = pos;
+    
+    while( end < len && ln.charAt(end) != sep )
+     end++;
+    
+    add(pos, end, false);
+    
+    pos = end+1;
+   }
+   else
+   {
+    int beg = pos+1;
+    int q = beg;
+    boolean esc = false;
+    
+    while( true )
+    {
+     while( q < len && ln.charAt(q) != '"' )
+      q++;
+     
+     if( q >= len ) // quoted part is not finished by the quotation symbol
+     {
+      add(beg, len, esc);
+      pos = len;
+      break;
+     }
+     else if( q == len-1 )
+     {
+      add(beg, q, esc);
+      pos = len;
+      break;
+     }
+     
+     char nc = ln.charAt(q+1);
+     
+     if( nc == '"' ) // double quote
+     {
+      esc = true;
+      q += 2;
+     }
+     else if( nc == sep ) // end of the token
+     {
+      add(beg, q, esc);
+      pos = q+2;
+      break;
+     }
+     else // quotation symbol is not followed by separator and not doubled. It is kept
+     {
+      esc = true;
+      q++;
+     }
+    }
+   }
+  }
+  
+  return count;
+ }
+ 
+ private void add( int s, int e, boolean esc )
+ {
+  if( count == starts.length )
+  {
+   int ncap = count*2;
+   
+   int[] ns = new int[ncap];
+   System.arraycopy(starts, 0, ns, 0, count);
+   starts = ns;
+   
+   int[] ne = new int[ncap];
+   System.arraycopy(ends, 0, ne, 0, count);
+   ends = ne;
+   
+   boolean[] nesc = new boolean[ncap];
+   System.arraycopy(escaped, 0, nesc, 0, count);
+   escaped = nesc;
+  }
+  
+  starts[count] = s;
+  ends[count] = e;
+  escaped[count] = esc;
+  
+  count++;
+ }
+ 
+ public int getCellCount()
+ {
+  return count;
+ }
+ 
+ public boolean isEmpty( int i )
+ {
+  return starts[i] == ends[i];
+ }
+ 
+ // true if there are no cells or all cells are empty
+ public boolean isBlank()
+ {
+  for( int i=0; i < count; i++ )
+   if( starts[i] != ends[i] )
+    return false;
+  
+  return true;
+ }
+ 
+ public String getCell( int i )
+ {
+  int s = starts[i];
+  int e = ends[i];
+
+  if( ! escaped[i] )
+   return line.subSequence(s, e).toString();
+  
+  sb.setLength(0);
+  
+  while( s < e )
+  {
+   char ch = line.charAt(s);
+   
+   sb.append(ch);
+
+   if( ch == '"' && s+1 < e && line.charAt(s+1) == '"' )
+    s+=2;
+   else
+    s++;
+  }
+  
+  return sb.toString();
+ }
+ 
+ public void getCells( List<String> accum )
+ {
+  for( int i=0; i < count; i++ )
+   accum.add( getCell(i) );
+ }
+}
@@ -0,0 +1,25 @@
+package uk.ac.ebi.age.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Not synchronized
+public class LRUCache<K, V> extends LinkedHashMap<K, V>
+{
+ private static final long serialVersionUID = 1L;
+
+ private int capacity;
+ 
+ public LRUCache( int cap )
+ {
+  super(16, 0.75f, true);
+  
+  capacity = cap;
+ }
+
+ @Override
+ protected boolean removeEldestEntry(Map.Entry<K, V> eldest)
+ {
+  return size() > capacity;
+ }
+}
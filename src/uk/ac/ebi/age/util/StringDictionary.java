@@ -0,0 +1,87 @@
+package uk.ac.ebi.age.util;
+
+import java.lang.ref.WeakReference;
+import java.util.WeakHashMap;
+
+/*
+ * Concurrent replacement for String.intern(): every distinct string gets one canonical instance. The entries are
+ * weak, a string is dropped from the dictionary when nothing else refers to its canonical instance, so IDs of removed
+ * submissions don't stay in memory. The dictionary is split into segments with their own locks, a string's segment
+ * is chosen by its hash. Meant for class names and short repeated values (see MAX_VALUE_LENGTH). Unique strings
+ * like object IDs shouldn't be interned: nothing is shared and every one costs an entry of about 80 bytes.
+ */
+public class StringDictionary
+{
+ // Longer attribute values are unlikely to repeat and aren't worth an entry
+ public static final int MAX_VALUE_LENGTH = 64;
+
+ private static final int SEGMENT_BITS = 6;
+
+ private static StringDictionary instance = new StringDictionary();
+
+ private Segment[] segments = new Segment[1 << SEGMENT_BITS];
+
+ // The value refers to the key weakly, a strong one would keep the entry forever
+ private static class Segment extends WeakHashMap<String, WeakReference<String>>
+ {
+ }
+
+ public static StringDictionary getInstance()
+ {
+  return instance;
+ }
+
+ public StringDictionary()
+ {
+  for( int i=0; i < segments.length; i++ )
+   segments[i] = new Segment();
+ }
+
+ public String intern( String str )
+ {
+  if( str == null )
+   return null;
+
+  // The high bits of the mixed hash, WeakHashMap takes the low ones
+  Segment seg = segments[ ( str.hashCode() * 0x9E3779B9 ) >>> ( 32-SEGMENT_BITS ) ];
+
+  synchronized(seg)
+  {
+   WeakReference<String> ref = seg.get(str);
+
+   String canon = ref == null ? null : ref.get();
+
+   if( canon != null )
+    return canon;
+
+   seg.put(str, new WeakReference<String>(str));
+
+   return str;
+  }
+ }
+
+ // Interns the value if it is short enough to be a repeated one
+ public String internValue( String str )
+ {
+  if( str == null || str.length() > MAX_VALUE_LENGTH )
+   return str;
+
+  return intern(str);
+ }
+
+ // Number of strings in the dictionary, including the ones not collected yet
+ public int size()
+ {
+  int sz = 0;
+
+  for( Segment seg : segments )
+  {
+   synchronized(seg)
+   {
+    sz += seg.size();
+   }
+  }
+
+  return sz;
+ }
+}
@@ -1,23 +1,32 @@
 package uk.ac.ebi.age.validator.impl;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import uk.ac.ebi.age.log.LogNode;
 import uk.ac.ebi.age.log.LogNode.Level;
+import uk.ac.ebi.age.model.AgeAbstractClass;
 import uk.ac.ebi.age.model.AgeAttribute;
 import uk.ac.ebi.age.model.AgeAttributeClass;
 import uk.ac.ebi.age.model.AgeClass;
 import uk.ac.ebi.age.model.AgeObject;
+import uk.ac.ebi.age.model.AgeObjectAttribute;
 import uk.ac.ebi.age.model.AgeRelation;
 import uk.ac.ebi.age.model.AgeRelationClass;
 import uk.ac.ebi.age.model.AttributeAttachmentRule;
 import uk.ac.ebi.age.model.Attributed;
 import uk.ac.ebi.age.model.AttributedClass;
+import uk.ac.ebi.age.model.ContextSemanticModel;
+import uk.ac.ebi.age.model.DataType;
 import uk.ac.ebi.age.model.QualifierRule;
 import uk.ac.ebi.age.model.RelationRule;
 import uk.ac.ebi.age.model.RestrictionType;
@@ -27,18 +36,41 @@ import uk.ac.ebi.age.validator.AgeSemanticValidator;
 
 public class AgeSemanticValidatorImpl implements AgeSemanticValidator
 {
+ // Resolvers carry the validation plans compiled for their model(s). A new resolver (with empty plans) is made when the model changes
+ private volatile Resolver masterResolver;
+ private volatile ExtModelResolver extResolver;
 
  @Override
  public boolean validate(Submission subm, LogNode log)
  {
 
-  return validate(subm, Resolver.getIntsance(), log);
+  return validate(subm, getResolver(subm.getContextSemanticModel().getMasterModel()), log);
  }
 
  @Override
  public boolean validate(Submission subm, SemanticModel mod, LogNode log)
  {
-  return validate(subm, new ExtModelResolver(subm.getContextSemanticModel().getMasterModel(), mod), log);
+  return validate(subm, getResolver(subm.getContextSemanticModel().getMasterModel(), mod), log);
+ }
+ 
+ private Resolver getResolver( SemanticModel master )
+ {
+  Resolver rslv = masterResolver;
+  
+  if( rslv == null || rslv.getModel() != master )
+   masterResolver = rslv = new Resolver(master);
+  
+  return rslv;
+ }
+
+ private Resolver getResolver( SemanticModel origModel, SemanticModel newModel )
+ {
+  ExtModelResolver rslv = extResolver;
+  
+  if( rslv == null || rslv.getModel() != newModel || rslv.getOriginalModel() != origModel )
+   extResolver = rslv = new ExtModelResolver(origModel, newModel);
+  
+  return rslv;
  }
 
  private boolean validate(Submission subm, Resolver rslv, LogNode log)
@@ -105,7 +137,12 @@ public class AgeSemanticValidatorImpl implements AgeSemanticValidator
 
  public boolean validateRelations(AgeObject obj, Set<? extends AgeRelation> auxRels, Set<? extends AgeRelation> remRels, LogNode log)
  {
-  return validateRelations(obj, auxRels, remRels, Resolver.getIntsance(), log);
+  SemanticModel mod = obj.getAgeElClass().getSemanticModel();
+  
+  if( mod instanceof ContextSemanticModel )
+   mod = ((ContextSemanticModel)mod).getMasterModel();
+  
+  return validateRelations(obj, auxRels, remRels, getResolver(mod), log);
  }
  
  private boolean validateRelations(AgeObject obj, Set<? extends AgeRelation> auxRels, Set<? extends AgeRelation> remRels, Resolver mod, LogNode log)
@@ -118,10 +155,7 @@ public class AgeSemanticValidatorImpl implements AgeSemanticValidator
    return false;
   }
 
-  Collection<RelationRule> rlRules = cls.getAllRelationRules();
-
-  if( rlRules == null )
-   rlRules = Collections.<RelationRule> emptyList();
+  ValidationPlan plan = mod.getPlan(cls);
   
   Collection< ? extends AgeRelationClass> rlClasses = obj.getRelationClasses();
 
@@ -190,7 +224,7 @@ public class AgeSemanticValidatorImpl implements AgeSemanticValidator
    
    objectOk = res && objectOk; 
 
-   res = isRelationAllowed(rslvRlCls, rels, rlRules, mod, ln);
+   res = isRelationAllowed(rslvRlCls, rels, plan.getAllowingRules(rslvRlCls), mod, ln);
    
    if( res )
     ln.log(Level.INFO, "Validation successful");
@@ -200,16 +234,18 @@ public class AgeSemanticValidatorImpl implements AgeSemanticValidator
    objectOk = res && objectOk; 
   }
 
-  if(cls.getRelationRules() != null)
+  if(plan.relationRules != null)
   {
    LogNode ln = log.branch("Validating relation rules");
 
    boolean rrulOk = true;
-   for(RelationRule rlRl : cls.getRelationRules())
+   for( int i=0; i < plan.relationRules.length; i++ )
    {
+    RelationRule rlRl = plan.relationRules[i];
+    
     LogNode rlln = ln.branch("Validating rule: "+rlRl.getRuleId()+" of class: '"+cls.getName()+"'");
 
-    boolean res = isRelationRuleSatisfied(rlRl, obj, auxRels, remRels, mod, rlln);
+    boolean res = isRelationRuleSatisfied(rlRl, plan.relationRuleClasses[i], obj, auxRels, remRels, mod, rlln);
     
     if( res )
      rlln.log(Level.INFO, "Rule satisfied");
@@ -277,8 +313,7 @@ public class AgeSemanticValidatorImpl implements AgeSemanticValidator
    return false;
   }
 
-  Collection<AttributeAttachmentRule> atRules = cls.getAttributeAttachmentRules() != null?
-    cls.getAttributeAttachmentRules() : Collections.<AttributeAttachmentRule>emptyList();
+  ValidationPlan plan = rslv.getPlan(cls);
   
   Collection<? extends AgeAttributeClass> atClasses = obj.getAttributeClasses();
   
@@ -301,7 +336,7 @@ public class AgeSemanticValidatorImpl implements AgeSemanticValidator
    
    LogNode ln = log.branch("Validating attributes of class '"+atCls+"' Attributes: "+attrs.size());
 
-   boolean res = isAttributeAllowed(rslvAtCls, attrs, atRules, rslv, ln);
+   boolean res = isAttributeAllowed(rslvAtCls, attrs, plan.getAllowingRules(rslvAtCls), rslv, ln);
    
    if( res )
     ln.log(Level.INFO, "Validation successful");
@@ -311,16 +346,18 @@ public class AgeSemanticValidatorImpl implements AgeSemanticValidator
    valid = res && valid;
   }
   
-  if( cls.getAttributeAttachmentRules() != null )
+  if( plan.attachmentRules != null )
   {
    LogNode ln = log.branch("Validating attribute attachment rules");
 
    boolean rlres = true;
-   for( AttributeAttachmentRule atRl : cls.getAttributeAttachmentRules() )
+   for( int i=0; i < plan.attachmentRules.length; i++ )
    {
+    AttributeAttachmentRule atRl = plan.attachmentRules[i];
+    
     LogNode sln = ln.branch("Validating rule "+atRl.getRuleId()+". Type: "+atRl.getType().name());
 
-    boolean res = isAttributeRuleSatisfied( atRl, obj, rslv, sln );
+    boolean res = isAttributeRuleSatisfied( atRl, plan.attachmentRuleClasses[i], obj, rslv, sln );
     
     if( res )
      sln.log(Level.INFO, "Validation successful");
@@ -370,27 +407,13 @@ public class AgeSemanticValidatorImpl implements AgeSemanticValidator
   return valid;
  }
  
- private boolean isAttributeAllowed(AgeAttributeClass rslvAtCls, Collection<? extends AgeAttribute> attrs, Collection<AttributeAttachmentRule> atRules, Resolver rslv, LogNode log)
+ // atRules are the rules of the plan that may allow attributes of rslvAtCls (see ValidationPlan.getAllowingRules)
+ private boolean isAttributeAllowed(AgeAttributeClass rslvAtCls, Collection<? extends AgeAttribute> attrs, List<AttributeAttachmentRule> atRules, Resolver rslv, LogNode log)
  {
-  if( atRules == null )
-   return false;
-  
   for(AttributeAttachmentRule rul : atRules)
   {
    LogNode ln = log.branch("Validating rule "+rul.getRuleId());
 
-   if(rul.getType() == RestrictionType.MUSTNOT)
-   {
-    ln.log(Level.DEBUG, "MUSTNOT rule. Skiping rule.");
-    continue;
-   }
-   
-   if(!((rul.isSubclassesIncluded() && rslvAtCls.isClassOrSubclass(rul.getAttributeClass())) || rul.getAttributeClass().equals(rslvAtCls)))
-   {
-    ln.log(Level.DEBUG, "Rule doesn't belong to attribute class. Skiping rule.");
-    continue;
-   }
-   
 
    if( ! matchCardinality( rul, attrs.size() ) )
    {
@@ -431,29 +454,15 @@ public class AgeSemanticValidatorImpl implements AgeSemanticValidator
   return false;
  }
  
- private boolean isRelationAllowed(AgeRelationClass rslvRlCls, Collection<? extends AgeRelation> rels, Collection<RelationRule> relRules, Resolver rslv, LogNode log)
+ // relRules are the rules of the plan that may allow relations of rslvRlCls (see ValidationPlan.getAllowingRules)
+ private boolean isRelationAllowed(AgeRelationClass rslvRlCls, Collection<? extends AgeRelation> rels, List<RelationRule> relRules, Resolver rslv, LogNode log)
  {
-  if( relRules == null )
-   return false;
-  
 //  log.log(Level.INFO, "Checking whether relations are allowed by some rule");
   
   for(RelationRule rul : relRules)
   {
    LogNode ln = log.branch("Validating rule "+rul.getRuleId());
 
-   if(!((rul.isSubclassesIncluded() && rslvRlCls.isClassOrSubclass(rul.getRelationClass())) || rul.getRelationClass().equals(rslvRlCls)))
-   {
-    ln.log(Level.DEBUG, "Rule "+rul.getRuleId()+" doesn't match class '"+rslvRlCls+"'. Skiping.");
-    continue;
-   }
-   
-   if(rul.getType() == RestrictionType.MUSTNOT)
-   {
-    ln.log(Level.DEBUG, "MUSTNOT rule. Skiping rule.");
-    continue;
-   }
-
    if( ! matchCardinality( rul, rels.size() ) )
    {
     ln.log(Level.INFO,"Rule "+rul.getRuleId()+" cardinality requirement failed. Cardinality: "
@@ -537,7 +546,7 @@ public class AgeSemanticValidatorImpl implements AgeSemanticValidator
   return true;
  }
  
- private boolean isAttributeRuleSatisfied(AttributeAttachmentRule atRl, Attributed obj, Resolver rslv, LogNode log)
+ private boolean isAttributeRuleSatisfied(AttributeAttachmentRule atRl, AgeAttributeClass reslInvRuleCls, Attributed obj, Resolver rslv, LogNode log)
  {
   if( atRl.getType() == RestrictionType.MAY )
   {
@@ -545,7 +554,6 @@ public class AgeSemanticValidatorImpl implements AgeSemanticValidator
    return true;
   }
   
-  AgeAttributeClass reslInvRuleCls = rslv.getAttributeClassOriginal(atRl.getAttributeClass());
   
   if( reslInvRuleCls == null )
   {
@@ -602,7 +610,7 @@ public class AgeSemanticValidatorImpl implements AgeSemanticValidator
   return true;
  }
 
- private boolean isRelationRuleSatisfied(RelationRule rlRl, AgeObject obj, Set< ? extends AgeRelation> auxRels, Set< ? extends AgeRelation> remRels, Resolver rslv, LogNode log)
+ private boolean isRelationRuleSatisfied(RelationRule rlRl, AgeRelationClass origRelCls, AgeObject obj, Set< ? extends AgeRelation> auxRels, Set< ? extends AgeRelation> remRels, Resolver rslv, LogNode log)
  {
   if( rlRl.getType() == RestrictionType.MAY )
   {
@@ -610,7 +618,7 @@ public class AgeSemanticValidatorImpl implements AgeSemanticValidator
    return true;
   }
 
-  AgeRelationClass origRelCls = rslv.getAgeRelationClassOriginal(rlRl.getRelationClass()); //If the rule came from the new model we have to get correspondent class of the older model
+  //origRelCls: if the rule came from the new model we have to get correspondent class of the older model
   
   if( origRelCls == null )
   {
@@ -743,40 +751,135 @@ public class AgeSemanticValidatorImpl implements AgeSemanticValidator
  {
   if(rul.isValueUnique() && attrs.size() > 1)
   {
-   ArrayList<AgeAttribute> atList = new ArrayList<AgeAttribute>(attrs.size());
-   atList.addAll(attrs);
+   List<Object> keys = getValueKeys(attrs, attrs.iterator().next().getAgeElClass().getDataType());
+   
+   if( keys == null )
+    return checkValuesUniquePairwise(attrs);
+   
+   Set<Object> seen = new HashSet<Object>( keys.size()*2 );
+   
+   for( Object k : keys )
+   {
+    if( ! seen.add(k) )
+     return false;
+   }
+  }
+  
+  return true;
+ }
+
+ private boolean checkValuesUniquePairwise( Collection<? extends AgeAttribute> attrs )
+ {
+  ArrayList<AgeAttribute> atList = new ArrayList<AgeAttribute>(attrs.size());
+  atList.addAll(attrs);
 
-   for(int i = 0; i < attrs.size() - 1; i++)
+  for(int i = 0; i < attrs.size() - 1; i++)
+  {
+   for(int j = i + 1; j < attrs.size(); j++)
    {
-    for(int j = i + 1; j < attrs.size(); j++)
-    {
-     if(atList.get(i).equals(atList.get(j)))
-      return false;
-    }
+    if(atList.get(i).equals(atList.get(j)))
+     return false;
    }
   }
   
   return true;
  }
  
+ /*
+  * Attribute implementations don't define hashCode() so values are hashed by keys whose equals() matches
+  * AgeAttribute.equals() for the given data type. Returns null when the attributes can't be keyed (values of
+  * different data types or NaN) and must be compared pairwise.
+  */
+ private static List<Object> getValueKeys( Collection<? extends AgeAttribute> attrs, DataType type )
+ {
+  List<Object> keys = new ArrayList<Object>( attrs.size() );
+  
+  for( AgeAttribute attr : attrs )
+  {
+   if( attr.getAgeElClass().getDataType() != type )
+    return null;
+   
+   Object key = null;
+   
+   switch( type )
+   {
+    case INTEGER:
+     key = attr.getValueAsInteger();
+     break;
+     
+    case REAL:
+     double d = attr.getValueAsDouble();
+     
+     if( Double.isNaN(d) )
+      return null;
+     
+     key = d == 0 ? 0.0 : d; // Double.equals() tells -0.0 from 0.0
+     break;
+     
+    case BOOLEAN:
+     key = attr.getValueAsBoolean();
+     break;
+     
+    case OBJECT:
+     if( ! (attr instanceof AgeObjectAttribute) )
+      return null;
+     
+     key = ((AgeObjectAttribute)attr).getTargetObjectId();
+     break;
+     
+    default:
+     key = attr.getValue();
+   }
+   
+   if( key == null )
+    return null;
+   
+   keys.add(key);
+  }
+  
+  return keys;
+ }
+ 
+ // Multiset of the value keys. Equal for attribute collections that isEqual() finds equal
+ private static Map<Object,Integer> getValueSetKey( Collection<? extends AgeAttribute> attrs, DataType type )
+ {
+  if( attrs == null || attrs.size() == 0 )
+   return Collections.emptyMap();
+  
+  List<Object> keys = getValueKeys(attrs, type);
+  
+  if( keys == null )
+   return null;
+  
+  Map<Object,Integer> set = new HashMap<Object,Integer>( keys.size()*2 );
+  
+  for( Object k : keys )
+  {
+   Integer n = set.get(k);
+   
+   set.put(k, n == null ? 1 : n+1);
+  }
+  
+  return set;
+ }
+ 
  private boolean checkTargetsUnique( Collection<? extends AgeRelation> rels, LogNode log )
  {
   AgeObject dupObj=null;
   
   if(rels.size() > 1 )
   {
-   ArrayList<AgeRelation> rlList = new ArrayList<AgeRelation>(rels.size());
-   rlList.addAll(rels);
+   // AgeObject equality is identity so objects are hashed as they are
+   Set<AgeObject> targets = new HashSet<AgeObject>( rels.size()*2 );
 
-   cyc: for(int i = 0; i < rels.size() - 1; i++)
+   for( AgeRelation rel : rels )
    {
-    for(int j = i + 1; j < rels.size(); j++)
+    AgeObject tgt = rel.getTargetObject();
+    
+    if( tgt != null && ! targets.add(tgt) )
     {
-     if(rlList.get(i).getTargetObject().equals(rlList.get(j).getTargetObject()))
-     {
-      dupObj = rlList.get(i).getTargetObject();
-      break cyc;
-     }
+     dupObj = tgt;
+     break;
     }
    }
   }
@@ -827,7 +930,7 @@ public class AgeSemanticValidatorImpl implements AgeSemanticValidator
         return false;
        }
        
-       if(rslvAtc.isClassOrSubclass(qr.getAttributeClass()))
+       if(resolv.isClassOrSubclass(rslvAtc, qr.getAttributeClass()))
        {
         found = true;
         break;
@@ -848,20 +951,11 @@ public class AgeSemanticValidatorImpl implements AgeSemanticValidator
     {
      ln.log(Level.INFO, "Validating qualifiers' uniqueness");
 
-     ArrayList<Attributed> atList = new ArrayList<Attributed>(attrs.size());
-     atList.addAll(attrs);
-
-     for(int i = 0; i < attrs.size() - 1; i++)
+     if( ! checkQualifiersUnique(attrs, invReslRuleAttrCls) )
      {
-      for(int j = i + 1; j < attrs.size(); j++)
-      {
-       if(isEqual(atList.get(i).getAttributesByClass(invReslRuleAttrCls, true), atList.get(j).getAttributesByClass(invReslRuleAttrCls, true)))
-       {
-        ln.log(Level.INFO, "Rule validation failed. Qualifiers are not unique");
-        matched = false;
-        continue rules;
-       }
-      }
+      ln.log(Level.INFO, "Rule validation failed. Qualifiers are not unique");
+      matched = false;
+      continue rules;
      }
     }
 
@@ -872,13 +966,98 @@ public class AgeSemanticValidatorImpl implements AgeSemanticValidator
   return matched;
  }
  
+ private boolean checkQualifiersUnique( Collection<? extends Attributed> attrs, AgeAttributeClass qCls )
+ {
+  if( attrs.size() < 2 )
+   return true;
+  
+  Set<Map<Object,Integer>> seen = new HashSet<Map<Object,Integer>>( attrs.size()*2 );
+  
+  for( Attributed attr : attrs )
+  {
+   Map<Object,Integer> key = getValueSetKey(attr.getAttributesByClass(qCls, true), qCls.getDataType());
+   
+   if( key == null )
+    return checkQualifiersUniquePairwise(attrs, qCls);
+   
+   if( ! seen.add(key) )
+    return false;
+  }
+  
+  return true;
+ }
+
+ private boolean checkQualifiersUniquePairwise( Collection<? extends Attributed> attrs, AgeAttributeClass qCls )
+ {
+  ArrayList<Attributed> atList = new ArrayList<Attributed>(attrs.size());
+  atList.addAll(attrs);
+
+  for(int i = 0; i < attrs.size() - 1; i++)
+  {
+   for(int j = i + 1; j < attrs.size(); j++)
+   {
+    if(isEqual(atList.get(i).getAttributesByClass(qCls, true), atList.get(j).getAttributesByClass(qCls, true)))
+     return false;
+   }
+  }
+  
+  return true;
+ }
+ 
  private static class Resolver
  {
-  private static Resolver instance = new Resolver();
+  private SemanticModel model;
+  
+  private ConcurrentMap<AttributedClass, ValidationPlan> plans = new ConcurrentHashMap<AttributedClass, ValidationPlan>();
+  private ConcurrentMap<ClassPair, Boolean> subclassMap = new ConcurrentHashMap<ClassPair, Boolean>();
+  
+  Resolver( SemanticModel mod )
+  {
+   model = mod;
+  }
+  
+  SemanticModel getModel()
+  {
+   return model;
+  }
   
-  static Resolver getIntsance()
+  // cls is a class of the model this resolver validates against
+  ValidationPlan getPlan( AttributedClass cls )
   {
-   return instance;
+   if( cls.isCustom() ) // custom classes belong to a submission and have no rules, not worth caching
+    return new ValidationPlan(cls, this);
+   
+   ValidationPlan plan = plans.get(cls);
+   
+   if( plan == null )
+   {
+    plan = new ValidationPlan(cls, this);
+    
+    ValidationPlan other = plans.putIfAbsent(cls, plan);
+    
+    if( other != null )
+     plan = other;
+   }
+   
+   return plan;
+  }
+  
+  boolean isClassOrSubclass( AgeAbstractClass cls, AgeAbstractClass sup )
+  {
+   if( cls.isCustom() || sup.isCustom() )
+    return cls.isClassOrSubclass(sup);
+   
+   ClassPair key = new ClassPair(cls, sup);
+   
+   Boolean res = subclassMap.get(key);
+   
+   if( res == null )
+   {
+    res = cls.isClassOrSubclass(sup);
+    subclassMap.put(key, res);
+   }
+   
+   return res;
   }
 
   public AgeRelationClass getAgeRelationClassOriginal(AgeRelationClass relationClass)
@@ -919,10 +1098,17 @@ public class AgeSemanticValidatorImpl implements AgeSemanticValidator
   
   ExtModelResolver(SemanticModel oldM,SemanticModel newM)
   {
+   super(newM);
+   
    origModel = oldM;
    newModel = newM;
   }
   
+  SemanticModel getOriginalModel()
+  {
+   return origModel;
+  }
+  
   @Override
   public AgeRelationClass getAgeRelationClassOriginal(AgeRelationClass rlCls)
   {
@@ -994,6 +1180,153 @@ public class AgeSemanticValidatorImpl implements AgeSemanticValidator
 
  }
 
+ /*
+  * Rules of a class compiled once per resolver (i.e. per model). Rule collections are flattened to arrays, rule
+  * classes are resolved to the validated data's model and the rules that may allow attributes or relations
+  * of some class are selected (subclass checks included) on the first request for that class.
+  */
+ private static class ValidationPlan
+ {
+  AttributeAttachmentRule[] attachmentRules;
+  AgeAttributeClass[] attachmentRuleClasses;
+  
+  RelationRule[] relationRules;
+  AgeRelationClass[] relationRuleClasses;
+  
+  private List<AttributeAttachmentRule> allAttachmentRules;
+  private List<RelationRule> allRelationRules;
+
+  private ConcurrentMap<AgeAttributeClass, List<AttributeAttachmentRule>> attrRuleMap;
+  private ConcurrentMap<AgeRelationClass, List<RelationRule>> relRuleMap;
+  
+  ValidationPlan( AttributedClass cls, Resolver rslv )
+  {
+   Collection<AttributeAttachmentRule> atRules = cls.getAttributeAttachmentRules();
+   
+   if( atRules != null )
+   {
+    attachmentRules = atRules.toArray( new AttributeAttachmentRule[atRules.size()] );
+    attachmentRuleClasses = new AgeAttributeClass[ attachmentRules.length ];
+    
+    for( int i=0; i < attachmentRules.length; i++ )
+     attachmentRuleClasses[i] = rslv.getAttributeClassOriginal(attachmentRules[i].getAttributeClass());
+    
+    allAttachmentRules = Arrays.asList(attachmentRules);
+    attrRuleMap = new ConcurrentHashMap<AgeAttributeClass, List<AttributeAttachmentRule>>();
+   }
+   else
+    allAttachmentRules = Collections.emptyList();
+   
+   if( cls instanceof AgeClass )
+   {
+    Collection<RelationRule> rlRules = ((AgeClass)cls).getRelationRules();
+    
+    if( rlRules != null )
+    {
+     relationRules = rlRules.toArray( new RelationRule[rlRules.size()] );
+     relationRuleClasses = new AgeRelationClass[ relationRules.length ];
+     
+     for( int i=0; i < relationRules.length; i++ )
+      relationRuleClasses[i] = rslv.getAgeRelationClassOriginal(relationRules[i].getRelationClass());
+    }
+    
+    rlRules = ((AgeClass)cls).getAllRelationRules();
+    
+    if( rlRules != null && rlRules.size() > 0 )
+    {
+     allRelationRules = new ArrayList<RelationRule>(rlRules);
+     relRuleMap = new ConcurrentHashMap<AgeRelationClass, List<RelationRule>>();
+    }
+   }
+   
+   if( allRelationRules == null )
+    allRelationRules = Collections.emptyList();
+  }
+  
+  // Non-MUSTNOT rules matching rslvAtCls, in the rule order
+  List<AttributeAttachmentRule> getAllowingRules( AgeAttributeClass rslvAtCls )
+  {
+   if( attrRuleMap == null )
+    return allAttachmentRules;
+   
+   List<AttributeAttachmentRule> rules = attrRuleMap.get(rslvAtCls);
+   
+   if( rules != null )
+    return rules;
+   
+   rules = new ArrayList<AttributeAttachmentRule>(3);
+
+   for( AttributeAttachmentRule rul : allAttachmentRules )
+   {
+    if(rul.getType() == RestrictionType.MUSTNOT)
+     continue;
+    
+    if((rul.isSubclassesIncluded() && rslvAtCls.isClassOrSubclass(rul.getAttributeClass())) || rul.getAttributeClass().equals(rslvAtCls))
+     rules.add(rul);
+   }
+   
+   attrRuleMap.put(rslvAtCls, rules);
+   
+   return rules;
+  }
+  
+  // Non-MUSTNOT rules matching rslvRlCls, in the rule order
+  List<RelationRule> getAllowingRules( AgeRelationClass rslvRlCls )
+  {
+   if( relRuleMap == null )
+    return allRelationRules;
+   
+   List<RelationRule> rules = relRuleMap.get(rslvRlCls);
+   
+   if( rules != null )
+    return rules;
+   
+   rules = new ArrayList<RelationRule>(3);
+
+   for( RelationRule rul : allRelationRules )
+   {
+    if(rul.getType() == RestrictionType.MUSTNOT)
+     continue;
+    
+    if((rul.isSubclassesIncluded() && rslvRlCls.isClassOrSubclass(rul.getRelationClass())) || rul.getRelationClass().equals(rslvRlCls))
+     rules.add(rul);
+   }
+   
+   relRuleMap.put(rslvRlCls, rules);
+   
+   return rules;
+  }
+ }
+ 
+ private static class ClassPair
+ {
+  private AgeAbstractClass cls;
+  private AgeAbstractClass sup;
+  
+  ClassPair( AgeAbstractClass c, AgeAbstractClass s )
+  {
+   cls = c;
+   sup = s;
+  }
+  
+  @Override
+  public int hashCode()
+  {
+   return System.identityHashCode(cls)*31 + System.identityHashCode(sup);
+  }
+  
+  @Override
+  public boolean equals( Object o )
+  {
+   if( ! (o instanceof ClassPair) )
+    return false;
+   
+   ClassPair p = (ClassPair)o;
+   
+   return p.cls == cls && p.sup == sup;
+  }
+ }
+
 // private boolean checkAllQualifiers( AgeAttributeClass atCls, Collection<? extends AgeAttribute> attrs )
 // {
 //  for( AgeAttribute attr : attrs )
@@ -0,0 +1,115 @@
+package uk.ac.ebi.age.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import uk.ac.ebi.age.util.CellTokenizer;
+import uk.ac.ebi.age.util.StringUtil;
+
+/*
+ * Compares StringUtil.splitExcelString with CellTokenizer on generated sheets.
+ * Usage: CellSplitterBenchmark [rounds]
+ */
+public class CellSplitterBenchmark
+{
+ public static void main(String[] args)
+ {
+  int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+  
+  run("wide (200 rows x 2000 columns)", generate(200, 2000), rounds);
+  run("long (200000 rows x 12 columns)", generate(200000, 12), rounds);
+ }
+ 
+ private static void run( String name, List<String> sheet, int rounds )
+ {
+  System.out.println("Sheet: "+name);
+  
+  List<String> accum = new ArrayList<String>(2000);
+  CellTokenizer tok = new CellTokenizer();
+  
+  // warm up and check that both produce the same cells
+  List<String> accum2 = new ArrayList<String>(2000);
+  
+  for( String line : sheet )
+  {
+   accum.clear();
+   accum2.clear();
+   
+   StringUtil.splitExcelString(line, "\t", accum);
+   
+   tok.split(line, '\t');
+   tok.getCells(accum2);
+   
+   if( ! accum.equals(accum2) )
+    throw new IllegalStateException("Different result for line: "+line);
+  }
+  
+  for( int r=0; r < rounds; r++ )
+  {
+   long tm = System.nanoTime();
+   long cnt = 0;
+   
+   for( String line : sheet )
+   {
+    accum.clear();
+    StringUtil.splitExcelString(line, "\t", accum);
+    
+    for( String s : accum )
+     if( s.length() > 0 )
+      cnt++;
+   }
+   
+   long t1 = System.nanoTime()-tm;
+   
+   tm = System.nanoTime();
+   long cnt2 = 0;
+   
+   for( String line : sheet )
+   {
+    int n = tok.split(line, '\t');
+    
+    for( int i=0; i < n; i++ )
+     if( ! tok.isEmpty(i) && tok.getCell(i) != null )
+      cnt2++;
+   }
+
+   long t2 = System.nanoTime()-tm;
+   
+   System.out.println(" round "+(r+1)+": splitExcelString "+(t1/1000000)+"ms, CellTokenizer "+(t2/1000000)+"ms (cells: "+cnt+"/"+cnt2+")");
+  }
+ }
+ 
+ // About a third of the cells are empty and some are quoted with doubled quotes inside
+ private static List<String> generate( int rows, int cols )
+ {
+  Random rnd = new Random(1);
+  List<String> sheet = new ArrayList<String>(rows);
+  StringBuilder sb = new StringBuilder();
+  
+  for( int i=0; i < rows; i++ )
+  {
+   sb.setLength(0);
+   
+   for( int j=0; j < cols; j++ )
+   {
+    if( j > 0 )
+     sb.append('\t');
+    
+    int k = rnd.nextInt(9);
+    
+    if( k < 3 )
+     continue;
+    
+    if( k == 8 )
+     sb.append("\"quoted \"\"value\"\" ").append(j).append('"');
+    else
+     sb.append("value").append(i).append('_').append(j);
+   }
+   
+   sheet.add(sb.toString());
+  }
+  
+  return sheet;
+ }
+}
@@ -0,0 +1,247 @@
+package uk.ac.ebi.age.test;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import uk.ac.ebi.age.util.CellTokenizer;
+import uk.ac.ebi.age.util.StringDictionary;
+
+/*
+ * Takes the cells of AgeTab files (or of a generated sheet if no file is given) as many times as there are
+ * copies, every time as new String instances as the parser makes them, and compares String.intern() with
+ * StringDictionary: interning throughput in several threads and the heap the retained cells take. The first cell of a
+ * row is taken as an object ID, unique in every copy. The retained heap is compared for: no interning, values interned with String.intern()
+ * as before the dictionary, everything put into the dictionary and only values put into it as the model does.
+ * Usage: StringDictionaryBenchmark [-copies N] [-threads N] [file ...]
+ */
+public class StringDictionaryBenchmark
+{
+ public static void main(String[] args) throws Exception
+ {
+  int copies = 20;
+  int threads = Runtime.getRuntime().availableProcessors();
+
+  List<String> cells = new ArrayList<String>();
+  BitSet ids = new BitSet();
+
+  for( int i=0; i < args.length; i++ )
+  {
+   if( "-copies".equals(args[i]) )
+    copies = Integer.parseInt(args[++i]);
+   else if( "-threads".equals(args[i]) )
+    threads = Integer.parseInt(args[++i]);
+   else
+    readCells(args[i], cells, ids);
+  }
+
+  if( cells.size() == 0 )
+   generateCells(cells, ids);
+
+  System.out.println("Cells: "+cells.size()+" x "+copies+" copies, threads: "+threads);
+
+  long base = usedHeap();
+
+  String[] data = copy(cells, ids, copies);
+
+  System.out.println(" raw strings: "+((usedHeap()-base)/1024)+"KB");
+
+  for( int r=0; r < 3; r++ )
+  {
+   data = copy(cells, ids, copies);
+   long tm = System.nanoTime();
+   intern(data, threads, false);
+   long t1 = System.nanoTime()-tm;
+
+   data = copy(cells, ids, copies);
+   tm = System.nanoTime();
+   intern(data, threads, true);
+   long t2 = System.nanoTime()-tm;
+
+   System.out.println(" round "+(r+1)+": String.intern "+(data.length*1000L/(t1/1000+1))+" strings/ms, StringDictionary "
+     +(data.length*1000L/(t2/1000+1))+" strings/ms");
+  }
+
+  data = null;
+
+  System.out.println(" retained: no interning "+retained(cells, ids, copies, NONE)+"KB, String.intern values "
+    +retained(cells, ids, copies, INTERN_VALUES)+"KB, dictionary values "+retained(cells, ids, copies, DICT_VALUES)
+    +"KB, dictionary all "+retained(cells, ids, copies, DICT_ALL)+"KB");
+ }
+
+ private static final int NONE = 0;
+ private static final int INTERN_VALUES = 1;
+ private static final int DICT_ALL = 2;
+ private static final int DICT_VALUES = 3;
+
+ private static String[] retainedData;
+
+ // Heap taken by the cells and the dictionary entries made for them
+ private static long retained( List<String> cells, BitSet ids, int copies, int mode )
+ {
+  StringDictionary sd = StringDictionary.getInstance();
+
+  // Drops the entries of the previous runs once their strings are collected
+  usedHeap();
+  sd.size();
+
+  long base = usedHeap();
+
+  String[] data = copy(cells, ids, copies);
+
+  for( int i=0; i < data.length; i++ )
+  {
+   boolean id = ids.get(i % cells.size());
+
+   if( mode == INTERN_VALUES && ! id )
+    data[i] = data[i].intern();
+   else if( mode == DICT_ALL )
+    data[i] = sd.intern(data[i]);
+   else if( mode == DICT_VALUES && ! id )
+    data[i] = sd.internValue(data[i]);
+  }
+
+  // Kept reachable while the heap is measured
+  retainedData = data;
+
+  long used = usedHeap()-base;
+
+  retainedData = null;
+
+  return used/1024;
+ }
+
+ private static void readCells( String file, List<String> cells, BitSet ids ) throws IOException
+ {
+  BufferedReader rd = new BufferedReader( new InputStreamReader( new FileInputStream(file), "UTF-8" ) );
+
+  CellTokenizer tok = new CellTokenizer();
+  String line;
+
+  try
+  {
+   while( (line = rd.readLine()) != null )
+   {
+    int n = tok.split(line, '\t');
+
+    for( int i=0; i < n; i++ )
+    {
+     if( ! tok.isEmpty(i) )
+     {
+      String cell = tok.getCell(i).trim();
+
+      if( cell.length() > 0 && cell.length() <= StringDictionary.MAX_VALUE_LENGTH )
+      {
+       if( i == 0 )
+        ids.set(cells.size());
+
+       cells.add(cell);
+      }
+     }
+    }
+   }
+  }
+  finally
+  {
+   rd.close();
+  }
+ }
+
+ // Sample-like rows: unique IDs, a few hundred distinct values per column
+ private static void generateCells( List<String> cells, BitSet ids )
+ {
+  Random rnd = new Random(1);
+
+  for( int i=0; i < 50000; i++ )
+  {
+   ids.set(cells.size());
+   cells.add("SAMPLE"+i);
+
+   for( int j=0; j < 10; j++ )
+    cells.add("value"+j+"_"+rnd.nextInt(300));
+  }
+ }
+
+ // Object IDs are unique, every copy gets its own ones
+ private static String[] copy( List<String> cells, BitSet ids, int copies )
+ {
+  String[] data = new String[cells.size()*copies];
+
+  int k = 0;
+
+  for( int c=0; c < copies; c++ )
+  {
+   for( int i=0; i < cells.size(); i++ )
+   {
+    String s = cells.get(i);
+
+    data[k++] = ids.get(i) ? s+"."+c : new String(s.toCharArray());
+   }
+  }
+
+  return data;
+ }
+
+ private static void intern( final String[] data, int threads, final boolean dict ) throws Exception
+ {
+  ExecutorService exec = Executors.newFixedThreadPool(threads);
+  List<Future<Object>> res = new ArrayList<Future<Object>>();
+
+  final int part = (data.length+threads-1)/threads;
+
+  for( int t=0; t < threads; t++ )
+  {
+   final int from = t*part;
+
+   res.add( exec.submit( new Callable<Object>()
+   {
+    @Override
+    public Object call()
+    {
+     StringDictionary sd = StringDictionary.getInstance();
+     int to = Math.min(from+part, data.length);
+
+     for( int i=from; i < to; i++ )
+      data[i] = dict ? sd.intern(data[i]) : data[i].intern();
+
+     return null;
+    }
+   }));
+  }
+
+  for( Future<Object> f : res )
+   f.get();
+
+  exec.shutdown();
+ }
+
+ private static long usedHeap()
+ {
+  Runtime rt = Runtime.getRuntime();
+
+  for( int i=0; i < 5; i++ )
+  {
+   System.gc();
+
+   // Lets cleared weak references get enqueued
+   try
+   {
+    Thread.sleep(50);
+   }
+   catch(InterruptedException e)
+   {
+   }
+  }
+
+  return rt.totalMemory()-rt.freeMemory();
+ }
+}
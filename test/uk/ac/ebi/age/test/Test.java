@@ -1,10 +1,11 @@
 package uk.ac.ebi.age.test;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 
 import uk.ac.ebi.age.log.impl.BufferLogger;
 import uk.ac.ebi.age.mng.SemanticManager;
@@ -18,8 +19,6 @@ import uk.ac.ebi.age.storage.RelationResolveException;
 import uk.ac.ebi.age.storage.exeption.SubmissionStoreException;
 import uk.ac.ebi.age.storage.impl.ser.SerializedStorage;
 
-import com.pri.util.stream.StreamPump;
-
 public class Test
 {
  static final String ontologyFile = "file:///d:/workspaceGL/eclipse/ESD/semantic/test.owl";
@@ -38,14 +37,11 @@ public class Test
    
 //   smngr.initModel(ontologyFile);
    
-   ByteArrayOutputStream bais = new ByteArrayOutputStream();
-   FileInputStream fis = new FileInputStream( new File("/d:/workspaceGL/eclipse/ESD/semantic/test.csv") );
-   
-   StreamPump.doPump(fis, bais);
-   
-   String text = new String(bais.toByteArray());
+   Reader rd = new InputStreamReader( new FileInputStream( new File("/d:/workspaceGL/eclipse/ESD/semantic/test.csv") ) );
  
-   AgeTabSubmission sbm =  AgeTabSyntaxParser.getInstance().parse(text);
+   AgeTabSubmission sbm =  AgeTabSyntaxParser.getInstance().parse(rd);
+   
+   rd.close();
    
    BufferLogger logBuf = new BufferLogger();
   
@@ -0,0 +1,71 @@
+package uk.ac.ebi.age.test;
+
+import java.util.Arrays;
+
+import uk.ac.ebi.age.mng.SemanticManager;
+import uk.ac.ebi.age.model.AgeObject;
+import uk.ac.ebi.age.model.SemanticModel;
+import uk.ac.ebi.age.model.writable.AgeClassWritable;
+import uk.ac.ebi.age.model.writable.AgeObjectWritable;
+import uk.ac.ebi.age.model.writable.AgeRelationClassWritable;
+import uk.ac.ebi.age.storage.impl.ser.RelationGraph;
+import uk.ac.ebi.age.storage.impl.ser.Traverser;
+
+/*
+ * Walks A->C, A->B, C->B, B->D with depth limit 2. Depth first reaches B over C at depth 2 first, D must still be
+ * found over the shorter path A->B.
+ */
+public class TraverserTest
+{
+ public static void main(String[] args)
+ {
+  SemanticModel model = SemanticManager.getInstance().createMasterModel();
+
+  AgeClassWritable cls = model.createAgeClass("Node", "NodeID", "N", model.getRootAgeClass());
+  AgeRelationClassWritable rcls = model.createAgeRelationClass("linked", "LinkedID", model.getRootAgeRelationClass());
+
+  AgeObjectWritable a = model.createAgeObject("A", cls);
+  AgeObjectWritable b = model.createAgeObject("B", cls);
+  AgeObjectWritable c = model.createAgeObject("C", cls);
+  AgeObjectWritable d = model.createAgeObject("D", cls);
+
+  a.createRelation(c, rcls);
+  a.createRelation(b, rcls);
+  c.createRelation(b, rcls);
+  b.createRelation(d, rcls);
+
+  RelationGraph graph = RelationGraph.build(Arrays.asList(a, b, c, d), 0);
+
+  boolean ok = true;
+
+  for( Traverser.Strategy st : Traverser.Strategy.values() )
+  {
+   ok &= check(new Traverser(a), st, "objects");
+   ok &= check(new Traverser(graph, a), st, "graph");
+  }
+
+  System.out.println(ok ? "OK" : "FAILED");
+
+  if( ! ok )
+   System.exit(1);
+ }
+
+ private static boolean check( Traverser trv, Traverser.Strategy st, String mode )
+ {
+  trv.setStrategy(st);
+  trv.setMaxDepth(2);
+
+  StringBuilder sb = new StringBuilder();
+
+  for( AgeObject obj : trv )
+   sb.append(obj.getId()).append('@').append(trv.getDepth()).append(' ');
+
+  String res = sb.toString().trim();
+
+  boolean ok = res.split(" ").length == 4 && res.contains("D@2");
+
+  System.out.println(st+" ("+mode+"): "+res+( ok ? "" : " - D is missed" ));
+
+  return ok;
+ }
+}
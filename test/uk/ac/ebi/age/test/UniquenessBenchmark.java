@@ -0,0 +1,138 @@
+package uk.ac.ebi.age.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import uk.ac.ebi.age.log.impl.BufferLogger;
+import uk.ac.ebi.age.mng.SemanticManager;
+import uk.ac.ebi.age.mng.SubmissionManager;
+import uk.ac.ebi.age.model.AgeAttribute;
+import uk.ac.ebi.age.model.ContextSemanticModel;
+import uk.ac.ebi.age.model.DataType;
+import uk.ac.ebi.age.model.FormatException;
+import uk.ac.ebi.age.model.RestrictionType;
+import uk.ac.ebi.age.model.SemanticModel;
+import uk.ac.ebi.age.model.writable.AgeAttributeClassWritable;
+import uk.ac.ebi.age.model.writable.AgeAttributeWritable;
+import uk.ac.ebi.age.model.writable.AgeClassWritable;
+import uk.ac.ebi.age.model.writable.AgeObjectWritable;
+import uk.ac.ebi.age.model.writable.AttributeAttachmentRuleWritable;
+import uk.ac.ebi.age.model.writable.QualifierRuleWritable;
+import uk.ac.ebi.age.model.writable.SubmissionWritable;
+import uk.ac.ebi.age.validator.AgeSemanticValidator;
+
+/*
+ * Validates objects carrying 10 to 10000 values of a unique-valued attribute (each value with a unique-valued
+ * qualifier) and compares the validation time with a pairwise equals() pass over the same values.
+ * Usage: UniquenessBenchmark [rounds]
+ */
+public class UniquenessBenchmark
+{
+ private static SemanticModel model;
+ private static AgeClassWritable sampleClass;
+ private static AgeAttributeClassWritable nameClass;
+ private static AgeAttributeClassWritable scoreClass;
+
+ public static void main(String[] args) throws FormatException
+ {
+  int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+
+  createModel();
+
+  AgeSemanticValidator validator = SubmissionManager.getInstance().getAgeSemanticValidator();
+
+  for( int n = 10; n <= 10000; n *= 10 )
+  {
+   SubmissionWritable subm = generate(n);
+   List<AgeAttribute> values = new ArrayList<AgeAttribute>( subm.getObjects().iterator().next().getAttributes() );
+
+   System.out.println("Values per object: "+n);
+
+   for( int r=0; r < rounds; r++ )
+   {
+    long tm = System.nanoTime();
+
+    boolean res = validator.validate(subm, new BufferLogger().getRootNode());
+
+    long t1 = System.nanoTime()-tm;
+
+    if( ! res )
+     throw new IllegalStateException("Validation failed");
+
+    tm = System.nanoTime();
+
+    int dups = 0;
+
+    for( int i=0; i < values.size()-1; i++ )
+    {
+     for( int j=i+1; j < values.size(); j++ )
+     {
+      if( values.get(i).equals(values.get(j)) )
+       dups++;
+     }
+    }
+
+    long t2 = System.nanoTime()-tm;
+
+    System.out.println(" round "+(r+1)+": validation "+(t1/1000)+"us, pairwise equals "+(t2/1000)+"us (duplicates: "+dups+")");
+   }
+  }
+ }
+
+ private static void createModel()
+ {
+  model = SemanticManager.getInstance().createMasterModel();
+
+  sampleClass = model.createAgeClass("Sample", "SampleID", "S", model.getRootAgeClass());
+  nameClass = model.createAgeAttributeClass("name", "NameID", DataType.STRING, model.getRootAgeAttributeClass());
+  scoreClass = model.createAgeAttributeClass("score", "ScoreID", DataType.INTEGER, model.getRootAgeAttributeClass());
+
+  QualifierRuleWritable qr = model.createQualifierRule();
+  qr.setAttributeClass(scoreClass);
+  qr.setUnique(true);
+  qr.setRuleId(1);
+
+  AttributeAttachmentRuleWritable nameRule = model.createAttributeAttachmentRule(RestrictionType.MUST);
+  nameRule.setAttributeClass(nameClass);
+  nameRule.setValueUnique(true);
+  nameRule.addQualifier(qr);
+  nameRule.setRuleId(2);
+
+  sampleClass.addAttributeAttachmentRule(nameRule);
+
+  AttributeAttachmentRuleWritable scoreRule = model.createAttributeAttachmentRule(RestrictionType.MAY);
+  scoreRule.setAttributeClass(scoreClass);
+  scoreRule.setRuleId(3);
+
+  nameClass.addAttributeAttachmentRule(scoreRule);
+ }
+
+ private static SubmissionWritable generate( int n ) throws FormatException
+ {
+  ContextSemanticModel ctxModel = SemanticManager.getInstance().getContextModel(new Test.DefContext());
+
+  SubmissionWritable subm = ctxModel.createSubmission();
+  subm.setId("SBM"+n);
+
+  AgeObjectWritable obj = model.createAgeObject("OBJ"+n, sampleClass);
+
+  for( int i=0; i < n; i++ )
+  {
+   AgeAttributeWritable name = model.createAgeAttribute(nameClass);
+   name.updateValue("name"+i);
+   name.finalizeValue();
+
+   AgeAttributeWritable score = model.createAgeAttribute(scoreClass);
+   score.updateValue(String.valueOf(i));
+   score.finalizeValue();
+
+   name.addAttribute(score);
+   obj.addAttribute(name);
+  }
+
+  obj.setSubmission(subm);
+  subm.addObject(obj);
+
+  return subm;
+ }
+}